@@ -0,0 +1,282 @@
+/*  =========================================================================
+    DafkaProtoBenchmark - encoding and decoding of every dafka_proto message
+
+    Measures the send and receive side of each message type over inproc,
+    where both ends of a PUSH/PULL pair run in their own thread, and over
+    a socket-free path that encodes into frames and decodes them back in
+    memory, so the cost of the codec can be told from the cost of the
+    socket. Payload is the size of the content frame of MSG, DIRECT_MSG and
+    the batches, length is the length of the subject, of the topic when it
+    is the subject, and of each subject of a CONSUMER_HELLO.
+
+    Allocation profiling is always on, run with
+
+        mvn -P jmh package
+        java -jar target/jdafka_benchmarks.jar [jmh options]
+
+    for instance -p type=MSG,MSG_BATCH -p payload=128 to narrow the matrix.
+    =========================================================================
+*/
+
+package org.zproto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.zeromq.ZContext;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMsg;
+
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+@State (Scope.Benchmark)
+public class DafkaProtoBenchmark
+{
+    @Param ({"MSG", "DIRECT_MSG", "MSG_BATCH", "DIRECT_MSG_BATCH", "FETCH", "ACK",
+             "HEAD", "DIRECT_HEAD", "GET_HEADS", "CONSUMER_HELLO", "STORE_HELLO"})
+    public String type;
+
+    @Param ({"0", "128", "4096", "65536"})
+    public int payload;
+
+    @Param ({"8", "128"})
+    public int length;
+
+    //  Receivers give up after this long so no thread of a group hangs when
+    //  the other one is done
+    private static final int TIMEOUT = 100;
+
+    private static int endpoints;
+
+    private char id;
+    private byte [] topic;
+    private String subject;
+    private byte [] address;
+    private List <String> subjects;
+    private byte [] content;
+
+    private ZContext ctx;
+    private Socket output;
+    private Socket input;
+
+    //  Frames of the message and their data for the in-memory path
+    private ZMsg frames;
+    private byte [] command;
+
+    @State (Scope.Thread)
+    public static class Receiver
+    {
+        DafkaProto reuse = new DafkaProto ('A');
+        DafkaProtoView view = new DafkaProtoView ();
+    }
+
+    @Setup (Level.Trial)
+    public void setup ()
+    {
+        id = (char) idOf (type);
+        char [] chars = new char [length];
+        Arrays.fill (chars, 's');
+        subject = new String (chars);
+        address = "Life is short bu".getBytes (ZMQ.CHARSET);
+        subjects = new ArrayList <String> ();
+        for (int index = 0; index < 4; index++)
+            subjects.add (subject);
+        content = new byte [payload];
+        Arrays.fill (content, (byte) 'c');
+
+        switch (id) {
+        case DafkaProto.MSG:
+        case DafkaProto.MSG_BATCH:
+        case DafkaProto.HEAD:
+        case DafkaProto.GET_HEADS:
+            topic = subject.getBytes (ZMQ.CHARSET);
+            break;
+        default:
+            topic = address;
+        }
+
+        frames = message ().encode ();
+        command = frames.getFirst ().getData ();
+
+        ctx = new ZContext ();
+        String endpoint = "inproc://benchmark-" + endpoints++;
+        output = ctx.createSocket (ZMQ.PUSH);
+        output.setSendTimeOut (TIMEOUT);
+        output.bind (endpoint);
+        input = ctx.createSocket (ZMQ.PULL);
+        input.setReceiveTimeOut (TIMEOUT);
+        input.connect (endpoint);
+    }
+
+    @TearDown (Level.Trial)
+    public void tearDown ()
+    {
+        ctx.destroy ();
+    }
+
+    //  Build the message as senders do, wrapping the content without a copy
+    private DafkaProto message ()
+    {
+        DafkaProto self = new DafkaProto (id);
+        self.setTopic (topic);
+        switch (id) {
+        case DafkaProto.MSG:
+        case DafkaProto.DIRECT_MSG:
+        case DafkaProto.MSG_BATCH:
+        case DafkaProto.DIRECT_MSG_BATCH:
+            self.setSubject (subject);
+            self.setAddress (address);
+            self.setSequence (123);
+            self.setCount (16);
+            self.setContent (new ZFrame (content));
+            break;
+        case DafkaProto.FETCH:
+            self.setSubject (subject);
+            self.setSequence (123);
+            self.setCount (16);
+            self.setAddress (address);
+            break;
+        case DafkaProto.ACK:
+            self.setSubject (subject);
+            self.setSequence (123);
+            self.setAddress (address);
+            break;
+        case DafkaProto.HEAD:
+        case DafkaProto.DIRECT_HEAD:
+            self.setSubject (subject);
+            self.setAddress (address);
+            self.setSequence (123);
+            break;
+        case DafkaProto.CONSUMER_HELLO:
+            self.setAddress (address);
+            self.setSubjects (subjects);
+            break;
+        default:
+            self.setAddress (address);
+        }
+        return self;
+    }
+
+    private static int idOf (String type)
+    {
+        try {
+            return DafkaProto.class.getField (type).getInt (null);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException ("Unknown message type " + type, e);
+        }
+    }
+
+    //  --------------------------------------------------------------------------
+    //  In memory, without any socket
+
+    @Benchmark
+    public ZMsg encode ()
+    {
+        return message ().encode ();
+    }
+
+    @Benchmark
+    public DafkaProto decode ()
+    {
+        return DafkaProto.decode (frames);
+    }
+
+    @Benchmark
+    public boolean decodeView (Receiver receiver)
+    {
+        return receiver.view.wrap (command, command.length, content);
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Over inproc, one thread sending and one receiving each way of receiving
+
+    @Benchmark
+    @Group ("inproc")
+    @GroupThreads (1)
+    public boolean send ()
+    {
+        return message ().send (output);
+    }
+
+    @Benchmark
+    @Group ("inproc")
+    @GroupThreads (1)
+    public DafkaProto recv ()
+    {
+        return DafkaProto.recv (input);
+    }
+
+    @Benchmark
+    @Group ("inprocReuse")
+    @GroupThreads (1)
+    public boolean sendReuse ()
+    {
+        return message ().send (output);
+    }
+
+    @Benchmark
+    @Group ("inprocReuse")
+    @GroupThreads (1)
+    public boolean recvReuse (Receiver receiver)
+    {
+        return DafkaProto.recv (input, receiver.reuse);
+    }
+
+    @Benchmark
+    @Group ("inprocView")
+    @GroupThreads (1)
+    public boolean sendView ()
+    {
+        return message ().send (output);
+    }
+
+    @Benchmark
+    @Group ("inprocView")
+    @GroupThreads (1)
+    public boolean recvView (Receiver receiver)
+    {
+        return receiver.view.recv (input);
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Run the benchmarks with the GC profiler on top of any JMH options
+
+    public static void main (String [] args) throws RunnerException, CommandLineOptionException
+    {
+        Options options = new OptionsBuilder ()
+            .parent (new CommandLineOptions (args))
+            .addProfiler (GCProfiler.class)
+            .build ();
+        new Runner (options).run ();
+    }
+}
@@ -0,0 +1,46 @@
+package org.zeromq.dafka;
+
+import java.security.SecureRandom;
+
+/**
+ * <p>Addresses of producers, consumers and stores.</p>
+ *
+ * <p>An address is 16 random bytes, as many as a UUID but without its 36 character text form. Addresses are also
+ * used as the pub/sub topic of messages sent to one peer, where a zero byte would end the topic, so none of their
+ * bytes is zero. That still leaves close to 128 random bits.</p>
+ */
+public final class DafkaAddress {
+
+  public static final int SIZE = 16;
+
+  private static final SecureRandom random = new SecureRandom();
+
+  private DafkaAddress() {
+  }
+
+  /**
+   * @return a new random address
+   */
+  public static byte[] random() {
+    byte[] address = new byte[SIZE];
+    random.nextBytes(address);
+    for (int index = 0; index < SIZE; index++) {
+      while (address[index] == 0) {
+        address[index] = (byte) random.nextInt(256);
+      }
+    }
+    return address;
+  }
+
+  /**
+   * @return the address in hex for logging
+   */
+  public static String toString(byte[] address) {
+    StringBuilder builder = new StringBuilder(address.length * 2);
+    for (byte value : address) {
+      builder.append(Character.forDigit((value >> 4) & 0xf, 16));
+      builder.append(Character.forDigit(value & 0xf, 16));
+    }
+    return builder.toString();
+  }
+}
@@ -11,6 +11,7 @@ import org.zeromq.ZMQException;
 import org.zeromq.ZPoller;
 import org.zeromq.ZTimer;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -36,7 +37,7 @@ public class DafkaBeacon extends SimpleActor
     private boolean           connected;
     private Map<String, Long> peers;
 
-    private String sender;
+    private byte[] sender;
     private String address;
     private int    port;
 
@@ -167,12 +168,20 @@ public class DafkaBeacon extends SimpleActor
             }
             break;
         case "B":
-            final Object[] objects = sub.recvPicture("ss");
-            String sender = (String) objects[0];
-            String address = (String) objects[1];
+            final Object[] objects = sub.recvPicture("bsi");
+            byte[] sender = (byte[]) objects[0];
+            String host = (String) objects[1];
+            int peerPort = (int) objects[2];
+
+            // The tower fills in the address it saw the beacon coming from
+            if (StringUtils.isBlank(host)) {
+                host = "127.0.0.1";
+            }
+            String address = "tcp://" + host + ":" + peerPort;
 
-            // Drop our own beaconing
-            if (sender == null || !this.sender.equals(sender)) {
+            // Drop our own beaconing, and any beacon that overtakes the tower's welcome as the actor
+            // creating us still waits for the connected signal
+            if (connected && !Arrays.equals(sender, this.sender)) {
                 Long expire = peers.get(address);
 
                 if (expire == null) {
@@ -183,7 +192,7 @@ public class DafkaBeacon extends SimpleActor
 
                     // New node on the network, sending a beacon immediately
                     if (port != -1) {
-                        pub.sendPicture("sssi", "B", this.sender, this.address, this.port);
+                        pub.sendPicture("sbsi", "B", this.sender, this.address, this.port);
                     }
 
                 }
@@ -205,25 +214,25 @@ public class DafkaBeacon extends SimpleActor
         }
 
         try {
-            final Object[] messageResult = pipe.recvPicture("si");
-            this.sender = (String) messageResult[0];
+            final Object[] messageResult = pipe.recvPicture("bi");
+            this.sender = (byte[]) messageResult[0];
             this.port = (int) messageResult[1];
 
             // Enable the beacon beaconTimer
             broadcastTimer = ztimer.add(interval,
-                                        args -> pub.sendPicture("sssi", "B", args[0], args[1], args[2]),
+                                        args -> pub.sendPicture("sbsi", "B", args[0], args[1], args[2]),
                                         sender,
                                         address,
                                         port);
 
             // Sending the first beacon immediately
-            pub.sendPicture("sssi", "B", sender, address, port);
+            pub.sendPicture("sbsi", "B", sender, address, port);
         }
         catch (ZMQException exception) {
             log.error("Beacon: error while receiving start command", exception);
             pipe.send(new byte[] { (byte) 255 });
         }
-        log.debug("Beacon: started. port: {} interval: {} uuid: {}", port, interval, sender);
+        log.debug("Beacon: started. port: {} interval: {} address: {}", port, interval, DafkaAddress.toString(sender));
     }
 
     private void stopBeacon()
@@ -256,9 +265,9 @@ public class DafkaBeacon extends SimpleActor
         return true;
     }
 
-    public void start(ZActor actor, String consumerName, int port)
+    public void start(ZActor actor, byte[] address, int port)
     {
-        actor.pipe().sendPicture("ssi", "START", consumerName, port);
+        actor.pipe().sendPicture("sbi", "START", address, port);
     }
 
     public void stop(ZActor actor)
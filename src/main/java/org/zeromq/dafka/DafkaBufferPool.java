@@ -0,0 +1,141 @@
+package org.zeromq.dafka;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Pool of buffers for record content, on the heap or direct.</p>
+ *
+ * <p>Buffers come in size classes, powers of two from {@link #MIN_SIZE} to {@link #MAX_SIZE} bytes. A buffer is taken
+ * from the class its size rounds up to and given back once its content is no longer needed, so large records reuse
+ * the same memory instead of allocating arrays the garbage collector treats as humongous. Every class keeps a bounded
+ * number of free buffers, larger requests and buffers beyond that bound are left to the garbage collector.</p>
+ *
+ * <p>The pool is thread safe, buffers are taken by one thread and given back by another.</p>
+ */
+public final class DafkaBufferPool {
+
+  public static final int MIN_SIZE = 256;
+  public static final int MAX_SIZE = 8 * 1024 * 1024;
+  public static final long DEFAULT_POOLED_BYTES = 64L * 1024 * 1024;
+
+  private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+  private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+
+  private final boolean direct;
+  private final List<ArrayBlockingQueue<ByteBuffer>> free;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  public DafkaBufferPool(boolean direct) {
+    this(direct, DEFAULT_POOLED_BYTES);
+  }
+
+  /**
+   * @param direct Whether buffers are allocated outside of the heap
+   * @param pooledBytes Bytes of free buffers kept by the pool, shared equally by the size classes, each keeping at
+   * least two buffers
+   */
+  public DafkaBufferPool(boolean direct, long pooledBytes) {
+    this.direct = direct;
+    this.free = new ArrayList<>(CLASSES);
+    long classBytes = pooledBytes / CLASSES;
+    for (int index = 0; index < CLASSES; index++) {
+      long buffers = Math.max(2, Math.min(classBytes / sizeOf(index), Integer.MAX_VALUE));
+      free.add(new ArrayBlockingQueue<>((int) buffers));
+    }
+  }
+
+  /**
+   * Creates the pool of a producer or consumer property.
+   *
+   * @param type none, heap or direct
+   * @return the pool or null if none
+   * @throws IllegalArgumentException if the type is unknown
+   */
+  public static DafkaBufferPool create(String type) {
+    switch (type) {
+      case "none":
+        return null;
+      case "heap":
+        return new DafkaBufferPool(false);
+      case "direct":
+        return new DafkaBufferPool(true);
+      default:
+        throw new IllegalArgumentException("Unknown buffer pool " + type);
+    }
+  }
+
+  /**
+   * Takes a buffer from the pool, or allocates one if there is none left of the size.
+   *
+   * @return a cleared buffer whose limit is the requested size, its capacity may be larger
+   */
+  public ByteBuffer acquire(int size) {
+    int index = classOf(size);
+    ByteBuffer buffer = index < CLASSES ? free.get(index).poll() : null;
+    if (buffer == null) {
+      misses.increment();
+      int capacity = index < CLASSES ? sizeOf(index) : size;
+      buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    } else {
+      hits.increment();
+      buffer.clear();
+    }
+    buffer.limit(size);
+    return buffer;
+  }
+
+  /**
+   * Gives a buffer back to the pool. Buffers that do not fit any size class, and buffers of a class that already has
+   * enough free ones, are left to the garbage collector. The buffer must not be used afterwards, so only buffers taken
+   * from the pool, or handed over for good, may be given back.
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer == null || buffer.isDirect() != direct || buffer.isReadOnly()) {
+      return;
+    }
+    int capacity = buffer.capacity();
+    int index = classOf(capacity);
+    if (index < CLASSES && sizeOf(index) == capacity && (direct || buffer.arrayOffset() == 0)) {
+      free.get(index).offer(buffer);
+    }
+  }
+
+  /**
+   * @return the number of buffers taken from the pool
+   */
+  public long hits() {
+    return hits.sum();
+  }
+
+  /**
+   * @return the number of buffers allocated because the pool had none of the size
+   */
+  public long misses() {
+    return misses.sum();
+  }
+
+  public boolean isDirect() {
+    return direct;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s pool hits=%d misses=%d", direct ? "direct" : "heap", hits(), misses());
+  }
+
+  private static int classOf(int size) {
+    if (size <= MIN_SIZE) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+  }
+
+  private static int sizeOf(int index) {
+    return MIN_SIZE << index;
+  }
+}
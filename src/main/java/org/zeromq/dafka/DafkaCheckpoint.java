@@ -0,0 +1,163 @@
+package org.zeromq.dafka;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>Identity of a producer kept in a small memory-mapped file, so a restarted producer resumes its partitions instead
+ * of starting new ones.</p>
+ *
+ * <p>The file holds the address of every partition, the sequence its next record gets and the sequence up to which
+ * the partition reserved sequences. Sequences are only used once they are reserved, and a reservation is forced to
+ * disk before any of its sequences is, so the reserved sequence on disk is always ahead of every sequence sent. The
+ * next sequence is written to the mapping after every message, which costs no more than a store to memory. A producer
+ * closing gives back what it reserved, a restarted producer resumes at the reserved sequence. A producer or machine
+ * crashing skips the sequences reserved but not used then, rather than reusing sequences consumers and stores drop as
+ * duplicates.</p>
+ *
+ * <p>The file starts with a magic number and the number of partitions, followed by the partitions, each an address,
+ * the next sequence and the reserved sequence. Partitions added on a restart get new addresses, partitions no longer
+ * used are kept. The file is locked while open, as two producers sharing an identity would send the same sequences.</p>
+ */
+class DafkaCheckpoint implements Closeable {
+
+  private static final int MAGIC = 0xDAF4A002;
+  private static final int HEADER = 8;
+  private static final int SEQUENCE = DafkaAddress.SIZE;
+  private static final int RESERVED = SEQUENCE + 8;
+  private static final int ENTRY = RESERVED + 8;
+
+  private final FileChannel channel;
+  private final MappedByteBuffer map;
+  private boolean dirty;
+
+  private DafkaCheckpoint(FileChannel channel, MappedByteBuffer map) {
+    this.channel = channel;
+    this.map = map;
+  }
+
+  /**
+   * Opens the identity in the file, creating it or the partitions it lacks, and locks it until closed.
+   *
+   * @throws IOException if the file cannot be mapped, is not an identity or is locked by another producer
+   */
+  static DafkaCheckpoint open(Path path, int partitions) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    try {
+      if (!lock(channel)) {
+        throw new IOException(path + " is in use by another producer");
+      }
+      long size = channel.size();
+      int existing = 0;
+      if (size > 0) {
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, HEADER));
+        if (size < HEADER || header.getInt(0) != MAGIC || size < HEADER + (long) header.getInt(4) * ENTRY) {
+          throw new IOException(path + " is not a producer identity");
+        }
+        existing = header.getInt(4);
+      }
+
+      int count = Math.max(existing, partitions);
+      MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) count * ENTRY);
+      for (int partition = existing; partition < count; partition++) {
+        int offset = HEADER + partition * ENTRY;
+        ByteBuffer entry = map.duplicate();
+        entry.position(offset);
+        entry.put(DafkaAddress.random());
+        map.putLong(offset + SEQUENCE, 0);
+        map.putLong(offset + RESERVED, 0);
+      }
+      map.putInt(0, MAGIC);
+      map.putInt(4, count);
+      // New partitions are only trusted once they are on disk, any later change is a sequence or a reservation
+      if (count > existing) {
+        map.force();
+      }
+      return new DafkaCheckpoint(channel, map);
+    } catch (IOException | RuntimeException exception) {
+      channel.close();
+      throw exception;
+    }
+  }
+
+  private static boolean lock(FileChannel channel) throws IOException {
+    try {
+      return channel.tryLock() != null;
+    } catch (OverlappingFileLockException exception) {
+      // Held by this process
+      return false;
+    }
+  }
+
+  /**
+   * @return the address of the partition
+   */
+  byte[] address(int partition) {
+    byte[] address = new byte[DafkaAddress.SIZE];
+    ByteBuffer entry = map.duplicate();
+    entry.position(HEADER + partition * ENTRY);
+    entry.get(address);
+    return address;
+  }
+
+  /**
+   * @return the sequence of the next record of the partition, as far as it was written
+   */
+  long sequence(int partition) {
+    return map.getLong(HEADER + partition * ENTRY + SEQUENCE);
+  }
+
+  /**
+   * Checkpoints the sequence of the next record of the partition, in memory.
+   */
+  void sequence(int partition, long sequence) {
+    map.putLong(HEADER + partition * ENTRY + SEQUENCE, sequence);
+    dirty = true;
+  }
+
+  /**
+   * @return the sequence up to which the partition reserved sequences, the first one it did not reserve
+   */
+  long reserved(int partition) {
+    return map.getLong(HEADER + partition * ENTRY + RESERVED);
+  }
+
+  /**
+   * Reserves the sequences of the partition up to the one given, writing the reservation to disk before returning.
+   */
+  void reserve(int partition, long reserved) {
+    map.putLong(HEADER + partition * ENTRY + RESERVED, reserved);
+    map.force();
+    dirty = false;
+  }
+
+  /**
+   * Writes the sequences checkpointed since the last time to disk.
+   */
+  void force() {
+    if (dirty) {
+      map.force();
+      dirty = false;
+    }
+  }
+
+  /**
+   * Gives back the sequences reserved but not used, so the producer resumes at its next sequence.
+   */
+  @Override
+  public void close() throws IOException {
+    int count = map.getInt(4);
+    for (int partition = 0; partition < count; partition++) {
+      map.putLong(HEADER + partition * ENTRY + RESERVED, sequence(partition));
+    }
+    map.force();
+    channel.close();
+  }
+}
@@ -0,0 +1,46 @@
+package org.zeromq.dafka;
+
+/**
+ * <p>Compresses the content of records before they are published.</p>
+ *
+ * <p>The producer compresses a single record or the packed records of a batch once. The codec of the compressor goes
+ * out with the message, stores keep the compressed content as it is and consumers pick the compressor of the codec to
+ * decompress records they are about to deliver.</p>
+ *
+ * <p>Compressors may keep state between calls and are not thread safe, every actor creates its own through
+ * {@link DafkaCompressors}.</p>
+ */
+public interface DafkaCompressor {
+
+  /**
+   * @return the codec sent along with content compressed by this compressor
+   */
+  int codec();
+
+  /**
+   * @return the compressed content, sized exactly
+   */
+  byte[] compress(byte[] data, int offset, int length);
+
+  /**
+   * @return the decompressed content, sized exactly
+   * @throws IllegalArgumentException if the content is corrupted
+   */
+  byte[] decompress(byte[] data, int offset, int length);
+
+  /**
+   * Decompresses content received from the network, whose decompressed size the sender is not trusted with.
+   * Compressors knowing the size before decompressing should reject it before allocating anything.
+   *
+   * @param limit Bytes the decompressed content may take at most
+   * @return the decompressed content, sized exactly
+   * @throws IllegalArgumentException if the content is corrupted or decompresses to more than the limit
+   */
+  default byte[] decompress(byte[] data, int offset, int length, int limit) {
+    byte[] result = decompress(data, offset, length);
+    if (result.length > limit) {
+      throw new IllegalArgumentException("Content decompresses to more than " + limit + " bytes");
+    }
+    return result;
+  }
+}
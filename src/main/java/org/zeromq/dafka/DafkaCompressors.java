@@ -0,0 +1,173 @@
+package org.zeromq.dafka;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>Registry of the compressors records can be published with.</p>
+ *
+ * <p>Codecs 0 (none) and 1 (deflate) are built in. Faster codecs are added by registering a further codec with a name
+ * producers can be configured with, every producer and consumer of a topic must have it registered.</p>
+ *
+ * <p>Codecs take the low six bits of the codec byte of a message. The high bits flag the chunks of a record too large
+ * for one message, sent as a run of messages with consecutive sequences.</p>
+ */
+public final class DafkaCompressors {
+
+  public static final int NONE = 0;
+  public static final int DEFLATE = 1;
+
+  // The record goes on in the message of the next sequence
+  public static final int MORE = 0x80;
+  // The message goes on with the record of the message of the previous sequence
+  public static final int CONTINUED = 0x40;
+  // Bits of the codec byte naming the codec
+  public static final int CODEC = 0x3f;
+
+  private static final Map<Integer, Supplier<DafkaCompressor>> suppliers = new ConcurrentHashMap<>();
+  private static final Map<String, Integer> names = new ConcurrentHashMap<>();
+
+  static {
+    register(NONE, "none", NoneCompressor::new);
+    register(DEFLATE, "deflate", DeflateCompressor::new);
+  }
+
+  private DafkaCompressors() {
+  }
+
+  /**
+   * Registers a compressor.
+   *
+   * @param codec Codec sent along with compressed content, between 0 and 63
+   * @param name Name producers are configured with
+   * @param supplier Creates a compressor for each actor using it
+   */
+  public static void register(int codec, String name, Supplier<DafkaCompressor> supplier) {
+    if (codec < 0 || codec > CODEC) {
+      throw new IllegalArgumentException("Codec must fit into six bits: " + codec);
+    }
+    suppliers.put(codec, supplier);
+    names.put(name, codec);
+  }
+
+  /**
+   * @return a new compressor for the codec or null if it is not registered
+   */
+  public static DafkaCompressor create(int codec) {
+    Supplier<DafkaCompressor> supplier = suppliers.get(codec);
+    return supplier == null ? null : supplier.get();
+  }
+
+  /**
+   * @return a new compressor registered with the name
+   * @throws IllegalArgumentException if no compressor has the name
+   */
+  public static DafkaCompressor create(String name) {
+    Integer codec = names.get(name);
+    if (codec == null) {
+      throw new IllegalArgumentException("Unknown compression " + name);
+    }
+    return create(codec);
+  }
+
+  private static final class NoneCompressor implements DafkaCompressor {
+
+    @Override
+    public int codec() {
+      return NONE;
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) {
+      return Arrays.copyOfRange(data, offset, offset + length);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length) {
+      return Arrays.copyOfRange(data, offset, offset + length);
+    }
+  }
+
+  /**
+   * Deflate from java.util.zip. The compressed content starts with the 4-byte length of the original content, so it is
+   * decompressed into an array of the right size at once, once the length is checked against the limit.
+   */
+  private static final class DeflateCompressor implements DafkaCompressor {
+
+    private final Deflater deflater = new Deflater();
+    private final Inflater inflater = new Inflater();
+    private byte[] buffer = new byte[1024];
+
+    @Override
+    public int codec() {
+      return DEFLATE;
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) {
+      deflater.reset();
+      deflater.setInput(data, offset, length);
+      deflater.finish();
+
+      buffer[0] = (byte) (length >>> 24);
+      buffer[1] = (byte) (length >>> 16);
+      buffer[2] = (byte) (length >>> 8);
+      buffer[3] = (byte) length;
+      int size = 4;
+      while (!deflater.finished()) {
+        if (size == buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        size += deflater.deflate(buffer, size, buffer.length - size);
+      }
+      return Arrays.copyOf(buffer, size);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length) {
+      return decompress(data, offset, length, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length, int limit) {
+      if (length < 4) {
+        throw new IllegalArgumentException("Corrupted deflate content");
+      }
+      int size = ((data[offset] & 0xff) << 24)
+          | ((data[offset + 1] & 0xff) << 16)
+          | ((data[offset + 2] & 0xff) << 8)
+          | (data[offset + 3] & 0xff);
+      if (size < 0) {
+        throw new IllegalArgumentException("Corrupted deflate content");
+      }
+      if (size > limit) {
+        throw new IllegalArgumentException("Deflate content of " + size + " bytes exceeds " + limit + " bytes");
+      }
+
+      byte[] result = new byte[size];
+      inflater.reset();
+      inflater.setInput(data, offset + 4, length - 4);
+      try {
+        int position = 0;
+        while (position < size) {
+          int inflated = inflater.inflate(result, position, size - position);
+          if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+            break;
+          }
+          position += inflated;
+        }
+        if (position != size) {
+          throw new IllegalArgumentException("Corrupted deflate content");
+        }
+      } catch (DataFormatException exception) {
+        throw new IllegalArgumentException("Corrupted deflate content", exception);
+      }
+      return result;
+    }
+  }
+}
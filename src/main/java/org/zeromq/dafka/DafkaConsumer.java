@@ -2,10 +2,14 @@ package org.zeromq.dafka;
 
 import static org.zeromq.ZActor.SimpleActor;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
-import java.util.UUID;
+import java.util.function.Consumer;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -17,51 +21,131 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.config.Configurator;
+import org.zeromq.SocketType;
 import org.zeromq.ZActor;
 import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZPoller;
+import org.zproto.DafkaProto;
+import org.zproto.DafkaProtoBatch;
+import org.zproto.DafkaProtoView;
 
 /**
- * <p>Skeleton actor for the DafkaConsumer</p>
+ * <p>Actor consuming the records of the topics it is subscribed to, from every partition in order.</p>
  *
- * <p>The skeleton already has the DafkaBeacon implemented so discovering and connecting to peers is given.</p>
+ * <p>The consumer finds producers and stores through the {@link DafkaBeacon} and subscribes to the MSG, MSG_BATCH and
+ * HEAD messages of its topics. Messages are handled as {@link DafkaProtoView}s, so an in-order message is delivered
+ * without decoding any string. A message ahead of the next sequence of its partition is held while the missing ones
+ * are fetched from the stores and the producer, and a HEAD past it has them fetched as well. With the offset reset set to
+ * earliest, a new subscription first asks the stores for the heads of the partitions and fetches them from the
+ * start.</p>
+ *
+ * <p>Records are delivered to the application through a ring the actor fills, and are taken from it by
+ * {@link #receive(ZActor, int)}, {@link #poll(ZActor, int, int, long)} or a {@link DafkaDispatcher}.</p>
  */
 public class DafkaConsumer extends SimpleActor {
 
   private static final Logger log = LogManager.getLogger(DafkaConsumer.class);
 
+  // Milliseconds a record sent in chunks waits for its next chunk, by default
+  private static final int DEFAULT_CHUNK_TIMEOUT_MS = 30000;
+  // FETCHes of a partition waiting for an answer at most, and milliseconds without progress before asking again
+  private static final int DEFAULT_FETCH_OUTSTANDING = 2;
+  private static final long DEFAULT_FETCH_RETRY_MS = 100;
+  private static final long DEFAULT_FETCH_RETRY_MAX_MS = 5000;
+  // Sequences ahead of a gap a message may start at to be held, and bytes held by all partitions at most
+  private static final int DEFAULT_REORDER_WINDOW = 4096;
+  private static final long DEFAULT_REORDER_BYTES = 16 * 1024 * 1024;
+  // Bytes a compressed message may decompress to at most, by default well above a batch or chunk of a producer
+  private static final int DEFAULT_MESSAGE_MAX_BYTES = 16 * 1024 * 1024;
+  private static final byte[] NONE = new byte[0];
+  // Records and chunks delivered but not received by the application yet, by default
+  private static final int DEFAULT_RING_CAPACITY = 65536;
+  // Milliseconds the consumer waits for a full ring to make room before trying again
+  private static final long RING_FULL_RETRY_MS = 1;
+  // Records the dispatcher takes per poll at most
+  private static final int DISPATCH_RECORDS = 1024;
+  // Records the console consumer prints per poll at most
+  private static final int POLL_RECORDS = 500;
+  private static final long POLL_BYTES = 1024 * 1024;
+
   private DafkaBeacon beacon;
   private ZActor beaconActor;
 
+  private Socket consumerSub;
+  private Socket consumerPub;
+  private byte[] consumerAddress;
+  private boolean resetLatest;
+  private volatile DafkaBufferPool pool;
+  private volatile int chunkTimeout = DEFAULT_CHUNK_TIMEOUT_MS;
+  private int messageMaxBytes = DEFAULT_MESSAGE_MAX_BYTES;
+  // Records delivered to the application, received from it by the receiver, used by the application thread only
+  private volatile DafkaRing<Object> ring;
+  private DafkaReceiver receiver;
+  private volatile boolean closed;
+  // Records and chunks delivered while the ring was full, in order, the SUB socket is not read until they are offered
+  private final ArrayDeque<Object> overflow = new ArrayDeque<>();
+  private boolean throttled;
+
+  private final DafkaProtoView view;
+  private final DafkaProtoBatch batch;
+  private final DafkaPartitions partitions;
+  private DafkaGaps gaps;
+  private DafkaReorder reorder;
+  private final DafkaCompressor[] compressors;
+
   public DafkaConsumer() {
     this.beacon = new DafkaBeacon();
+    this.view = new DafkaProtoView();
+    this.batch = new DafkaProtoBatch();
+    this.partitions = new DafkaPartitions();
+    this.compressors = new DafkaCompressor[256];
   }
 
   @Override
   public List<Socket> createSockets(ZContext ctx, Object... args) {
     Properties properties = (Properties) args[0];
+    this.resetLatest = !"earliest".equals(properties.getProperty("consumer.offset.reset"));
+    this.pool = DafkaBufferPool.create(properties.getProperty("consumer.pool", "none"));
+    this.ring = new DafkaRing<>(Integer.parseInt(properties.getProperty("consumer.ring.capacity",
+        Integer.toString(DEFAULT_RING_CAPACITY))));
+    this.chunkTimeout = Integer.parseInt(properties.getProperty("consumer.chunk.timeout.ms",
+        Integer.toString(DEFAULT_CHUNK_TIMEOUT_MS)));
+    this.messageMaxBytes = Integer.parseInt(properties.getProperty("consumer.message.max.bytes",
+        Integer.toString(DEFAULT_MESSAGE_MAX_BYTES)));
+    this.gaps = new DafkaGaps(partitions, this::sendFetch,
+        Integer.parseInt(properties.getProperty("consumer.fetch.outstanding",
+            Integer.toString(DEFAULT_FETCH_OUTSTANDING))),
+        Long.parseLong(properties.getProperty("consumer.fetch.retry.ms", Long.toString(DEFAULT_FETCH_RETRY_MS))),
+        Long.parseLong(properties.getProperty("consumer.fetch.retry.max.ms",
+            Long.toString(DEFAULT_FETCH_RETRY_MAX_MS))));
+    this.reorder = new DafkaReorder(
+        Integer.parseInt(properties.getProperty("consumer.reorder.window", Integer.toString(DEFAULT_REORDER_WINDOW))),
+        Long.parseLong(properties.getProperty("consumer.reorder.bytes", Long.toString(DEFAULT_REORDER_BYTES))));
 
     this.beaconActor = new ZActor(ctx, this.beacon, null, args);
     this.beaconActor.recv(); // Wait for signal that beacon is connected to tower
 
-    // HINT: Don't forget to return your sockets here otherwise they won't get passed as parameter into the start() method
-    return Arrays.asList(beaconActor.pipe());
+    this.consumerSub = ctx.createSocket(SocketType.SUB);
+    this.consumerPub = ctx.createSocket(SocketType.PUB);
+    return Arrays.asList(beaconActor.pipe(), consumerSub, consumerPub);
   }
 
   @Override
   public void start(Socket pipe, List<Socket> sockets, ZPoller poller) {
-    String consumerAddress = UUID.randomUUID().toString();
+    consumerAddress = DafkaAddress.random();
 
-    // TODO: Bind the consumers publisher socket to a random port and assign its value to this variable
-    int publisherSocketPort = 666;
+    int publisherSocketPort = consumerPub.bindToRandomPort("tcp://*");
 
     beacon.start(beaconActor, consumerAddress, publisherSocketPort);
     boolean rc = poller.register(beaconActor.pipe(), ZPoller.IN);
 
-    // HINT: This is the place where you want to subscribe to topics!
-
-    // HINT: Don't forget to register your inbound sockets with the poller!
+    // Stores answer our fetches and head requests directly to us
+    DafkaProto.subscribe(consumerSub, DafkaProto.DIRECT_MSG, consumerAddress);
+    DafkaProto.subscribe(consumerSub, DafkaProto.DIRECT_MSG_BATCH, consumerAddress);
+    DafkaProto.subscribe(consumerSub, DafkaProto.DIRECT_HEAD, consumerAddress);
+    poller.register(consumerSub, ZPoller.IN);
 
     // Signals the actor create about the successful startup by sending a zero byte.
     pipe.send(new byte[]{0});
@@ -77,35 +161,381 @@ public class DafkaConsumer extends SimpleActor {
 
   @Override
   public boolean stage(Socket socket, Socket pipe, ZPoller poller, int events) {
-    // HINT: This is the place where you get notified about new messages on sockets registered with the poller.
-
-    // HINT: It is useful to log the incoming message ;)
-
     if (socket.equals(beaconActor.pipe())) {
       String command = socket.recvStr();
       String address = socket.recvStr();
 
       if ("CONNECT".equals(command)) {
         log.info("Connecting to {}", address);
-        // TODO: Connect your subscriber socket to the discovered peer's address
+        consumerSub.connect(address);
       } else if ("DISCONNECT".equals(command)) {
         log.info("Disconnecting from {}", address);
-        // TODO: Disconnect your subscriber socket from the vanished peer's address
+        consumerSub.disconnect(address);
       } else {
         log.error("Transport: Unknown command {}", command);
         System.exit(1);
       }
+    } else if (socket.equals(consumerSub)) {
+      if (!view.recv(consumerSub)) {
+        log.warn("Dropping malformed message");
+        return true;
+      }
+
+      switch (view.id()) {
+        case DafkaProto.MSG:
+        case DafkaProto.DIRECT_MSG:
+          handleMsg(pipe);
+          break;
+        case DafkaProto.MSG_BATCH:
+        case DafkaProto.DIRECT_MSG_BATCH:
+          handleBatch(pipe);
+          break;
+        case DafkaProto.HEAD:
+        case DafkaProto.DIRECT_HEAD:
+          handleHead();
+          break;
+        default:
+          log.debug("Ignoring message {}", view.id());
+      }
     }
 
     return true;
   }
 
+  /**
+   * Delivers the received record if it is the next one of its partition, followed by the messages held behind it.
+   * A record arriving early is held until the gap before it is filled. Duplicates are dropped.
+   */
+  private void handleMsg(Socket pipe) {
+    long sequence = view.sequence();
+    int partition = partitions.lookup(view);
+    if (partition < 0) {
+      partition = partitions.add(view.subject(), view.address(), resetLatest ? sequence : 0);
+    }
+
+    long nextSequence = partitions.nextSequence(partition);
+    if (sequence == nextSequence) {
+      deliverMsg(pipe, partition, sequence, view.codec(), view.content());
+      deliverHeld(pipe, partition);
+    } else if (sequence > nextSequence) {
+      hold(partition, nextSequence, sequence, 1, false);
+    }
+  }
+
+  /**
+   * Delivers the records of a batch that have not been delivered yet, followed by the messages held behind it. A batch
+   * starting after the next expected record is held like a single one, a batch with nothing new is dropped without
+   * being decompressed.
+   */
+  private void handleBatch(Socket pipe) {
+    long sequence = view.sequence();
+    long count = view.count();
+    if (count == 0) {
+      return;
+    }
+
+    int partition = partitions.lookup(view);
+    if (partition < 0) {
+      partition = partitions.add(view.subject(), view.address(), resetLatest ? sequence : 0);
+    }
+
+    long nextSequence = partitions.nextSequence(partition);
+    long last = sequence + count - 1;
+    if (sequence > nextSequence) {
+      hold(partition, nextSequence, sequence, count, true);
+    } else if (last >= nextSequence) {
+      deliverBatch(pipe, partition, sequence, count, view.codec(), view.content());
+      deliverHeld(pipe, partition);
+    }
+  }
+
+  /**
+   * Holds a message that arrived ahead of the next expected record of its partition, asking {@link DafkaGaps} for
+   * the records before it that are not held yet. A message that cannot be held is asked for again with them.
+   */
+  private void hold(int partition, long nextSequence, long sequence, long count, boolean packed) {
+    log.debug("Missing {} messages of {} from {}", sequence - nextSequence, partitions.subject(partition),
+        DafkaAddress.toString(partitions.address(partition)));
+    long latest = reorder.latest(partition);
+    if (!reorder.hold(partition, nextSequence, sequence, count, packed, view.codec(), view.content())) {
+      gaps.missing(partition, sequence + count - 1);
+    } else if (sequence > latest + 1) {
+      gaps.missing(partition, sequence - 1);
+    }
+  }
+
+  /**
+   * Delivers the messages held that follow the records delivered so far, until the next gap.
+   */
+  private void deliverHeld(Socket pipe, int partition) {
+    DafkaReorder.Held held;
+    while ((held = reorder.take(partition, partitions.nextSequence(partition))) != null) {
+      if (held.packed) {
+        deliverBatch(pipe, partition, held.sequence, held.count, held.codec, held.content);
+      } else {
+        deliverMsg(pipe, partition, held.sequence, held.codec, held.content);
+      }
+    }
+    gaps.delivered(partition);
+  }
+
+  /**
+   * Delivers a record, the next one of its partition, or reports it undeliverable if its content cannot be
+   * decompressed.
+   */
+  private void deliverMsg(Socket pipe, int partition, long sequence, int codec, byte[] raw) {
+    byte[] content = content(codec, raw);
+    if (content == null) {
+      undeliverable(pipe, partition, sequence);
+      return;
+    }
+    partitions.nextSequence(partition, sequence + 1);
+    int flags = codec & ~DafkaCompressors.CODEC;
+    if (flags == 0 && !partitions.chunked(partition)) {
+      deliver(pipe, partition, content, 0, content.length);
+    } else {
+      deliverChunk(pipe, partition, flags, content);
+    }
+  }
+
+  /**
+   * Delivers the records of a batch from the next one of its partition on, or reports them undeliverable as one if
+   * its content cannot be decompressed or is malformed. A batch without content stands for sequences a restarted
+   * producer skipped, which cut short a record it was sending in chunks.
+   */
+  private void deliverBatch(Socket pipe, int partition, long sequence, long count, int codec, byte[] raw) {
+    if (raw.length == 0) {
+      if (partitions.chunked(partition)) {
+        deliver(pipe, partition, raw, 0, DafkaReceiver.TRUNCATED);
+        partitions.chunked(partition, false);
+      }
+      partitions.nextSequence(partition, sequence + count);
+      return;
+    }
+    byte[] content = content(codec, raw);
+    if (content == null || !batch.wrap(content, count)) {
+      log.warn("Dropping malformed batch");
+      undeliverable(pipe, partition, sequence + count - 1);
+      return;
+    }
+    batch.skip(partitions.nextSequence(partition) - sequence);
+    while (batch.next()) {
+      deliver(pipe, partition, batch.data(), batch.offset(), batch.length());
+    }
+    partitions.nextSequence(partition, sequence + count);
+  }
+
+  /**
+   * Moves the partition past a message that cannot be delivered, whose codec is unknown or whose content is corrupted
+   * or larger than consumer.message.max.bytes, so it is never asked for again. Fetching it once more would only get
+   * the same content. The application receives a record in its place, which fails to be read like a record cut short,
+   * ending the record it belongs to if it is a chunk.
+   */
+  private void undeliverable(Socket pipe, int partition, long last) {
+    log.warn("Skipping undeliverable messages up to {} of {} from {}", last, partitions.subject(partition),
+        DafkaAddress.toString(partitions.address(partition)));
+    if (!partitions.chunked(partition)) {
+      deliver(pipe, partition, NONE, 0, DafkaReceiver.MORE);
+    }
+    deliver(pipe, partition, NONE, 0, DafkaReceiver.UNDELIVERABLE);
+    partitions.chunked(partition, false);
+    partitions.nextSequence(partition, last + 1);
+  }
+
+  /**
+   * Decompresses the content of a received message with the compressor of its codec, into consumer.message.max.bytes
+   * at most, 16 MiB by default.
+   *
+   * @return the content or null if the codec is unknown, the content corrupted or larger than that
+   */
+  private byte[] content(int codec, byte[] content) {
+    codec &= DafkaCompressors.CODEC;
+    if (codec == DafkaCompressors.NONE) {
+      return content;
+    }
+
+    DafkaCompressor compressor = compressors[codec];
+    if (compressor == null) {
+      compressor = DafkaCompressors.create(codec);
+      if (compressor == null) {
+        log.warn("Dropping message with unknown codec {}", codec);
+        return null;
+      }
+      compressors[codec] = compressor;
+    }
+    try {
+      return compressor.decompress(content, 0, content.length, messageMaxBytes);
+    } catch (IllegalArgumentException exception) {
+      log.warn("Dropping corrupted message", exception);
+      return null;
+    }
+  }
+
+  /**
+   * Hands a record to the application. Without a pool, the record wraps the received content, never written again.
+   * With a pool, the content is copied into a pooled buffer the application gives back through {@link
+   * DafkaRecord#release()}.
+   */
+  private void deliver(Socket pipe, int partition, byte[] data, int offset, int length) {
+    DafkaBufferPool pool = this.pool;
+    offer(pipe, new DafkaRecord(partitions.subject(partition), partitions.address(partition),
+        buffer(pool, data, offset, length), pool));
+  }
+
+  /**
+   * Hands a chunk of a record to the application, followed by whether more of the record is to come.
+   */
+  private void deliver(Socket pipe, int partition, byte[] data, int length, byte state) {
+    offer(pipe, new DafkaReceiver.Chunk(partitions.subject(partition), partitions.address(partition),
+        buffer(pool, data, 0, length), state));
+  }
+
+  private static ByteBuffer buffer(DafkaBufferPool pool, byte[] data, int offset, int length) {
+    if (pool == null) {
+      return ByteBuffer.wrap(data, offset, length).slice();
+    }
+    ByteBuffer buffer = pool.acquire(length);
+    buffer.put(data, offset, length);
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Offers a record or chunk to the ring and signals the application when the ring stops being empty. A signal the
+   * pipe has no room for is dropped, those left unread waking the application up anyway. While the ring is full, the
+   * record or chunk overflows behind the ones before it, to be offered once the application made room.
+   */
+  private void offer(Socket pipe, Object delivery) {
+    if (!overflow.isEmpty() || !offer(pipe, ring, delivery)) {
+      overflow.add(delivery);
+    }
+  }
+
+  private static boolean offer(Socket pipe, DafkaRing<Object> ring, Object delivery) {
+    int offered = ring.offer(delivery);
+    if (offered > 0) {
+      pipe.send(DafkaReceiver.WAKE_UP, ZMQ.DONTWAIT);
+    }
+    return offered >= 0;
+  }
+
+  /**
+   * Offers the records and chunks that overflowed, as many as the ring has room for. The SUB socket is not read while
+   * some are left, so the application holds up the producers rather than the consumer waiting for room, which still
+   * handles its pipe and the retries of its gaps meanwhile. Those left are dropped once the application stopped
+   * receiving.
+   */
+  private void drain(Socket pipe, ZPoller poller) {
+    if (closed) {
+      overflow.clear();
+    }
+    DafkaRing<Object> ring = this.ring;
+    while (!overflow.isEmpty() && offer(pipe, ring, overflow.peek())) {
+      overflow.poll();
+    }
+    if (!overflow.isEmpty() && !throttled) {
+      poller.unregister(consumerSub);
+      throttled = true;
+    } else if (overflow.isEmpty() && throttled) {
+      poller.register(consumerSub, ZPoller.IN);
+      throttled = false;
+    }
+  }
+
+  /**
+   * Hands a chunk of a record sent in chunks to the application as soon as it arrives, followed by whether more of the
+   * record is to come, so the record is never put together in memory. The chunks of a record whose first chunk came
+   * before the consumer joined are dropped. A record cut short by the next one, because its producer restarted in
+   * the middle of it, is ended as truncated.
+   */
+  private void deliverChunk(Socket pipe, int partition, int flags, byte[] content) {
+    boolean continued = (flags & DafkaCompressors.CONTINUED) != 0;
+    boolean chunked = partitions.chunked(partition);
+    if (continued && !chunked) {
+      log.debug("Dropping chunk of a record started before joining {}", partitions.subject(partition));
+      return;
+    }
+    if (!continued && chunked) {
+      log.warn("Record of {} from {} was cut short", partitions.subject(partition),
+          DafkaAddress.toString(partitions.address(partition)));
+      deliver(pipe, partition, content, 0, DafkaReceiver.TRUNCATED);
+      partitions.chunked(partition, false);
+      if (flags == 0) {
+        deliver(pipe, partition, content, 0, content.length);
+        return;
+      }
+    }
+    boolean more = (flags & DafkaCompressors.MORE) != 0;
+    deliver(pipe, partition, content, content.length, more ? DafkaReceiver.MORE : DafkaReceiver.LAST);
+    partitions.chunked(partition, more);
+  }
+
+  /**
+   * Asks for the messages up to the announced head that have not been received yet.
+   */
+  private void handleHead() {
+    long sequence = view.sequence();
+    int partition = partitions.lookup(view);
+    if (partition < 0) {
+      if (resetLatest) {
+        partitions.add(view.subject(), view.address(), sequence + 1);
+        return;
+      }
+      partition = partitions.add(view.subject(), view.address(), 0);
+    }
+
+    if (sequence >= partitions.nextSequence(partition) && reorder.latest(partition) < sequence) {
+      gaps.missing(partition, sequence);
+    }
+  }
+
+  private void sendFetch(int partition, long sequence, long count) {
+    log.debug("Fetching {} messages of {} from {}", count, partitions.subject(partition),
+        DafkaAddress.toString(partitions.address(partition)));
+    DafkaProto fetch = new DafkaProto(DafkaProto.FETCH);
+    fetch.setTopic(partitions.address(partition));
+    fetch.setSubject("%s", partitions.subject(partition));
+    fetch.setSequence(sequence);
+    fetch.setCount(Math.min(count, 0xffffffffL));
+    fetch.setAddress(consumerAddress);
+    fetch.send(consumerPub);
+  }
+
+  /**
+   * Waits for the sockets no longer than until the first retry of a gap is due, or until the ring is tried again
+   * while records overflow.
+   */
+  @Override
+  public long looping(Socket pipe, ZPoller poller) {
+    long timeout = gaps.timeout();
+    return overflow.isEmpty() || timeout >= 0 && timeout < RING_FULL_RETRY_MS ? timeout : RING_FULL_RETRY_MS;
+  }
+
   @Override
-  public boolean backstage(Socket pipe, ZPoller poller, int events) {
-    // HINT: This is the place where you get notified about new messages from the creator of the actor.
+  public boolean looped(Socket pipe, ZPoller poller) {
+    gaps.execute();
+    drain(pipe, poller);
+    return super.looped(pipe, poller);
+  }
 
+  @Override
+  public boolean backstage(Socket pipe, ZPoller poller, int events) {
     String command = pipe.recvStr();
     switch (command) {
+      case "SUBSCRIBE":
+        String topic = pipe.recvStr();
+        log.debug("Subscribe to topic {}", topic);
+        DafkaProto.subscribe(consumerSub, DafkaProto.MSG, topic);
+        DafkaProto.subscribe(consumerSub, DafkaProto.MSG_BATCH, topic);
+        DafkaProto.subscribe(consumerSub, DafkaProto.HEAD, topic);
+        if (!resetLatest) {
+          // Stores answer with the heads of all partitions so we can fetch them from the beginning
+          DafkaProto getHeads = new DafkaProto(DafkaProto.GET_HEADS);
+          getHeads.setTopic(topic);
+          getHeads.setAddress(consumerAddress);
+          getHeads.send(consumerPub);
+        }
+        break;
       case "$TERM":
         return false;
       default:
@@ -117,15 +547,91 @@ public class DafkaConsumer extends SimpleActor {
   /**
    * This methods subscribes a consumer to all partitions of a Dafka topic.
    *
+   * @param actor Actor running this consumer
    * @param topic Name of the topic
    */
-  public void subscribe(String topic) {
-    log.debug("Subscribe to topic {}", topic);
+  public void subscribe(ZActor actor, String topic) {
+    actor.pipe().sendPicture("ss", "SUBSCRIBE", topic);
+  }
+
+  /**
+   * Receives the next record delivered to the application. Records are received in the buffers they were delivered
+   * in, pooled ones going back to the pool of the consumer, set with the consumer.pool property to none, the default,
+   * heap or direct, when released.
+   *
+   * <p>Records are handed over through a lock-free ring of consumer.ring.capacity records and chunks, 65536 by
+   * default, the consumer no longer reading from producers and stores while it is full. The consumer signals the
+   * actor pipe only when the ring stops being empty, so records received while others are waiting cost no message.</p>
+   *
+   * <p>A record sent in chunks is received with its first chunk, the rest arriving while it is read through {@link
+   * DafkaRecord#channel()}, waiting for each chunk up to consumer.chunk.timeout.ms, 30 seconds by default. Records
+   * must be received from one thread at a time, the one reading their chunks.</p>
+   *
+   * <p>Records the consumer cannot decode, with an unknown codec or content corrupted or decompressing to more than
+   * consumer.message.max.bytes, are received in chunks, reading them failing with an IOException and their content
+   * being null. Those of a batch are received as one.</p>
+   *
+   * @param actor Actor running this consumer
+   * @param timeout Milliseconds to wait for a record, -1 to wait forever
+   * @return the record or null if none arrived in time
+   */
+  public DafkaRecord receive(ZActor actor, int timeout) {
+    return receiver(actor).receive(timeout);
+  }
+
+  /**
+   * Receives the records delivered to the application in a batch, like {@link #receive(ZActor, int)}. Waits for the
+   * first record, then takes those already delivered without waiting, up to the given number of records and bytes of
+   * content, so the records waiting are handed over at the cost of one.
+   *
+   * @param actor Actor running this consumer
+   * @param timeout Milliseconds to wait for the first record, -1 to wait forever
+   * @param maxRecords Records to receive at most
+   * @param maxBytes Bytes of content to receive at most, the first record being received whatever its size. Only the
+   * chunks arrived so far count for a record sent in chunks
+   * @return the records in the order they were delivered, none if none arrived in time
+   */
+  public List<DafkaRecord> poll(ZActor actor, int timeout, int maxRecords, long maxBytes) {
+    return receiver(actor).poll(timeout, maxRecords, maxBytes);
+  }
 
-    // TODO: Implement me!
+  /**
+   * Hands the records delivered to the application to a number of worker threads, which handle the records of a
+   * partition one at a time in order and those of different partitions in parallel. Partitions are spread over the
+   * workers by the hash of their subject and producer address, each worker queuing up to capacity records and the
+   * dispatcher waiting for room when they are full. Records must not be received otherwise while dispatching.
+   *
+   * @param actor Actor running this consumer
+   * @param workers Number of worker threads
+   * @param capacity Records queued for a worker at most
+   * @param handler Handles a record on the thread of its worker, releasing it if it was pooled
+   * @return the running dispatcher, telling how many records wait for every worker, to close once done
+   */
+  public DafkaDispatcher dispatch(ZActor actor, int workers, int capacity, Consumer<DafkaRecord> handler) {
+    DafkaDispatcher dispatcher = new DafkaDispatcher(
+        timeout -> poll(actor, timeout, DISPATCH_RECORDS, Long.MAX_VALUE), workers, capacity, handler);
+    dispatcher.start();
+    return dispatcher;
+  }
+
+  private DafkaReceiver receiver(ZActor actor) {
+    DafkaReceiver receiver = this.receiver;
+    if (receiver == null || !receiver.receives(actor.pipe(), ring)) {
+      receiver = new DafkaReceiver(actor.pipe(), ring, pool, chunkTimeout);
+      this.receiver = receiver;
+    }
+    return receiver;
+  }
+
+  /**
+   * @return the pool records are delivered from or null if none
+   */
+  public DafkaBufferPool pool() {
+    return pool;
   }
 
   public void terminate(ZActor actor) {
+    closed = true;
     actor.send("$TERM");
   }
 
@@ -133,6 +639,7 @@ public class DafkaConsumer extends SimpleActor {
     Properties consumerProperties = new Properties();
     Options options = new Options();
     options.addOption("from_beginning", "Consume messages from beginning of partition");
+    options.addOption("pool", true, "Deliver records in pooled buffers, none, heap or direct");
     options.addOption("pub", true, "Tower publisher address");
     options.addOption("sub", true, "Tower subscriber address");
     options.addOption("verbose", "Enable verbose logging");
@@ -153,6 +660,9 @@ public class DafkaConsumer extends SimpleActor {
         Configurator.setRootLevel(Level.ERROR);
       }
 
+      if (cmd.hasOption("pool")) {
+        consumerProperties.setProperty("consumer.pool", cmd.getOptionValue("pool"));
+      }
       if (cmd.hasOption("from_beginning")) {
         consumerProperties.setProperty("consumer.offset.reset", "earliest");
       }
@@ -181,13 +691,23 @@ public class DafkaConsumer extends SimpleActor {
 
     // Give time until connected to pubs and stores
     Thread.sleep(1000);
-    dafkaConsumer.subscribe("HELLO");
+    dafkaConsumer.subscribe(actor, "HELLO");
 
     final Thread zmqThread = new Thread(() -> {
+      ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
       while (!Thread.currentThread().isInterrupted()) {
-        // TODO: Retrieve messages from subscribed topics and print them!
-
-        // HINT: Call receive on the actor pipe
+        for (DafkaRecord record : dafkaConsumer.poll(actor, 100, POLL_RECORDS, POLL_BYTES)) {
+          // Records sent in chunks are printed as their chunks arrive
+          try (ReadableByteChannel content = record.channel()) {
+            while (content.read(buffer) >= 0) {
+              System.out.write(buffer.array(), 0, buffer.position());
+              buffer.clear();
+            }
+          } catch (IOException exception) {
+            log.error("Failed to receive record", exception);
+          }
+          System.out.println();
+        }
       }
     });
 
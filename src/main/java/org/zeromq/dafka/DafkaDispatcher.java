@@ -0,0 +1,192 @@
+package org.zeromq.dafka;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * <p>Hands the records of a consumer to a number of worker threads, keeping the order of every partition.</p>
+ *
+ * <p>A dispatching thread receives the records in batches and shards them onto the workers by the hash of their
+ * subject and producer address, so all records of a partition go to the same worker, in the order they were delivered,
+ * while records of other partitions are handled in parallel. Every worker has a bounded lock-free ring of its own,
+ * which only the dispatching thread offers to. A worker parks once its ring is empty and is unparked when it stops
+ * being empty, so a busy worker takes records without any signal. The dispatching thread waits for room while the ring
+ * of a worker is full, holding up the other workers behind it, and in the end the consumer.</p>
+ *
+ * <p>A record sent in chunks is put together before it is dispatched, its chunks being received by the dispatching
+ * thread only. Workers may read it through {@link DafkaRecord#channel()} or {@link DafkaRecord#content()} like any
+ * other record. Chunks are not streamed to the worker of the record, so the whole record is held in memory, and while
+ * its chunks arrive no other record is dispatched. Consumers of records too large for that should receive them
+ * without a dispatcher.</p>
+ */
+public final class DafkaDispatcher implements AutoCloseable {
+
+  private static final Logger log = LogManager.getLogger(DafkaDispatcher.class);
+
+  // Milliseconds the dispatching thread waits for records before checking whether it is closed
+  private static final int POLL_TIMEOUT_MS = 100;
+  // The dispatching thread waits this long for a full ring to make room
+  private static final long RING_FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  /**
+   * Receives the next batch of records.
+   */
+  interface Source {
+
+    List<DafkaRecord> poll(int timeout);
+  }
+
+  private final Source source;
+  private final Consumer<DafkaRecord> handler;
+  private final Thread dispatching;
+  private final Thread[] workers;
+  private final List<DafkaRing<DafkaRecord>> rings;
+  // Records dispatched to every worker, and most records queued for it or being handled at once
+  private final AtomicLongArray dispatched;
+  private final AtomicLongArray peaks;
+  private volatile boolean closed;
+
+  /**
+   * @param workers Number of worker threads
+   * @param capacity Records queued for a worker at most, rounded up to a power of two
+   * @param handler Handles a record on a worker thread, releasing it if it was pooled
+   */
+  DafkaDispatcher(Source source, int workers, int capacity, Consumer<DafkaRecord> handler) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("A dispatcher needs at least one worker");
+    }
+    this.source = source;
+    this.handler = handler;
+    this.rings = new ArrayList<>(workers);
+    this.workers = new Thread[workers];
+    this.dispatched = new AtomicLongArray(workers);
+    this.peaks = new AtomicLongArray(workers);
+    for (int worker = 0; worker < workers; worker++) {
+      int index = worker;
+      rings.add(new DafkaRing<>(capacity));
+      this.workers[worker] = new Thread(() -> work(index), "dafka-worker-" + worker);
+    }
+    this.dispatching = new Thread(this::dispatch, "dafka-dispatcher");
+  }
+
+  void start() {
+    for (Thread worker : workers) {
+      worker.start();
+    }
+    dispatching.start();
+  }
+
+  private void dispatch() {
+    while (!closed) {
+      for (DafkaRecord record : source.poll(POLL_TIMEOUT_MS)) {
+        if (record.chunked()) {
+          // Null if its chunks stopped arriving, which the handler finds out the same way
+          record.content();
+        }
+        offer(workerOf(record), record);
+      }
+    }
+  }
+
+  private int workerOf(DafkaRecord record) {
+    int hash = 31 * record.subject().hashCode() + Arrays.hashCode(record.address());
+    return Math.floorMod(hash, workers.length);
+  }
+
+  private void offer(int worker, DafkaRecord record) {
+    DafkaRing<DafkaRecord> ring = rings.get(worker);
+    int offered;
+    while ((offered = ring.offer(record)) < 0) {
+      LockSupport.parkNanos(RING_FULL_PARK_NANOS);
+    }
+    if (offered > 0) {
+      LockSupport.unpark(workers[worker]);
+    }
+    dispatched.incrementAndGet(worker);
+    long depth = ring.size();
+    if (depth > peaks.get(worker)) {
+      peaks.lazySet(worker, depth);
+    }
+  }
+
+  /**
+   * Handles the records of the ring of a worker until the dispatcher is closed and the ring is empty. Every record is
+   * settled once handled, so the size of the ring is the depth of the queue of the worker.
+   */
+  private void work(int worker) {
+    DafkaRing<DafkaRecord> ring = rings.get(worker);
+    while (true) {
+      DafkaRecord record = ring.poll();
+      if (record != null) {
+        try {
+          handler.accept(record);
+        } catch (RuntimeException exception) {
+          log.error("Failed to handle record of {}", record.subject(), exception);
+        }
+        ring.settle(1);
+      } else if (ring.size() > 0) {
+        // A record is being offered
+        Thread.yield();
+      } else if (closed && !dispatching.isAlive()) {
+        return;
+      } else {
+        LockSupport.park(this);
+      }
+    }
+  }
+
+  /**
+   * @return the number of worker threads
+   */
+  public int workers() {
+    return workers.length;
+  }
+
+  /**
+   * @return the number of records queued for the worker or being handled by it
+   */
+  public long depth(int worker) {
+    return rings.get(worker).size();
+  }
+
+  /**
+   * @return the most records queued for the worker at once so far
+   */
+  public long peakDepth(int worker) {
+    return peaks.get(worker);
+  }
+
+  /**
+   * @return the number of records dispatched to the worker so far
+   */
+  public long dispatched(int worker) {
+    return dispatched.get(worker);
+  }
+
+  /**
+   * Stops dispatching once the batch received last is dispatched, and waits for the workers to handle the records
+   * queued for them. If interrupted, it returns without waiting any longer and keeps the interrupt status.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      dispatching.join();
+      for (Thread worker : workers) {
+        LockSupport.unpark(worker);
+      }
+      for (Thread worker : workers) {
+        worker.join();
+      }
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package org.zeromq.dafka;
+
+import java.util.Arrays;
+import org.zeromq.ZTimer;
+
+/**
+ * <p>Recovery of the messages a consumer missed, partition by partition.</p>
+ *
+ * <p>Every partition with a gap remembers the last sequence known to exist and the last one asked for. Missing
+ * messages are asked for with ranged FETCHes, every gap found meanwhile being merged into the next one, and only a few
+ * FETCHes of a partition wait for an answer at once. A burst of thousands of lost messages, followed by the live
+ * messages dropped while it is fetched, then costs a handful of FETCHes rather than one per message.</p>
+ *
+ * <p>A partition with a gap has a timer, run by the poll loop of the consumer. When it fires and nothing arrived since
+ * it last fired, the whole gap is asked for again and the timer backs off, doubling its interval up to a maximum.
+ * Progress brings it back to its minimum, closing the gap cancels it.</p>
+ *
+ * <p>State is kept in arrays indexed by the ids of {@link DafkaPartitions}. Gaps are not thread safe, they belong to
+ * the consumer actor.</p>
+ */
+class DafkaGaps {
+
+  /**
+   * Sends a FETCH.
+   */
+  interface Fetch {
+
+    void fetch(int partition, long sequence, long count);
+  }
+
+  private final DafkaPartitions partitions;
+  private final Fetch fetch;
+  private final int maxOutstanding;
+  private final long minRetry;
+  private final long maxRetry;
+  private final ZTimer timers = new ZTimer();
+  private final ZTimer.Handler retry = args -> retry((Integer) args[0]);
+
+  // Retry timer of every partition with a gap, null for the others
+  private ZTimer.Timer[] retries = new ZTimer.Timer[0];
+  // Last sequence known to exist and last one asked for
+  private long[] wanted = new long[0];
+  private long[] fetched = new long[0];
+  // FETCHes asked since everything asked for before arrived
+  private int[] outstanding = new int[0];
+  // Next sequence when the timer last fired, and its interval
+  private long[] checked = new long[0];
+  private long[] intervals = new long[0];
+  private long requests;
+
+  /**
+   * @param maxOutstanding FETCHes of a partition waiting for an answer at most
+   * @param minRetry Milliseconds without progress before a gap is asked for again, doubling up to maxRetry
+   */
+  DafkaGaps(DafkaPartitions partitions, Fetch fetch, int maxOutstanding, long minRetry, long maxRetry) {
+    this.partitions = partitions;
+    this.fetch = fetch;
+    this.maxOutstanding = Math.max(1, maxOutstanding);
+    this.minRetry = Math.max(1, minRetry);
+    this.maxRetry = Math.max(this.minRetry, maxRetry);
+  }
+
+  /**
+   * Records that the partition has messages up to the sequence that did not arrive, and asks for those not asked for
+   * yet if the partition may wait for one more FETCH.
+   */
+  void missing(int partition, long last) {
+    if (partition >= retries.length) {
+      grow();
+    }
+    if (retries[partition] == null) {
+      long next = partitions.nextSequence(partition);
+      wanted[partition] = last;
+      fetched[partition] = next - 1;
+      outstanding[partition] = 0;
+      checked[partition] = next;
+      intervals[partition] = minRetry;
+      retries[partition] = timers.add(minRetry, retry, partition);
+    } else if (last > wanted[partition]) {
+      wanted[partition] = last;
+    }
+    request(partition);
+  }
+
+  /**
+   * Follows up on messages of the partition arriving in order, closing its gap or asking for the rest of it once
+   * everything asked for arrived. Costs a single check for a partition without gap.
+   */
+  void delivered(int partition) {
+    if (partition >= retries.length || retries[partition] == null) {
+      return;
+    }
+    long next = partitions.nextSequence(partition);
+    if (next > wanted[partition]) {
+      timers.cancel(retries[partition]);
+      retries[partition] = null;
+    } else if (next > fetched[partition]) {
+      request(partition);
+    }
+  }
+
+  private void request(int partition) {
+    long next = partitions.nextSequence(partition);
+    if (fetched[partition] < next) {
+      // Everything asked for arrived
+      fetched[partition] = next - 1;
+      outstanding[partition] = 0;
+    }
+    if (fetched[partition] >= wanted[partition] || outstanding[partition] >= maxOutstanding) {
+      return;
+    }
+    long sequence = fetched[partition] + 1;
+    fetch.fetch(partition, sequence, wanted[partition] - sequence + 1);
+    fetched[partition] = wanted[partition];
+    outstanding[partition]++;
+    requests++;
+  }
+
+  private void retry(int partition) {
+    long next = partitions.nextSequence(partition);
+    if (next > checked[partition]) {
+      checked[partition] = next;
+      if (intervals[partition] > minRetry) {
+        intervals[partition] = minRetry;
+        timers.setInterval(retries[partition], minRetry);
+      }
+      return;
+    }
+    // Nothing arrived, the FETCHes or their answers were lost
+    fetched[partition] = next - 1;
+    outstanding[partition] = 0;
+    request(partition);
+    intervals[partition] = Math.min(intervals[partition] * 2, maxRetry);
+    timers.setInterval(retries[partition], intervals[partition]);
+  }
+
+  private void grow() {
+    int capacity = Math.max(64, partitions.size() * 2);
+    retries = Arrays.copyOf(retries, capacity);
+    wanted = Arrays.copyOf(wanted, capacity);
+    fetched = Arrays.copyOf(fetched, capacity);
+    outstanding = Arrays.copyOf(outstanding, capacity);
+    checked = Arrays.copyOf(checked, capacity);
+    intervals = Arrays.copyOf(intervals, capacity);
+  }
+
+  /**
+   * @return milliseconds until the next timer fires, -1 if no partition has a gap
+   */
+  long timeout() {
+    return timers.timeout();
+  }
+
+  /**
+   * Runs the timers that are due.
+   */
+  void execute() {
+    timers.execute();
+  }
+
+  /**
+   * @return the number of FETCHes sent
+   */
+  long requests() {
+    return requests;
+  }
+}
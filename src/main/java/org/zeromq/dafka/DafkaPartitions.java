@@ -0,0 +1,171 @@
+package org.zeromq.dafka;
+
+import java.util.Arrays;
+import org.zeromq.ZMQ;
+import org.zproto.DafkaProtoView;
+
+/**
+ * <p>Sequence state of every partition a consumer or store has seen.</p>
+ *
+ * <p>A partition is the stream of one subject published by one producer, so it is identified by subject and producer
+ * address. Every partition is interned into an id, the index of its state in arrays of primitives, so checking
+ * whether a message is the next one of its partition reads a long and boxes nothing.</p>
+ *
+ * <p>Ids are found in an open-addressing table with linear probing, holding the id of the partition in every used
+ * slot. A received message is hashed and compared against the partitions probed in place, so looking it up decodes
+ * no string and allocates nothing. The table is kept at most half full, so a lookup takes one probe most of the
+ * time.</p>
+ */
+class DafkaPartitions {
+
+  private static final int INITIAL_CAPACITY = 64;
+  // Spreads the bits of the hashes over the slots
+  private static final int GOLDEN_RATIO = 0x9E3779B9;
+
+  // Id plus one of the partition of every slot, zero for a free slot
+  private int[] slots;
+  private int shift;
+
+  // State of the partitions, by id
+  private int[] hashes;
+  private String[] subjects;
+  private byte[][] subjectData;
+  private byte[][] addresses;
+  private long[] nextSequences;
+  private boolean[] chunked;
+  private int size;
+
+  DafkaPartitions() {
+    this.slots = new int[INITIAL_CAPACITY * 2];
+    this.shift = Integer.numberOfLeadingZeros(slots.length - 1);
+    this.hashes = new int[INITIAL_CAPACITY];
+    this.subjects = new String[INITIAL_CAPACITY];
+    this.subjectData = new byte[INITIAL_CAPACITY][];
+    this.addresses = new byte[INITIAL_CAPACITY][];
+    this.nextSequences = new long[INITIAL_CAPACITY];
+    this.chunked = new boolean[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Finds the partition of a received message.
+   *
+   * @param view Message with subject and address
+   * @return the id of the partition or -1 if it has not been seen yet
+   */
+  int lookup(DafkaProtoView view) {
+    int hash = view.partitionHash();
+    int mask = slots.length - 1;
+    for (int slot = (hash * GOLDEN_RATIO) >>> shift; slots[slot] != 0; slot = (slot + 1) & mask) {
+      int id = slots[slot] - 1;
+      if (hashes[id] == hash && view.addressEquals(addresses[id]) && view.subjectEquals(subjectData[id])) {
+        return id;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Finds a partition by subject and producer address.
+   *
+   * @return the id of the partition or -1 if it has not been seen yet
+   */
+  int lookup(String subject, byte[] address) {
+    byte[] data = subject.getBytes(ZMQ.CHARSET);
+    int hash = DafkaProtoView.partitionHash(data, address);
+    int mask = slots.length - 1;
+    for (int slot = (hash * GOLDEN_RATIO) >>> shift; slots[slot] != 0; slot = (slot + 1) & mask) {
+      int id = slots[slot] - 1;
+      if (hashes[id] == hash && Arrays.equals(addresses[id], address) && Arrays.equals(subjectData[id], data)) {
+        return id;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Starts tracking a new partition.
+   *
+   * @param nextSequence Sequence expected to arrive next
+   * @return the id of the partition
+   */
+  int add(String subject, byte[] address, long nextSequence) {
+    if (size == hashes.length) {
+      grow();
+    }
+    int id = size++;
+    byte[] data = subject.getBytes(ZMQ.CHARSET);
+    hashes[id] = DafkaProtoView.partitionHash(data, address);
+    subjects[id] = subject;
+    subjectData[id] = data;
+    addresses[id] = address;
+    nextSequences[id] = nextSequence;
+    insert(id);
+    return id;
+  }
+
+  private void insert(int id) {
+    int mask = slots.length - 1;
+    int slot = (hashes[id] * GOLDEN_RATIO) >>> shift;
+    while (slots[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    slots[slot] = id + 1;
+  }
+
+  /**
+   * Doubles the state arrays and the table, inserting every partition again from its hash.
+   */
+  private void grow() {
+    int capacity = hashes.length * 2;
+    hashes = Arrays.copyOf(hashes, capacity);
+    subjects = Arrays.copyOf(subjects, capacity);
+    subjectData = Arrays.copyOf(subjectData, capacity);
+    addresses = Arrays.copyOf(addresses, capacity);
+    nextSequences = Arrays.copyOf(nextSequences, capacity);
+    chunked = Arrays.copyOf(chunked, capacity);
+
+    slots = new int[capacity * 2];
+    shift = Integer.numberOfLeadingZeros(slots.length - 1);
+    for (int id = 0; id < size; id++) {
+      insert(id);
+    }
+  }
+
+  /**
+   * @return the number of partitions, whose ids go from 0 to it
+   */
+  int size() {
+    return size;
+  }
+
+  String subject(int id) {
+    return subjects[id];
+  }
+
+  byte[] subjectData(int id) {
+    return subjectData[id];
+  }
+
+  byte[] address(int id) {
+    return addresses[id];
+  }
+
+  long nextSequence(int id) {
+    return nextSequences[id];
+  }
+
+  void nextSequence(int id, long nextSequence) {
+    nextSequences[id] = nextSequence;
+  }
+
+  /**
+   * @return whether the last record delivered was a chunk with more of its record to come
+   */
+  boolean chunked(int id) {
+    return chunked[id];
+  }
+
+  void chunked(int id, boolean chunked) {
+    this.chunked[id] = chunked;
+  }
+}
@@ -2,13 +2,30 @@ package org.zeromq.dafka;
 
 import static org.zeromq.ZActor.SimpleActor;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -16,73 +33,175 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.UnrecognizedOptionException;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.config.Configurator;
+import org.zeromq.SocketType;
 import org.zeromq.ZActor;
 import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZPoller;
-import org.zeromq.ZTimer;
+import org.zproto.DafkaProto;
+import org.zproto.DafkaProtoBatch;
+import org.zproto.DafkaProtoTemplate;
+import org.zproto.DafkaProtoView;
 
 public class DafkaProducer extends SimpleActor {
 
   private static final Logger log = LogManager.getLogger(DafkaProducer.class);
 
-  private Thread timerThread;
-  private boolean timerThreadRunning;
-  private ZTimer ztimer;
-  private ZTimer.Timer headTimer;
+  // Records queued together are published in batches of up to producer.batch.bytes, this many by default
+  private static final int DEFAULT_BATCH_BYTES = 64 * 1024;
+  // Records larger than producer.chunk.bytes are sent in chunks of that many bytes, this many by default
+  private static final int DEFAULT_CHUNK_BYTES = 1024 * 1024;
+  // Sent messages are retained to answer FETCH, averaging at least this many bytes
+  private static final int RETAINED_MESSAGE_BYTES = 256;
+  // Records published but not taken by the producer yet, by default
+  private static final int DEFAULT_RING_CAPACITY = 65536;
+  // Records taken from the ring before the producer looks at its sockets again
+  private static final int DRAIN_LIMIT = 4096;
+  // Publishers wait this long for a full ring to make room
+  private static final long RING_FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+  private static final byte[] WAKE_UP = {1};
+  // HEAD follows the last record of a burst after this long, and backs off up to the maximum while idle, by default
+  private static final long DEFAULT_HEAD_MIN_MS = 10;
+  private static final long DEFAULT_HEAD_MAX_MS = 10000;
+  // Checkpointed sequences are written to disk at most this often, and reserved this many ahead of the next sequence
+  private static final long CHECKPOINT_FORCE_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long CHECKPOINT_RESERVE = 65536;
+  // Stores a partition remembers the acknowledgements of, the one lagging the most is forgotten beyond that
+  private static final int MAX_STORES = 64;
+  // The console producer reads its input in chunks of this many bytes, maps files in windows of at most this many
+  private static final int INPUT_CHUNK = 64 * 1024;
+  private static final long MAP_WINDOW = 1L << 30;
+  // Once the input ends, the console producer waits for a store to acknowledge the last record this long at most
+  private static final long END_OF_INPUT_WAIT_MS = 5000;
 
   private DafkaBeacon beacon;
   private ZActor beaconActor;
 
-  public DafkaProducer() {
-    // In order for a ZTimer to run properly its needs its own thread!
-    this.ztimer = new ZTimer();
-    timerThread = new Thread(() -> {
-      while (timerThreadRunning) {
-        ztimer.sleepAndExecute();
-      }
-    });
-    timerThreadRunning = true;
-    timerThread.start();
-
-    /* Register your head timer job like this:
-      headTimer = ztimer.add(interval, args -> {
-        // Timer actions
-      }, handlerFunctionArguments);
-    */
+  private Socket producerPub;
+  private Socket producerSub;
+  private String topic;
+  private byte[] topicData;
+
+  // Partitions of the topic this producer publishes to, all of them sharing its sockets and beacon
+  private volatile Partition[] partitions;
+  private final AtomicInteger roundRobin = new AtomicInteger();
+  private DafkaCheckpoint checkpoint;
+  private long checkpointForced;
+
+  private DafkaCompressor compressor;
+  private byte[] scratch = new byte[0];
+  private volatile DafkaBufferPool pool = new DafkaBufferPool(false);
+  private volatile DafkaWindow window = new DafkaWindow(0, 0, DafkaWindow.Policy.BLOCK);
+
+  // Records published by any number of application threads, the producer drains them whenever the ring wakes it up
+  private volatile DafkaRing<Published> ring;
+  private Pipe wakeup;
+  private volatile boolean closed;
+  private boolean backlog;
+
+  private int batchBytes;
+  private int chunkBytes;
+  private long lingerNanos;
+  private int acks;
+  private long headMinNanos;
+  private long headMaxNanos;
+  private final DafkaProtoView view;
 
+  public DafkaProducer() {
     this.beacon = new DafkaBeacon();
+    this.view = new DafkaProtoView();
   }
 
   @Override
   public List<Socket> createSockets(ZContext ctx, Object... args) {
-    String topic = (String) args[0];
+    this.topic = (String) args[0];
     Properties properties = (Properties) args[1];
+    // Without compression records are sent as they are, without going through a compressor
+    DafkaCompressor compressor = DafkaCompressors.create(properties.getProperty("producer.compression", "none"));
+    this.compressor = compressor.codec() == DafkaCompressors.NONE ? null : compressor;
+    this.pool = DafkaBufferPool.create(properties.getProperty("producer.pool", "heap"));
+    this.batchBytes = Integer.parseInt(properties.getProperty("producer.batch.bytes",
+        Integer.toString(DEFAULT_BATCH_BYTES)));
+    this.chunkBytes = Integer.parseInt(properties.getProperty("producer.chunk.bytes",
+        Integer.toString(DEFAULT_CHUNK_BYTES)));
+    this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(properties.getProperty("producer.linger.ms", "0")));
+    this.acks = Integer.parseInt(properties.getProperty("producer.acks", "1"));
+    if (acks < 0 || acks > MAX_STORES) {
+      throw new IllegalArgumentException("Acks must be between 0 and " + MAX_STORES);
+    }
+    this.headMinNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Long.parseLong(
+        properties.getProperty("producer.head.min.ms", Long.toString(DEFAULT_HEAD_MIN_MS)))));
+    this.headMaxNanos = Math.max(headMinNanos, TimeUnit.MILLISECONDS.toNanos(Long.parseLong(
+        properties.getProperty("producer.head.max.ms", Long.toString(DEFAULT_HEAD_MAX_MS)))));
+    // The partitions share the retained bytes
+    int partitionCount = Integer.parseInt(properties.getProperty("producer.partitions", "1"));
+    if (partitionCount < 1) {
+      throw new IllegalArgumentException("A producer needs at least one partition");
+    }
+    int retentionBytes = Integer.parseInt(properties.getProperty("producer.retention.bytes", "4194304"))
+        / partitionCount;
+    String identity = properties.getProperty("producer.identity");
+    if (identity != null) {
+      try {
+        this.checkpoint = DafkaCheckpoint.open(Paths.get(identity), partitionCount);
+      } catch (IOException exception) {
+        throw new UncheckedIOException(exception);
+      }
+    }
+    Partition[] partitions = new Partition[partitionCount];
+    for (int index = 0; index < partitionCount; index++) {
+      partitions[index] = checkpoint == null
+          ? new Partition(index, DafkaAddress.random(), 0, retentionBytes)
+          : new Partition(index, checkpoint.address(index), checkpoint.reserved(index), retentionBytes);
+    }
+    this.partitions = partitions;
+    long windowMessages = Long.parseLong(properties.getProperty("producer.window.messages", "0"));
+    this.window = new DafkaWindow(windowMessages,
+        Long.parseLong(properties.getProperty("producer.window.bytes", "0")),
+        DafkaWindow.Policy.valueOf(properties.getProperty("producer.window.policy", "block").toUpperCase()));
+    this.ring = new DafkaRing<>(Integer.parseInt(properties.getProperty("producer.ring.capacity",
+        Integer.toString(DEFAULT_RING_CAPACITY))));
+    try {
+      this.wakeup = Pipe.open();
+      wakeup.source().configureBlocking(false);
+      wakeup.sink().configureBlocking(false);
+    } catch (IOException exception) {
+      throw new UncheckedIOException(exception);
+    }
 
     this.beaconActor = new ZActor(ctx, this.beacon, null, args[1]);
     this.beaconActor.recv(); // Wait for signal that beacon is connected to tower
 
-    // HINT: Don't forget to return your sockets here otherwise they won't get passed as parameter into the start() method
-    return Arrays.asList(beaconActor.pipe());
+    this.producerPub = ctx.createSocket(SocketType.PUB);
+    // A full window stops publishing before the socket drops records, which it would do at its high-water mark
+    if (windowMessages > producerPub.getSndHWM()) {
+      producerPub.setSndHWM((int) Math.min(windowMessages, Integer.MAX_VALUE));
+    }
+    this.producerSub = ctx.createSocket(SocketType.SUB);
+    return Arrays.asList(beaconActor.pipe(), producerPub, producerSub);
   }
 
   @Override
   public void start(Socket pipe, List<Socket> sockets, ZPoller poller) {
-    String producerAddress = UUID.randomUUID().toString();
-
-    // TODO: Bind the consumers publisher socket to a random port and assign its value to this variable
-    int publisherSocketPort = 666;
-
-    beacon.start(beaconActor, producerAddress, publisherSocketPort);
+    int publisherSocketPort = producerPub.bindToRandomPort("tcp://*");
 
-    // HINT: This is the place where you want to subscribe to topics!
+    // One beacon announces the socket every partition publishes on
+    beacon.start(beaconActor, partitions[0].address, publisherSocketPort);
+    poller.register(beaconActor.pipe(), ZPoller.IN);
 
-    // HINT: Don't forget to register your inbound sockets with the poller!
+    // Stores acknowledge what they stored directly to us, consumers and stores fetch what they missed from us
+    topicData = topic.getBytes(ZMQ.CHARSET);
+    long now = System.nanoTime();
+    for (Partition partition : partitions) {
+      partition.start(now);
+    }
+    poller.register(producerSub, ZPoller.IN);
+    poller.register(wakeup.source(), (channel, events) -> wokenUp(), ZPoller.IN);
 
     // Signals the actor create about the successful startup by sending a zero byte.
     pipe.send(new byte[]{0});
@@ -92,39 +211,67 @@ public class DafkaProducer extends SimpleActor {
   @Override
   public boolean finished(Socket pipe) {
     beacon.terminate(beaconActor);
+    // Publishers check whether the producer is closed after offering, and fail what is left in the ring if it is
+    closed = true;
+    window.close();
 
-    timerThreadRunning = false;
-    synchronized (timerThread) {
+    IllegalStateException terminated = new IllegalStateException("Producer terminated before the record was stored");
+    for (Partition partition : partitions) {
+      for (CompletableFuture<Long> future : partition.inflight) {
+        future.completeExceptionally(terminated);
+      }
+      partition.inflight.clear();
+    }
+    failQueued();
+    try {
+      wakeup.sink().close();
+      wakeup.source().close();
+    } catch (IOException exception) {
+      log.warn("Failed to close wake-up pipe", exception);
+    }
+    if (checkpoint != null) {
       try {
-        timerThread.join();
-      } catch (InterruptedException exception) {
-        log.error("Failed to stop timer thread", exception);
+        checkpoint.close();
+      } catch (IOException exception) {
+        log.error("Failed to close identity", exception);
       }
     }
+
     log.info("Producer stopped!");
     return super.finished(pipe);
   }
 
   @Override
   public boolean stage(Socket socket, Socket pipe, ZPoller poller, int events) {
-    // HINT: This is the place where you get notified about new messages on sockets registered with the poller.
-
-    // HINT: It is useful to log the incoming message ;)
-
     if (socket.equals(beaconActor.pipe())) {
       String command = socket.recvStr();
       String address = socket.recvStr();
 
       if ("CONNECT".equals(command)) {
         log.info("Connecting to {}", address);
-        // TODO: Connect your subscriber socket to the discovered peer's address
+        producerSub.connect(address);
       } else if ("DISCONNECT".equals(command)) {
         log.info("Disconnecting from {}", address);
-        // TODO: Disconnect your subscriber socket from the vanished peer's address
+        producerSub.disconnect(address);
       } else {
         log.error("Transport: Unknown command {}", command);
         assert (false);
       }
+    } else if (socket.equals(producerSub)) {
+      if (!view.recv(producerSub)) {
+        log.warn("Dropping malformed message");
+        return true;
+      }
+
+      Partition partition = partitionOf(view);
+      if (partition == null) {
+        return true;
+      }
+      if (view.id() == DafkaProto.ACK) {
+        partition.handleAck();
+      } else if (view.id() == DafkaProto.FETCH) {
+        partition.handleFetch();
+      }
     }
 
     return true;
@@ -132,14 +279,17 @@ public class DafkaProducer extends SimpleActor {
 
   @Override
   public boolean backstage(Socket pipe, ZPoller poller, int events) {
-    // HINT: This is the place where you get notified about new messages from the creator of the actor.
-
     String command = pipe.recvStr();
     switch (command) {
       case "$TERM":
-        if (headTimer != null) {
-          ztimer.cancel(headTimer);
-          headTimer = null;
+        // Records published before terminating are still sent
+        do {
+          drain();
+        } while (backlog);
+        // A last HEAD tells consumers about the end of the last burst, HEAD is not going to follow it anymore
+        for (Partition partition : partitions) {
+          partition.sendBatch();
+          partition.sendHead();
         }
         return false;
       default:
@@ -148,6 +298,354 @@ public class DafkaProducer extends SimpleActor {
     return true;
   }
 
+  /**
+   * Empties the wake-up pipe and drains the ring.
+   */
+  private boolean wokenUp() {
+    ByteBuffer signals = ByteBuffer.allocate(64);
+    try {
+      while (wakeup.source().read(signals) > 0) {
+        signals.clear();
+      }
+    } catch (IOException exception) {
+      log.error("Failed to read wake-up pipe", exception);
+    }
+    drain();
+    return true;
+  }
+
+  /**
+   * Publishes the records in the ring, at most {@link #DRAIN_LIMIT} at a time so acknowledgements and fetches are not
+   * held up. A single record goes out as MSG, several as MSG_BATCH, so a burst of small records shares headers and
+   * ZeroMQ messages. Records too large to share a batch go out as MSG on their own, so they are never copied on their
+   * way from the application to the socket.
+   *
+   * <p>With producer.linger.ms set, the batch is only sent once it holds producer.batch.bytes or the first record in
+   * it waited that long, trading latency for fewer and larger messages.</p>
+   */
+  private void drain() {
+    int drained = 0;
+    Published held = null;
+    for (Published record; drained < DRAIN_LIMIT && (record = ring.poll()) != null; drained++) {
+      // The record before is only known not to be alone once this one arrived
+      if (held != null) {
+        partitions[held.partition].stage(held);
+      }
+      held = record;
+    }
+    backlog = !ring.settle(drained);
+
+    if (held != null) {
+      Partition partition = partitions[held.partition];
+      if (partition.batch.count() == 0 && lingerNanos == 0 && !backlog) {
+        partition.sendMsg(held);
+      } else {
+        partition.stage(held);
+      }
+    }
+    for (Partition partition : partitions) {
+      DafkaProtoBatch batch = partition.batch;
+      if (batch.count() > 0 && (lingerNanos == 0 && !backlog || batch.size() >= batchBytes)) {
+        partition.sendBatch();
+      }
+    }
+  }
+
+  /**
+   * Waits for the pipe no longer than the first batch still has to linger or the first HEAD is due, and not at all
+   * while records are left in the ring.
+   */
+  @Override
+  public long looping(Socket pipe, ZPoller poller) {
+    if (backlog) {
+      return 0;
+    }
+    long now = System.nanoTime();
+    long deadline = partitions[0].headDeadline;
+    for (Partition partition : partitions) {
+      if (partition.headDeadline - deadline < 0) {
+        deadline = partition.headDeadline;
+      }
+      if (partition.batch.count() > 0 && partition.lingerDeadline - deadline < 0) {
+        deadline = partition.lingerDeadline;
+      }
+    }
+    long remaining = deadline - now;
+    return remaining <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(remaining) + 1;
+  }
+
+  /**
+   * Goes on draining the ring, sends the batches once they lingered long enough and the HEADs that are due.
+   */
+  @Override
+  public boolean looped(Socket pipe, ZPoller poller) {
+    if (backlog) {
+      drain();
+    }
+    long now = System.nanoTime();
+    for (Partition partition : partitions) {
+      if (partition.batch.count() > 0 && now - partition.lingerDeadline >= 0) {
+        partition.sendBatch();
+      }
+      if (now - partition.headDeadline >= 0) {
+        partition.head(now);
+      }
+    }
+    if (checkpoint != null && now - checkpointForced >= CHECKPOINT_FORCE_NANOS) {
+      checkpoint.force();
+      checkpointForced = now;
+    }
+    return super.looped(pipe, poller);
+  }
+
+  /**
+   * @return the partition a message from a store or consumer is for, or null if it is for none of them
+   */
+  private Partition partitionOf(DafkaProtoView view) {
+    if (!view.subjectEquals(topicData)) {
+      return null;
+    }
+    for (Partition partition : partitions) {
+      if (view.topicEquals(partition.address)) {
+        return partition;
+      }
+    }
+    return null;
+  }
+
+  private byte[] compress(ByteBuffer content) {
+    int size = content.remaining();
+    if (content.hasArray()) {
+      return compressor.compress(content.array(), content.arrayOffset() + content.position(), size);
+    }
+    // Direct content is copied to the heap for the compressor
+    if (scratch.length < size) {
+      scratch = new byte[size];
+    }
+    content.duplicate().get(scratch, 0, size);
+    return compressor.compress(scratch, 0, size);
+  }
+
+  private void release(ByteBuffer content) {
+    DafkaBufferPool pool = this.pool;
+    if (pool != null) {
+      pool.release(content);
+    }
+  }
+
+  /**
+   * Gives the content of the record back to the pool once the producer is done with it, unless it is an array of the
+   * application, which may still use it.
+   */
+  private void release(Published record, ByteBuffer content) {
+    if (record.reusable) {
+      release(content);
+    }
+  }
+
+  /**
+   * Publishes a record to one of this producer's partitions of the topic, taking turns. The content is handed over to
+   * the producer, which sends it without copying unless it packs it into a batch, and may reuse it afterwards, so it
+   * must not be modified anymore.
+   *
+   * <p>A producer has producer.partitions partitions, one by default. Each has its own address and sequences, like a
+   * producer of its own, but they all share the sockets, the beacon and the thread of this producer. Addresses are
+   * random, unless producer.identity names a file keeping them and the next sequences, so a restarted producer resumes
+   * its partitions.</p>
+   *
+   * <p>Any number of threads may publish at once. Records go into a lock-free ring the producer drains in batches,
+   * woken up only when the ring stops being empty, so publishing neither takes a lock nor waits for the producer. The
+   * ring holds producer.ring.capacity records, 65536 by default, publishing waits for room when it is full. Records of
+   * one thread keep their order, records of several threads are ordered as they entered the ring.</p>
+   *
+   * <p>Records larger than producer.chunk.bytes, 1 MiB by default, are sent in chunks of that size taking a sequence
+   * each, consumers reading them as a stream through {@link DafkaRecord#channel()}, even if they would fit into a batch.
+   * 0 sends every record whole.</p>
+   *
+   * <p>The future completes with the sequence of the record in its partition, that of its first chunk, once
+   * producer.acks distinct stores acknowledged it, one by default, on the thread of the producer, so anything slow
+   * depending on it should use the async variants of {@link CompletableFuture}. It completes exceptionally if the
+   * producer terminates before. With producer.acks set to 0, it completes as soon as the record is sent.</p>
+   *
+   * <p>Records take room in the window of the producer until they are acknowledged, set with the
+   * producer.window.messages and producer.window.bytes properties, unlimited by default. When it is full, publishing
+   * waits for room, throws or sheds the record, completing its future exceptionally, as producer.window.policy is set
+   * to block, the default, fail or shed. A window needs stores acknowledging records, without them it never empties.
+   * A window of fewer bytes than producer.retention.bytes keeps every record the stores did not acknowledge yet
+   * retained, so a lagging store can still fetch it.</p>
+   *
+   * @param actor Actor running this producer
+   * @param content Content of the record
+   * @return the future sequence of the stored record
+   * @throws IllegalStateException if the window is full and fails fast, or the producer terminated
+   */
+  public CompletableFuture<Long> publish(ZActor actor, byte[] content) {
+    return publish(actor, nextPartition(), ByteBuffer.wrap(content), false);
+  }
+
+  /**
+   * Publishes the remaining bytes of the buffer as a record, handing the buffer over like {@link #publish(ZActor,
+   * byte[])}. Buffers taken with {@link #acquire(int)} go back to the pool once packed or compressed, or shed, as may
+   * any other buffer of the size of a pooled one, so it must not be used anymore. Arrays published as they are never
+   * go to the pool.
+   *
+   * @param actor Actor running this producer
+   * @param content Content of the record
+   * @return the future sequence of the stored record
+   * @throws IllegalStateException if the window is full and fails fast, or the producer terminated
+   */
+  public CompletableFuture<Long> publish(ZActor actor, ByteBuffer content) {
+    return publish(actor, nextPartition(), content, true);
+  }
+
+  /**
+   * Publishes a record to the partition of its key, so records of the same key keep their order, like {@link
+   * #publish(ZActor, byte[])}.
+   *
+   * @param actor Actor running this producer
+   * @param key Key of the record, only used to choose its partition
+   * @param content Content of the record
+   * @return the future sequence of the stored record
+   * @throws IllegalStateException if the window is full and fails fast, or the producer terminated
+   */
+  public CompletableFuture<Long> publish(ZActor actor, byte[] key, byte[] content) {
+    return publish(actor, partitionOf(key), ByteBuffer.wrap(content), false);
+  }
+
+  /**
+   * Publishes the remaining bytes of the buffer as a record to the partition of its key, like {@link
+   * #publish(ZActor, byte[], byte[])}.
+   *
+   * @param actor Actor running this producer
+   * @param key Key of the record, only used to choose its partition
+   * @param content Content of the record
+   * @return the future sequence of the stored record
+   * @throws IllegalStateException if the window is full and fails fast, or the producer terminated
+   */
+  public CompletableFuture<Long> publish(ZActor actor, byte[] key, ByteBuffer content) {
+    return publish(actor, partitionOf(key), content, true);
+  }
+
+  private int nextPartition() {
+    int count = partitions.length;
+    return count == 1 ? 0 : Math.floorMod(roundRobin.getAndIncrement(), count);
+  }
+
+  private int partitionOf(byte[] key) {
+    return Math.floorMod(Arrays.hashCode(key), partitions.length);
+  }
+
+  /**
+   * @param reusable Whether the content may go back to the pool, which arrays of the application never do
+   */
+  private CompletableFuture<Long> publish(ZActor actor, int partition, ByteBuffer content, boolean reusable) {
+    Published record = admit(content.remaining(), partition, reusable);
+    if (record.isDone()) {
+      if (reusable) {
+        release(content);
+      }
+      return record;
+    }
+    record.content = content;
+
+    DafkaRing<Published> ring = this.ring;
+    int offered;
+    while ((offered = ring.offer(record)) < 0 && !closed) {
+      LockSupport.parkNanos(RING_FULL_PARK_NANOS);
+    }
+    if (offered < 0) {
+      // Never queued, the ring stayed full until the producer terminated
+      record.completeExceptionally(new IllegalStateException("Producer terminated before the record was stored"));
+      if (reusable) {
+        release(content);
+      }
+    } else if (closed) {
+      // The producer may have failed the records in the ring before this one arrived
+      failQueued();
+    } else if (offered > 0) {
+      wakeUp();
+    }
+    return record;
+  }
+
+  /**
+   * Fails the records left in the ring once the producer terminated. The producer does it as it terminates, and every
+   * publisher whose record went into the ring afterwards, one of them at a time as the ring has a single consumer.
+   */
+  private void failQueued() {
+    DafkaRing<Published> ring = this.ring;
+    synchronized (ring) {
+      int polled = 0;
+      for (Published record; (record = ring.poll()) != null; polled++) {
+        record.completeExceptionally(new IllegalStateException("Producer terminated before the record was stored"));
+      }
+      ring.settle(polled);
+    }
+  }
+
+  private void wakeUp() {
+    try {
+      wakeup.sink().write(ByteBuffer.wrap(WAKE_UP));
+    } catch (IOException exception) {
+      // The producer closed the pipe, it fails the record
+    }
+  }
+
+  /**
+   * Takes room in the window for a record.
+   *
+   * @return the future of the record, completed exceptionally if it is shed
+   */
+  private Published admit(int size, int partition, boolean reusable) {
+    Published future = new Published(size, partition, reusable);
+    DafkaWindow window = this.window;
+    if (window.acquire(size)) {
+      future.window = window;
+    } else {
+      future.completeExceptionally(new IllegalStateException("Producer window is full, record shed"));
+    }
+    return future;
+  }
+
+  /**
+   * Takes a buffer for the content of a record from the pool of the producer, set with the producer.pool property to
+   * heap, the default, direct or none. Fill it, flip it and publish it.
+   *
+   * @return a buffer whose limit is the size
+   */
+  public ByteBuffer acquire(int size) {
+    DafkaBufferPool pool = this.pool;
+    return pool == null ? ByteBuffer.allocate(size) : pool.acquire(size);
+  }
+
+  /**
+   * @return the pool of the producer or null if none
+   */
+  public DafkaBufferPool pool() {
+    return pool;
+  }
+
+  /**
+   * @return the number of partitions of the producer
+   */
+  public int partitions() {
+    return partitions.length;
+  }
+
+  /**
+   * @return the address of the partition, as consumers and stores know it
+   */
+  public byte[] address(int partition) {
+    return partitions[partition].address.clone();
+  }
+
+  /**
+   * @return the window of the records not acknowledged yet
+   */
+  public DafkaWindow window() {
+    return window;
+  }
+
   public void terminate(ZActor actor) {
     actor.send("$TERM");
   }
@@ -156,16 +654,33 @@ public class DafkaProducer extends SimpleActor {
     Properties consumerProperties = new Properties();
     Options options = new Options();
     options.addRequiredOption("topic", "topic", true, "Topic name the publisher publishes to");
+    options.addOption("compression", true, "Compress records with none or deflate");
+    options.addOption("linger_ms", true, "Milliseconds records may wait to be sent in a batch, 0 by default");
+    options.addOption("batch_bytes", true, "Bytes of records sent in a batch at most, 65536 by default");
+    options.addOption("chunk_bytes", true, "Bytes of the chunks larger records are sent in, 1048576 by default");
+    options.addOption("partitions", true, "Partitions of the topic published to, 1 by default");
+    options.addOption("acks", true, "Stores that must store a record before it is acknowledged, 1 by default");
+    options.addOption("identity", true, "File keeping the addresses and sequences of the partitions across restarts");
+    options.addOption("head_max_ms", true, "Milliseconds between HEADs of an idle partition at most, 10000 by default");
+    options.addOption("window_messages", true, "Records not acknowledged yet at most, unlimited by default");
+    options.addOption("window_bytes", true, "Bytes of records not acknowledged yet at most, unlimited by default");
+    options.addOption("window_policy", true, "Publishing into a full window blocks, fails or sheds, block by default");
+    options.addOption("file", true, "Publish the lines of the file instead of standard input");
+    options.addOption("binary", "Read standard input as records each preceded by its 4 byte big-endian length");
     options.addOption("pub", true, "Tower publisher address");
     options.addOption("sub", true, "Tower subscriber address");
     options.addOption("verbose", "Enable verbose logging");
     options.addOption("help", "Displays this help");
     CommandLineParser parser = new DefaultParser();
     String topic;
+    String file;
+    boolean binary;
     try {
       final CommandLine cmd = parser.parse(options, args);
 
       topic = cmd.getOptionValue("topic");
+      file = cmd.getOptionValue("file");
+      binary = cmd.hasOption("binary");
 
       if (cmd.hasOption("help")) {
         HelpFormatter formatter = new HelpFormatter();
@@ -179,6 +694,39 @@ public class DafkaProducer extends SimpleActor {
         Configurator.setRootLevel(Level.ERROR);
       }
 
+      if (cmd.hasOption("compression")) {
+        consumerProperties.setProperty("producer.compression", cmd.getOptionValue("compression"));
+      }
+      if (cmd.hasOption("linger_ms")) {
+        consumerProperties.setProperty("producer.linger.ms", cmd.getOptionValue("linger_ms"));
+      }
+      if (cmd.hasOption("batch_bytes")) {
+        consumerProperties.setProperty("producer.batch.bytes", cmd.getOptionValue("batch_bytes"));
+      }
+      if (cmd.hasOption("chunk_bytes")) {
+        consumerProperties.setProperty("producer.chunk.bytes", cmd.getOptionValue("chunk_bytes"));
+      }
+      if (cmd.hasOption("partitions")) {
+        consumerProperties.setProperty("producer.partitions", cmd.getOptionValue("partitions"));
+      }
+      if (cmd.hasOption("acks")) {
+        consumerProperties.setProperty("producer.acks", cmd.getOptionValue("acks"));
+      }
+      if (cmd.hasOption("identity")) {
+        consumerProperties.setProperty("producer.identity", cmd.getOptionValue("identity"));
+      }
+      if (cmd.hasOption("head_max_ms")) {
+        consumerProperties.setProperty("producer.head.max.ms", cmd.getOptionValue("head_max_ms"));
+      }
+      if (cmd.hasOption("window_messages")) {
+        consumerProperties.setProperty("producer.window.messages", cmd.getOptionValue("window_messages"));
+      }
+      if (cmd.hasOption("window_bytes")) {
+        consumerProperties.setProperty("producer.window.bytes", cmd.getOptionValue("window_bytes"));
+      }
+      if (cmd.hasOption("window_policy")) {
+        consumerProperties.setProperty("producer.window.policy", cmd.getOptionValue("window_policy"));
+      }
       if (cmd.hasOption("pub")) {
         consumerProperties.setProperty("beacon.pub_address", cmd.getOptionValue("pub"));
       }
@@ -202,33 +750,603 @@ public class DafkaProducer extends SimpleActor {
     byte[] signal = pipe.recv();
     assert signal[0] == 0;
 
-    final Thread zmqThread = new Thread(() -> {
-      BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
-      while (!Thread.currentThread().isInterrupted()) {
+    // Terminates once, either when the input ends or on a signal
+    AtomicBoolean stopped = new AtomicBoolean();
+    Runnable stop = () -> {
+      if (stopped.compareAndSet(false, true)) {
+        dafkaProducer.terminate(actor);
         try {
-          if (reader.ready()) {
-            String line = reader.readLine();
-            if (StringUtils.isNoneBlank(line)) {
-              // TODO: Publish "line" as event to this publisher's topic partition
-            }
+          actor.exit().await(END_OF_INPUT_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exception) {
+          Thread.currentThread().interrupt();
+        }
+        // Records still queued in the socket are flushed before closing
+        context.setLinger((int) END_OF_INPUT_WAIT_MS);
+        context.close();
+      }
+    };
+    Runtime.getRuntime().addShutdownHook(new Thread(stop));
+
+    try {
+      CompletableFuture<Long> last;
+      if (file != null) {
+        last = publishFile(dafkaProducer, actor, Paths.get(file));
+      } else if (binary) {
+        last = publishRecords(dafkaProducer, actor, System.in);
+      } else {
+        last = publishLines(dafkaProducer, actor, System.in);
+      }
+      if (last != null) {
+        awaitStored(dafkaProducer, last);
+      }
+    } catch (IOException exception) {
+      log.error("Failed to read input", exception);
+    } catch (ExecutionException | TimeoutException exception) {
+      log.warn("Last record not acknowledged by a store");
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+    } finally {
+      stop.run();
+    }
+  }
+
+  /**
+   * Waits for a store to acknowledge the last record, as long as stores go on acknowledging records.
+   *
+   * @throws TimeoutException if no record was acknowledged for {@link #END_OF_INPUT_WAIT_MS}
+   */
+  private static void awaitStored(DafkaProducer producer, CompletableFuture<Long> last)
+      throws ExecutionException, InterruptedException, TimeoutException {
+    long inflight = producer.window().messages();
+    while (true) {
+      try {
+        last.get(END_OF_INPUT_WAIT_MS, TimeUnit.MILLISECONDS);
+        return;
+      } catch (TimeoutException exception) {
+        long remaining = producer.window().messages();
+        if (remaining >= inflight) {
+          throw exception;
+        }
+        inflight = remaining;
+      }
+    }
+  }
+
+  /**
+   * Publishes the lines of the file, mapped a window at a time. Every line is published as a slice of the mapping, so
+   * the lines are only ever copied into batches or by the socket.
+   *
+   * @return the future of the last record or null if there is none
+   */
+  static CompletableFuture<Long> publishFile(DafkaProducer producer, ZActor actor, Path path)
+      throws IOException {
+    CompletableFuture<Long> last = null;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long position = 0;
+      while (position < size) {
+        int length = (int) Math.min(MAP_WINDOW, size - position);
+        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        int start = 0;
+        for (int index = 0; index < length; index++) {
+          if (map.get(index) == '\n') {
+            last = publishLine(producer, actor, map, start, index, last);
+            start = index + 1;
           }
-        } catch (IOException e) {
-          throw new RuntimeException(e);
+        }
+        // A line crossing the end of the window starts the next one
+        if (position + length == size) {
+          last = publishLine(producer, actor, map, start, length, last);
+          start = length;
+        } else if (start == 0) {
+          throw new IOException("Line longer than " + MAP_WINDOW + " bytes");
+        }
+        position += start;
+      }
+    }
+    return last;
+  }
+
+  /**
+   * Publishes the lines of the input, read a chunk at a time, blocking while there is nothing to read.
+   *
+   * @return the future of the last record or null if there is none
+   */
+  static CompletableFuture<Long> publishLines(DafkaProducer producer, ZActor actor, InputStream input)
+      throws IOException {
+    CompletableFuture<Long> last = null;
+    byte[] chunk = new byte[INPUT_CHUNK];
+    int size = 0;
+    int read;
+    while ((read = input.read(chunk, size, chunk.length - size)) >= 0) {
+      int start = 0;
+      for (int index = size; index < size + read; index++) {
+        if (chunk[index] == '\n') {
+          last = publishLine(producer, actor, ByteBuffer.wrap(chunk), start, index, last);
+          start = index + 1;
         }
       }
+      size += read - start;
+      System.arraycopy(chunk, start, chunk, 0, size);
+      if (size == chunk.length) {
+        chunk = Arrays.copyOf(chunk, chunk.length * 2);
+      }
+    }
+    return publishLine(producer, actor, ByteBuffer.wrap(chunk), 0, size, last);
+  }
 
-    });
+  /**
+   * Publishes the line between the offsets without its line feed, unless it is blank. Lines of a mapped file are
+   * published as they are, other lines are copied as their buffer is reused.
+   *
+   * @return the future of the line or the last one if the line is blank
+   */
+  private static CompletableFuture<Long> publishLine(DafkaProducer producer, ZActor actor, ByteBuffer buffer,
+      int start, int end, CompletableFuture<Long> last) {
+    if (end > start && buffer.get(end - 1) == '\r') {
+      end--;
+    }
+    boolean blank = true;
+    for (int index = start; index < end && blank; index++) {
+      blank = buffer.get(index) <= ' ';
+    }
+    if (blank) {
+      return last;
+    }
+    if (buffer.hasArray()) {
+      return producer.publish(actor, Arrays.copyOfRange(buffer.array(), start, end));
+    }
+    ByteBuffer line = buffer.duplicate();
+    line.limit(end);
+    line.position(start);
+    return producer.publish(actor, line.slice());
+  }
 
-    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-      dafkaProducer.terminate(actor);
+  /**
+   * Publishes the records of the input, each preceded by its length as a 4 byte big-endian integer, into buffers of
+   * the pool of the producer.
+   *
+   * @return the future of the last record or null if there is none
+   */
+  static CompletableFuture<Long> publishRecords(DafkaProducer producer, ZActor actor, InputStream input)
+      throws IOException {
+    CompletableFuture<Long> last = null;
+    DataInputStream data = new DataInputStream(new BufferedInputStream(input, INPUT_CHUNK));
+    while (true) {
+      int length;
       try {
-        zmqThread.interrupt();
-        zmqThread.join();
-        context.close();
-      } catch (InterruptedException e) {
+        length = data.readInt();
+      } catch (EOFException exception) {
+        return last;
+      }
+      if (length < 0) {
+        throw new IOException("Negative record length " + length);
+      }
+      ByteBuffer record = producer.acquire(length);
+      if (record.hasArray()) {
+        data.readFully(record.array(), record.arrayOffset(), length);
+      } else {
+        byte[] content = new byte[length];
+        data.readFully(content);
+        record.put(content);
+        record.flip();
+      }
+      last = producer.publish(actor, record);
+    }
+  }
+
+  /**
+   * One partition of the topic, with its own address, sequences, batch and retained messages.
+   */
+  private final class Partition {
+
+    private final int index;
+    private final byte[] address;
+    private final DafkaProtoBatch batch = new DafkaProtoBatch(DEFAULT_BATCH_BYTES);
+    private final DafkaRetention retention;
+    private DafkaProtoTemplate msgTemplate;
+    private DafkaProtoTemplate batchTemplate;
+    private long nextSequence;
+    // Sequences up to this one are reserved in the checkpoint
+    private long reserved;
+    private long lingerDeadline;
+
+    // Records were sent since HEAD was last due, HEAD is then skipped as their sequences tell the same
+    private boolean sending;
+    private long headInterval;
+    private long headDeadline;
+
+    // Futures of the records taken from the ring, whose first one has the sequence of the first record not
+    // acknowledged yet
+    private final ArrayDeque<Published> inflight = new ArrayDeque<>();
+    private long inflightSequence;
+
+    // Stores that acknowledged records and the last record each of them stored without a gap, highest first
+    private final byte[][] stores = new byte[MAX_STORES][];
+    private final long[] stored = new long[MAX_STORES];
+    private int storeCount;
+
+    Partition(int index, byte[] address, long nextSequence, int retentionBytes) {
+      this.index = index;
+      this.address = address;
+      this.nextSequence = nextSequence;
+      this.reserved = nextSequence;
+      this.inflightSequence = nextSequence;
+      this.retention = retentionBytes > 0
+          ? new DafkaRetention(retentionBytes, Math.max(16, retentionBytes / RETAINED_MESSAGE_BYTES))
+          : null;
+    }
+
+    private void start(long now) {
+      headInterval = headMinNanos;
+      headDeadline = now + headInterval;
+      if (acks > 0) {
+        DafkaProto.subscribe(producerSub, DafkaProto.ACK, address);
+      }
+      if (retention != null) {
+        DafkaProto.subscribe(producerSub, DafkaProto.FETCH, address);
+      }
+
+      // Every record goes out with the same header, only its sequence changes
+      msgTemplate = new DafkaProtoTemplate(DafkaProto.MSG, topicData, topic, address);
+      batchTemplate = new DafkaProtoTemplate(DafkaProto.MSG_BATCH, topicData, topic, address);
+      if (compressor != null) {
+        msgTemplate.setCodec(compressor.codec());
+        batchTemplate.setCodec(compressor.codec());
+      }
+      if (checkpoint != null) {
+        skipped();
+      }
+    }
+
+    /**
+     * Sends the sequences a crash skipped as a batch without records, and retains it, so consumers and stores move
+     * on past them rather than waiting for them forever. Consumers and stores that got some of them before the crash
+     * keep those. Sent while starting, the batch reaches hardly anyone, as peers connect once the beacon announces
+     * the producer. It is retained for them instead: the first record or HEAD tells them about the skipped sequences,
+     * and they fetch the batch.
+     */
+    private void skipped() {
+      long skipped = checkpoint.sequence(index);
+      if (skipped < nextSequence) {
+        log.warn("Skipping sequences {} to {} of partition {} reserved before a crash", skipped, nextSequence - 1,
+            index);
+        int count = (int) (nextSequence - skipped);
+        byte[] none = new byte[0];
+        retain(skipped, count, true, DafkaCompressors.NONE, none, 0, 0);
+        batchTemplate.setCodec(DafkaCompressors.NONE);
+        batchTemplate.send(producerPub, skipped, count, none, 0, 0);
+        batchTemplate.setCodec(compressor == null ? DafkaCompressors.NONE : compressor.codec());
+        checkpoint.sequence(index, nextSequence);
+      }
+    }
+
+    /**
+     * Takes the content of a record to send it, its future is in flight from now on.
+     */
+    private ByteBuffer take(Published record) {
+      ByteBuffer content = record.content;
+      record.content = null;
+      if (chunked(content.remaining())) {
+        record.sequences = (content.remaining() - 1) / chunkBytes + 1;
+      }
+      inflight.add(record);
+      return content;
+    }
+
+    /**
+     * @return whether a record of that size is sent in chunks, whether it would fit into a batch or not
+     */
+    private boolean chunked(int size) {
+      return chunkBytes > 0 && size > chunkBytes;
+    }
+
+    private void stage(Published record) {
+      int size = record.content.remaining();
+      if (size + DafkaProtoBatch.RECORD_OVERHEAD > batchBytes || chunked(size)) {
+        sendBatch();
+        sendMsg(record);
+        return;
+      }
+      if (batch.size() + DafkaProtoBatch.RECORD_OVERHEAD + size > batchBytes) {
+        sendBatch();
+      }
+      if (batch.count() == 0) {
+        lingerDeadline = System.nanoTime() + lingerNanos;
+      }
+      ByteBuffer content = take(record);
+      batch.add(content);
+      release(record, content);
+    }
+
+    /**
+     * Sends one record as MSG. The content published is sent as it is, only compression makes a new one. Content sent
+     * as it is stays with ZeroMQ, which does not tell when it is done with it, so it does not go back to the pool.
+     *
+     * <p>A record larger than producer.chunk.bytes is sent as a run of MSG with consecutive sequences, each a slice of
+     * the content flagged with whether the record goes on before and after it. Consumers and stores then never hold
+     * more than a chunk of it at once, and a lost chunk is fetched on its own.</p>
+     */
+    private void sendMsg(Published record) {
+      ByteBuffer content = take(record);
+      sent();
+      int codec = compressor == null ? DafkaCompressors.NONE : compressor.codec();
+      int limit = content.limit();
+      if (chunked(content.remaining())) {
+        reserve((content.remaining() - 1) / chunkBytes + 1);
+        ByteBuffer chunk = content.duplicate();
+        for (int start = content.position(); start < limit; start += chunkBytes) {
+          int end = limit - start > chunkBytes ? start + chunkBytes : limit;
+          chunk.limit(end).position(start);
+          int flags = (start > content.position() ? DafkaCompressors.CONTINUED : 0)
+              | (end < limit ? DafkaCompressors.MORE : 0);
+          sendMsg(chunk.slice(), codec | flags);
+        }
+      } else {
+        reserve(1);
+        sendMsg(content, codec);
+      }
+      if (compressor != null) {
+        release(record, content);
+      }
+      checkpoint();
+      if (acks == 0) {
+        acknowledge(nextSequence - 1);
+      }
+    }
+
+    private void sendMsg(ByteBuffer content, int codec) {
+      msgTemplate.setCodec(codec);
+      if (compressor != null) {
+        byte[] compressed = compress(content);
+        retain(nextSequence, 1, false, codec, compressed, 0, compressed.length);
+        msgTemplate.send(producerPub, nextSequence++, ByteBuffer.wrap(compressed));
+      } else {
+        if (retention != null) {
+          retention.add(nextSequence, 1, false, codec, content);
+        }
+        msgTemplate.send(producerPub, nextSequence++, content);
+      }
+    }
+
+    private void sendBatch() {
+      if (batch.count() > 0) {
+        sent();
+        reserve(batch.count());
+        if (compressor != null) {
+          // The packed records are compressed as a whole, which is where small similar records gain the most
+          byte[] content = compressor.compress(batch.data(), 0, batch.size());
+          retain(nextSequence, batch.count(), true, compressor.codec(), content, 0, content.length);
+          batchTemplate.send(producerPub, nextSequence, batch.count(), content, 0, content.length);
+        } else {
+          retain(nextSequence, batch.count(), true, DafkaCompressors.NONE, batch.data(), 0, batch.size());
+          batchTemplate.send(producerPub, nextSequence, batch);
+        }
+        nextSequence += batch.count();
+        batch.reset();
+        checkpoint();
+        if (acks == 0) {
+          acknowledge(nextSequence - 1);
+        }
+      }
+    }
+
+    /**
+     * Reserves the sequences of a message about to go out unless they are reserved already, a block ahead of them so
+     * the checkpoint is forced once per block rather than once per message.
+     */
+    private void reserve(long count) {
+      if (checkpoint != null && nextSequence + count > reserved) {
+        reserved = nextSequence + count + CHECKPOINT_RESERVE;
+        checkpoint.reserve(index, reserved);
+      }
+    }
+
+    /**
+     * Checkpoints the next sequence once the message went out, which a clean restart resumes at. A crash resumes at
+     * the reserved sequence instead, which is never behind it.
+     */
+    private void checkpoint() {
+      if (checkpoint != null) {
+        checkpoint.sequence(index, nextSequence);
+      }
+    }
+
+    /**
+     * Brings HEAD forward when records start flowing after a while, so it follows the end of the burst soon.
+     */
+    private void sent() {
+      if (!sending) {
+        sending = true;
+        if (headInterval > headMinNanos) {
+          headInterval = headMinNanos;
+          headDeadline = System.nanoTime() + headInterval;
+        }
+      }
+    }
+
+    /**
+     * Sends HEAD when it is due, unless records were sent since it was last due. Consumers and stores that missed the
+     * last records of a burst learn about them from the first HEAD after it, and HEAD goes on announcing the partition
+     * to those joining while it is idle, less and less often.
+     */
+    private void head(long now) {
+      if (sending) {
+        sending = false;
+        headInterval = headMinNanos;
+      } else {
+        sendHead();
+        headInterval = Math.min(headInterval * 2, headMaxNanos);
+      }
+      headDeadline = now + headInterval;
+    }
+
+    private void sendHead() {
+      if (nextSequence > 0) {
+        DafkaProto head = new DafkaProto(DafkaProto.HEAD);
+        head.setTopic(topicData);
+        head.setSubject("%s", topic);
+        head.setAddress(address);
+        head.setSequence(nextSequence - 1);
+        head.send(producerPub);
+      }
+    }
+
+    private void retain(long sequence, int count, boolean packed, int codec, byte[] content, int offset,
+        int length) {
+      if (retention != null) {
+        retention.add(sequence, count, packed, codec, content, offset, length);
+      }
+    }
+
+    /**
+     * Raises the low-watermark of the store acknowledging, and acknowledges the records stored by as many stores as
+     * producer.acks asks for. Stores acknowledge the last record they stored without a gap, so every record up to it
+     * is stored, and the records stored by enough stores are those up to the watermark of the store ranking acks-th.
+     */
+    private void handleAck() {
+      long sequence = view.sequence();
+      int store = 0;
+      while (store < storeCount && !view.addressEquals(stores[store])) {
+        store++;
+      }
+      if (store == storeCount) {
+        // A new store replaces the one with the lowest watermark when there are too many
+        if (storeCount == MAX_STORES) {
+          store--;
+        } else {
+          storeCount++;
+        }
+        stores[store] = view.address();
+      } else if (sequence <= stored[store]) {
+        return;
       }
-    }));
+      stored[store] = sequence;
+      log.debug("Store {} acknowledged {}", DafkaAddress.toString(stores[store]), sequence);
+      rank(store);
 
-    zmqThread.start();
+      if (storeCount >= acks) {
+        // The last record stored by at least acks stores
+        acknowledge(stored[acks - 1]);
+      }
+    }
+
+    /**
+     * Moves a store whose watermark rose ahead of those with lower ones, keeping the stores ordered without sorting.
+     */
+    private void rank(int store) {
+      byte[] address = stores[store];
+      long sequence = stored[store];
+      for (; store > 0 && stored[store - 1] < sequence; store--) {
+        stores[store] = stores[store - 1];
+        stored[store] = stored[store - 1];
+      }
+      stores[store] = address;
+      stored[store] = sequence;
+    }
+
+    /**
+     * Completes the futures of the records up to the sequence and gives their room in the window back.
+     */
+    private void acknowledge(long sequence) {
+      long count = 0;
+      long bytes = 0;
+      // A record sent in chunks is acknowledged once its last chunk is
+      for (Published future; (future = inflight.peek()) != null
+          && inflightSequence + future.sequences - 1 <= sequence; ) {
+        inflight.poll();
+        // A future cancelled meanwhile gave its room back already
+        if (future.complete(inflightSequence)) {
+          count++;
+          bytes += future.size;
+        }
+        inflightSequence += future.sequences;
+      }
+      if (count > 0) {
+        window.release(count, bytes);
+      }
+    }
+
+    /**
+     * Answers a FETCH from the retained messages, directly to the consumer or store asking. Only a run of messages
+     * starting with the requested sequence is sent, stores answer for anything older.
+     */
+    private void handleFetch() {
+      long sequence = view.sequence();
+      long last = sequence + view.count() - 1;
+      int entry = retention.find(sequence);
+      if (entry < 0) {
+        return;
+      }
+
+      byte[] requester = view.address();
+      DafkaProtoTemplate msgReply = null;
+      DafkaProtoTemplate batchReply = null;
+      for (; entry >= 0 && retention.sequence(entry) <= last; entry = retention.next(entry)) {
+        // The ring is overwritten while ZeroMQ may still hold the reply, so the reply gets a copy
+        byte[] content = retention.content(entry);
+        if (retention.packed(entry)) {
+          if (batchReply == null) {
+            batchReply = new DafkaProtoTemplate(DafkaProto.DIRECT_MSG_BATCH, requester, topic, address);
+          }
+          batchReply.setCodec(retention.codec(entry));
+          batchReply.send(producerPub, retention.sequence(entry), retention.count(entry), content, 0, content.length);
+        } else {
+          if (msgReply == null) {
+            msgReply = new DafkaProtoTemplate(DafkaProto.DIRECT_MSG, requester, topic, address);
+          }
+          msgReply.setCodec(retention.codec(entry));
+          msgReply.send(producerPub, retention.sequence(entry), ByteBuffer.wrap(content));
+        }
+      }
+    }
+  }
+
+  /**
+   * Future of a published record, carrying its content and partition through the ring and remembering its size for
+   * the window. A record acknowledged gives its room in the window back along with others, a record failing or
+   * cancelled on its own, whoever completes it first.
+   */
+  private static final class Published extends CompletableFuture<Long> {
+
+    private final int size;
+    private final int partition;
+    // Whether the content may go back to the pool
+    private final boolean reusable;
+    // The window the record took room in, null if it was shed
+    private DafkaWindow window;
+    private ByteBuffer content;
+    // Sequences the record takes, more than one when it is sent in chunks
+    private int sequences = 1;
+
+    Published(int size, int partition, boolean reusable) {
+      this.size = size;
+      this.partition = partition;
+      this.reusable = reusable;
+    }
+
+    @Override
+    public boolean completeExceptionally(Throwable exception) {
+      boolean completed = super.completeExceptionally(exception);
+      if (completed) {
+        release();
+      }
+      return completed;
+    }
+
+    @Override
+    public boolean cancel(boolean interrupt) {
+      boolean cancelled = super.cancel(interrupt);
+      if (cancelled) {
+        release();
+      }
+      return cancelled;
+    }
+
+    private void release() {
+      if (window != null) {
+        window.release(1, size);
+      }
+    }
   }
 }
@@ -0,0 +1,192 @@
+package org.zeromq.dafka;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.zeromq.ZMQ.Socket;
+
+/**
+ * <p>Receiving end of the ring a consumer delivers records through, on the thread of the application.</p>
+ *
+ * <p>The consumer offers a record delivered whole as a {@link DafkaRecord}, and a record sent in chunks a {@link
+ * Chunk} at a time as they arrive, each telling whether more of the record is to come. The first chunk of a record
+ * makes a new record the application receives, later chunks go to that record, whose reader pulls them from the ring
+ * as it needs them. Records and chunks of other partitions arriving meanwhile are queued, so memory only grows when
+ * several partitions send large records at once and the application does not read them as they come.</p>
+ *
+ * <p>The consumer is the only thread offering to the ring and this receiver the only one polling it. Polling takes no
+ * lock and sends no message, the consumer signals the pipe only when the ring stops being empty, so the receiver waits
+ * on the pipe once it ran out of records, and a burst of records costs a single signal.</p>
+ */
+class DafkaReceiver {
+
+  // State of a chunk
+  static final byte LAST = 0;
+  static final byte MORE = 1;
+  static final byte TRUNCATED = 2;
+  static final byte UNDELIVERABLE = 3;
+  // Signal on the pipe that the ring is not empty anymore
+  static final byte[] WAKE_UP = {1};
+
+  /**
+   * A chunk of a record sent in chunks, and whether more of the record is to come.
+   */
+  static final class Chunk {
+
+    final String subject;
+    final byte[] address;
+    final ByteBuffer content;
+    final byte state;
+
+    Chunk(String subject, byte[] address, ByteBuffer content, byte state) {
+      this.subject = subject;
+      this.address = address;
+      this.content = content;
+      this.state = state;
+    }
+  }
+
+  private final Socket pipe;
+  private final DafkaRing<Object> ring;
+  private final DafkaBufferPool pool;
+  private final int chunkTimeout;
+  // Items polled from the ring since it was last settled
+  private int polled;
+
+  // Records received but not handed to the application yet
+  private final ArrayDeque<DafkaRecord> received = new ArrayDeque<>();
+  // Records sent in chunks still receiving chunks, by address and subject
+  private final Map<String, DafkaRecord> chunked = new HashMap<>();
+
+  /**
+   * @param chunkTimeout Milliseconds a record sent in chunks waits for its next chunk
+   */
+  DafkaReceiver(Socket pipe, DafkaRing<Object> ring, DafkaBufferPool pool, int chunkTimeout) {
+    this.pipe = pipe;
+    this.ring = ring;
+    this.pool = pool;
+    this.chunkTimeout = chunkTimeout;
+  }
+
+  boolean receives(Socket pipe, DafkaRing<Object> ring) {
+    return this.pipe == pipe && this.ring == ring;
+  }
+
+  /**
+   * @param timeout Milliseconds to wait for a record, -1 to wait forever
+   * @return the next record or null if none arrived in time
+   */
+  DafkaRecord receive(int timeout) {
+    long deadline = System.currentTimeMillis() + timeout;
+    while (received.isEmpty()) {
+      int wait = timeout < 0 ? -1 : (int) Math.max(0, deadline - System.currentTimeMillis());
+      if (!pump(wait)) {
+        return null;
+      }
+    }
+    return received.poll();
+  }
+
+  /**
+   * Waits for a record like {@link #receive(int)}, then takes the records received meanwhile without waiting, as long
+   * as they fit.
+   *
+   * @param maxRecords Records to take at most
+   * @param maxBytes Bytes of content to take at most, the first record being taken whatever its size
+   * @return the records, none if none arrived in time
+   */
+  List<DafkaRecord> poll(int timeout, int maxRecords, long maxBytes) {
+    List<DafkaRecord> records = new ArrayList<>();
+    DafkaRecord record = receive(timeout);
+    if (record == null) {
+      return records;
+    }
+    records.add(record);
+    long bytes = record.size();
+    while (records.size() < maxRecords && (!received.isEmpty() || pump(0))) {
+      record = received.peek();
+      bytes += record.size();
+      if (bytes > maxBytes) {
+        break;
+      }
+      records.add(received.poll());
+    }
+    return records;
+  }
+
+  /**
+   * Receives the next chunk of any record, for a record whose reader ran out of chunks.
+   *
+   * @return false if nothing arrived in time
+   */
+  boolean pump() {
+    return pump(chunkTimeout);
+  }
+
+  /**
+   * Takes one record or chunk from the ring and passes it on to the record it belongs to.
+   *
+   * @return false if nothing arrived in time
+   */
+  private boolean pump(int timeout) {
+    Object item = next(timeout);
+    if (item == null) {
+      return false;
+    }
+    if (item instanceof DafkaRecord) {
+      received.add((DafkaRecord) item);
+      return true;
+    }
+
+    Chunk chunk = (Chunk) item;
+    String key = new String(chunk.address, StandardCharsets.ISO_8859_1) + chunk.subject;
+    DafkaRecord record = chunk.state == MORE ? chunked.get(key) : chunked.remove(key);
+    if (record == null) {
+      if (chunk.state != MORE) {
+        // The end of a record whose start was received by a previous receiver
+        if (pool != null) {
+          pool.release(chunk.content);
+        }
+        return true;
+      }
+      record = new DafkaRecord(chunk.subject, chunk.address, this, pool);
+      chunked.put(key, record);
+      received.add(record);
+    }
+    record.chunk(chunk.content, chunk.state);
+    return true;
+  }
+
+  /**
+   * Polls the ring, waiting for the consumer to signal the pipe once the ring is empty.
+   *
+   * @return the next item or null if nothing arrived in time
+   */
+  private Object next(int timeout) {
+    long deadline = System.currentTimeMillis() + timeout;
+    while (true) {
+      Object item = ring.poll();
+      if (item != null) {
+        polled++;
+        return item;
+      }
+      boolean empty = ring.settle(polled);
+      polled = 0;
+      if (!empty) {
+        // An item is being offered
+        Thread.yield();
+        continue;
+      }
+      // Signals of items already polled are left over on the pipe, they only cost going round once more
+      int wait = timeout < 0 ? -1 : (int) Math.max(0, deadline - System.currentTimeMillis());
+      pipe.setReceiveTimeOut(wait);
+      if (pipe.recv() == null) {
+        return null;
+      }
+    }
+  }
+}
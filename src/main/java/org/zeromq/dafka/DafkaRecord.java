@@ -0,0 +1,241 @@
+package org.zeromq.dafka;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+
+/**
+ * <p>A record received from a consumer.</p>
+ *
+ * <p>When the consumer delivers records from a {@link DafkaBufferPool}, the content is the pooled buffer itself.
+ * Releasing the record gives the buffer back, after which its content must not be used anymore.</p>
+ *
+ * <p>A record its producer sent in chunks is received as soon as its first chunk arrives. Reading it through {@link
+ * #channel()} or {@link #stream()} hands over the chunks as they arrive, waiting for the next one when needed, so the
+ * record never has to fit into memory. Its {@link #content()} waits for all of them instead.</p>
+ */
+public final class DafkaRecord {
+
+  private final String subject;
+  private final byte[] address;
+  private final DafkaBufferPool pool;
+  private ByteBuffer content;
+
+  // Chunks received but not read yet, and whether the last one or the end of a truncated record was received
+  private final DafkaReceiver receiver;
+  private final ArrayDeque<ByteBuffer> chunks;
+  private boolean last;
+  private boolean truncated;
+  private boolean undeliverable;
+  private boolean released;
+
+  DafkaRecord(String subject, byte[] address, ByteBuffer content, DafkaBufferPool pool) {
+    this.subject = subject;
+    this.address = address;
+    this.content = content;
+    this.pool = pool;
+    this.receiver = null;
+    this.chunks = null;
+  }
+
+  DafkaRecord(String subject, byte[] address, DafkaReceiver receiver, DafkaBufferPool pool) {
+    this.subject = subject;
+    this.address = address;
+    this.pool = pool;
+    this.receiver = receiver;
+    this.chunks = new ArrayDeque<>();
+  }
+
+  /**
+   * @return the subject of the topic the record was published on
+   */
+  public String subject() {
+    return subject;
+  }
+
+  /**
+   * @return the address of the producer that published the record
+   */
+  public byte[] address() {
+    return address;
+  }
+
+  /**
+   * Returns the content of the record. The content of a record sent in chunks is put together from the chunks not
+   * read through {@link #channel()} yet, waiting for them to arrive, in a buffer of its own, which channels read from
+   * afterwards.
+   *
+   * @return the content of the record between position and limit, null once released, if the chunks of the record
+   * stopped arriving, the record was cut short or could not be decoded
+   */
+  public ByteBuffer content() {
+    if (chunks != null && content == null && !released) {
+      // The channel is not closed, that would release the record
+      ReadableByteChannel channel = new Chunks();
+      try {
+        ByteBuffer assembled = ByteBuffer.allocate(1024);
+        while (channel.read(assembled) >= 0) {
+          if (!assembled.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(assembled.capacity() * 2);
+            assembled.flip();
+            assembled = larger.put(assembled);
+          }
+        }
+        assembled.flip();
+        content = assembled;
+      } catch (IOException exception) {
+        return null;
+      }
+    }
+    return content;
+  }
+
+  /**
+   * @return whether the record was sent in chunks
+   */
+  public boolean chunked() {
+    return chunks != null;
+  }
+
+  /**
+   * Reads the content of the record, a chunk at a time for a record sent in chunks. Reading waits for chunks still to
+   * arrive as long as the consumer.chunk.timeout.ms property says, and fails with an IOException once they stopped
+   * arriving, the record was cut short by its producer restarting, or the consumer could not decode it. Closing
+   * the channel releases the record.
+   *
+   * @return a channel reading the content not read yet
+   */
+  public ReadableByteChannel channel() {
+    return new Chunks();
+  }
+
+  /**
+   * @return a stream reading the content not read yet, like {@link #channel()}
+   */
+  public InputStream stream() {
+    return Channels.newInputStream(channel());
+  }
+
+  /**
+   * Gives the content back to the pool it was delivered from, if any. The chunks of a record sent in chunks not read
+   * yet are dropped, as are those still to arrive.
+   */
+  public void release() {
+    if (chunks == null) {
+      if (pool != null) {
+        pool.release(content);
+      }
+    } else if (!released) {
+      for (ByteBuffer chunk; (chunk = chunks.poll()) != null; ) {
+        release(chunk);
+      }
+    }
+    content = null;
+    released = true;
+  }
+
+  /**
+   * Adds a chunk that arrived.
+   *
+   * @param state Whether more chunks follow, this is the last one, or the record was cut short or undeliverable
+   */
+  void chunk(ByteBuffer chunk, byte state) {
+    if (released || !chunk.hasRemaining()) {
+      release(chunk);
+    } else {
+      chunks.add(chunk);
+    }
+    if (state != DafkaReceiver.MORE) {
+      last = true;
+      truncated = state == DafkaReceiver.TRUNCATED;
+      undeliverable = state == DafkaReceiver.UNDELIVERABLE;
+    }
+  }
+
+  /**
+   * @return the bytes of content received so far and not read yet
+   */
+  int size() {
+    if (chunks == null) {
+      return content == null ? 0 : content.remaining();
+    }
+    int size = 0;
+    for (ByteBuffer chunk : chunks) {
+      size += chunk.remaining();
+    }
+    return size;
+  }
+
+  private void release(ByteBuffer chunk) {
+    if (pool != null) {
+      pool.release(chunk);
+    }
+  }
+
+  /**
+   * Reads the content, or the chunks in the order they arrive, giving every chunk back to the pool once read.
+   */
+  private final class Chunks implements ReadableByteChannel {
+
+    private boolean open = true;
+
+    @Override
+    public int read(ByteBuffer destination) throws IOException {
+      if (!open || released) {
+        throw new ClosedChannelException();
+      }
+      // A record sent in chunks is read from its content once put together
+      ByteBuffer source = content != null ? content : next();
+      if (source == null || !source.hasRemaining()) {
+        return -1;
+      }
+      int length = Math.min(source.remaining(), destination.remaining());
+      ByteBuffer slice = source.duplicate();
+      slice.limit(slice.position() + length);
+      destination.put(slice);
+      source.position(source.position() + length);
+      if (source != content && !source.hasRemaining()) {
+        release(chunks.poll());
+      }
+      return length;
+    }
+
+    /**
+     * @return the chunk to read from, null at the end of the record
+     */
+    private ByteBuffer next() throws IOException {
+      while (chunks.isEmpty()) {
+        if (last) {
+          if (truncated) {
+            throw new IOException("Record was cut short by its producer");
+          }
+          if (undeliverable) {
+            throw new IOException("Record could not be decoded by the consumer");
+          }
+          return null;
+        }
+        if (!receiver.pump()) {
+          throw new IOException("Timed out waiting for the next chunk");
+        }
+      }
+      return chunks.peek();
+    }
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public void close() {
+      if (open) {
+        open = false;
+        release();
+      }
+    }
+  }
+}
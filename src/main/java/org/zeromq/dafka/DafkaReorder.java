@@ -0,0 +1,200 @@
+package org.zeromq.dafka;
+
+import java.util.Arrays;
+
+/**
+ * <p>Messages a consumer received ahead of a gap, held until the gap is filled.</p>
+ *
+ * <p>Every partition with messages held has a ring of slots indexed by sequence, each message going into the slot of
+ * its first sequence. Only messages less than the size of the ring ahead of the next expected sequence are held, so
+ * slots of the same lap never collide, and all partitions together hold no more than a number of content bytes.
+ * Messages that do not fit are dropped and fetched again with the gap. Once the gap is filled, the held messages come
+ * out in order of sequence, those already received meanwhile being dropped.</p>
+ *
+ * <p>Rings are allocated on the first message held and dropped once they are empty, so partitions without gaps cost
+ * nothing. Messages keep the content frames they were received in, which are never written again. The buffer is not
+ * thread safe, it belongs to the consumer actor.</p>
+ */
+class DafkaReorder {
+
+  /**
+   * A message held, a single record or a batch of count records starting at sequence.
+   */
+  static final class Held {
+
+    final long sequence;
+    final long count;
+    final boolean packed;
+    final int codec;
+    final byte[] content;
+
+    private Held(long sequence, long count, boolean packed, int codec, byte[] content) {
+      this.sequence = sequence;
+      this.count = count;
+      this.packed = packed;
+      this.codec = codec;
+      this.content = content;
+    }
+
+    long last() {
+      return sequence + count - 1;
+    }
+  }
+
+  private final int window;
+  private final long maxBytes;
+  private long bytes;
+
+  // Ring, number of messages held, first sequence of the oldest one and last sequence of the latest one, by partition
+  private Held[][] rings = new Held[0][];
+  private int[] counts = new int[0];
+  private long[] oldest = new long[0];
+  private long[] latest = new long[0];
+
+  /**
+   * @param window Sequences ahead of the next expected one a message may start at, rounded up to a power of two, 0
+   * to hold nothing
+   * @param maxBytes Bytes of content held by all partitions at most
+   */
+  DafkaReorder(int window, long maxBytes) {
+    this.window = window <= 0 ? 0 : Integer.highestOneBit(Math.max(2, window) - 1) << 1;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Holds a message received ahead of the next expected sequence of its partition.
+   *
+   * @return false if it is too far ahead or would take too many bytes, and has to be fetched again
+   */
+  boolean hold(int partition, long next, long sequence, long count, boolean packed, int codec, byte[] content) {
+    if (sequence - next >= window || bytes + content.length > maxBytes) {
+      return false;
+    }
+    if (partition >= rings.length) {
+      grow(partition);
+    }
+    Held[] ring = rings[partition];
+    if (ring == null) {
+      ring = new Held[window];
+      rings[partition] = ring;
+      oldest[partition] = sequence;
+      latest[partition] = sequence;
+    }
+
+    int slot = (int) sequence & (window - 1);
+    Held previous = ring[slot];
+    if (previous != null) {
+      if (previous.sequence == sequence && previous.count >= count) {
+        return true;
+      }
+      // A message of the same sequence with fewer records, or one left over from a previous lap
+      remove(partition, ring, slot);
+    }
+    ring[slot] = new Held(sequence, count, packed, codec, content);
+    bytes += content.length;
+    counts[partition]++;
+    oldest[partition] = Math.min(oldest[partition], sequence);
+    latest[partition] = Math.max(latest[partition], sequence + count - 1);
+    return true;
+  }
+
+  /**
+   * @return the last sequence of the message held latest by the partition, or -1 if it holds none
+   */
+  long latest(int partition) {
+    return partition < rings.length && rings[partition] != null ? latest[partition] : -1;
+  }
+
+  /**
+   * Takes the message holding the next expected sequence of the partition, dropping those received meanwhile.
+   *
+   * @return the message or null if the next sequence is not held
+   */
+  Held take(int partition, long next) {
+    if (partition >= rings.length || rings[partition] == null) {
+      return null;
+    }
+    Held[] ring = rings[partition];
+    int mask = window - 1;
+    while (counts[partition] > 0) {
+      long sequence = oldest[partition];
+      if (sequence > next) {
+        return null;
+      }
+      if (next - sequence > mask) {
+        // The partition went ahead by more than a lap, the slots no longer follow the sequences
+        Held held = sweep(partition, ring, next);
+        if (held != null) {
+          release(partition);
+          return held;
+        }
+        continue;
+      }
+      int slot = (int) sequence & mask;
+      Held held = ring[slot];
+      oldest[partition] = sequence + 1;
+      if (held == null || held.sequence != sequence) {
+        continue;
+      }
+      remove(partition, ring, slot);
+      if (held.last() >= next) {
+        release(partition);
+        return held;
+      }
+    }
+    release(partition);
+    return null;
+  }
+
+  /**
+   * Drops the messages of the partition received meanwhile and finds its oldest message again.
+   *
+   * @return the message holding the next sequence, taken, or null if none
+   */
+  private Held sweep(int partition, Held[] ring, long next) {
+    Held found = null;
+    long sequence = Long.MAX_VALUE;
+    for (int slot = 0; slot < ring.length; slot++) {
+      Held held = ring[slot];
+      if (held != null) {
+        if (held.last() < next) {
+          remove(partition, ring, slot);
+        } else if (held.sequence <= next && found == null) {
+          remove(partition, ring, slot);
+          found = held;
+        } else {
+          sequence = Math.min(sequence, held.sequence);
+        }
+      }
+    }
+    oldest[partition] = sequence;
+    return found;
+  }
+
+  private void remove(int partition, Held[] ring, int slot) {
+    bytes -= ring[slot].content.length;
+    ring[slot] = null;
+    counts[partition]--;
+  }
+
+  private void release(int partition) {
+    if (counts[partition] == 0) {
+      rings[partition] = null;
+    }
+  }
+
+  private void grow(int partition) {
+    int capacity = Math.max(64, partition * 2);
+    rings = Arrays.copyOf(rings, capacity);
+    counts = Arrays.copyOf(counts, capacity);
+    oldest = Arrays.copyOf(oldest, capacity);
+    latest = Arrays.copyOf(latest, capacity);
+  }
+
+  /**
+   * @return the bytes of content held by all partitions
+   */
+  long bytes() {
+    return bytes;
+  }
+}
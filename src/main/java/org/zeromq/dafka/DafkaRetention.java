@@ -0,0 +1,178 @@
+package org.zeromq.dafka;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>Ring of the messages a producer sent most recently, so it can answer FETCH itself.</p>
+ *
+ * <p>The content of every MSG and MSG_BATCH is copied into a byte ring allocated once, entries describing them go
+ * into a ring of preallocated slots. A new message overwrites the oldest ones until its content fits, so the ring
+ * keeps the newest contiguous run of sequences, without allocating anything per message. Content larger than the
+ * whole ring is not retained.</p>
+ *
+ * <p>Entries are addressed by their position from the oldest one, which is valid until the next message is added.
+ * The ring is not thread safe, it belongs to the producer actor.</p>
+ */
+class DafkaRetention {
+
+  private final byte[] data;
+  private final long[] sequences;
+  private final int[] counts;
+  private final int[] offsets;
+  private final int[] lengths;
+  private final byte[] codecs;
+  private final boolean[] packed;
+
+  private int head;
+  private int oldest;
+  private int size;
+
+  /**
+   * @param bytes Bytes of content retained
+   * @param messages Number of messages retained
+   */
+  DafkaRetention(int bytes, int messages) {
+    this.data = new byte[bytes];
+    this.sequences = new long[messages];
+    this.counts = new int[messages];
+    this.offsets = new int[messages];
+    this.lengths = new int[messages];
+    this.codecs = new byte[messages];
+    this.packed = new boolean[messages];
+  }
+
+  /**
+   * Retains a sent message, the first of its records having the sequence.
+   *
+   * @param packed Whether the content packs count records as a MSG_BATCH
+   */
+  void add(long sequence, int count, boolean packed, int codec, byte[] content, int offset, int length) {
+    int at = reserve(length);
+    if (at >= 0) {
+      System.arraycopy(content, offset, data, at, length);
+      put(sequence, count, packed, codec, at, length);
+    }
+  }
+
+  /**
+   * Retains a sent message with the remaining bytes of the content, which may be direct.
+   */
+  void add(long sequence, int count, boolean packed, int codec, ByteBuffer content) {
+    int length = content.remaining();
+    int at = reserve(length);
+    if (at >= 0) {
+      content.duplicate().get(data, at, length);
+      put(sequence, count, packed, codec, at, length);
+    }
+  }
+
+  /**
+   * Makes room for the content after the last message, wrapping to the start of the ring when it does not fit before
+   * the end, and drops the oldest messages it overlaps.
+   *
+   * @return the offset of the content or -1 if it is larger than the ring
+   */
+  private int reserve(int length) {
+    if (length > data.length) {
+      return -1;
+    }
+    if (size == sequences.length) {
+      drop();
+    }
+    int at = head;
+    if (at + length > data.length) {
+      // Messages of the previous lap after the head are the oldest ones, and the end of the ring stays unused
+      while (size > 0 && offsets[oldest] >= head) {
+        drop();
+      }
+      at = 0;
+    }
+    while (size > 0 && offsets[oldest] >= at && offsets[oldest] < at + length) {
+      drop();
+    }
+    head = at + length;
+    return at;
+  }
+
+  private void put(long sequence, int count, boolean packed, int codec, int at, int length) {
+    int slot = slot(size++);
+    sequences[slot] = sequence;
+    counts[slot] = count;
+    offsets[slot] = at;
+    lengths[slot] = length;
+    codecs[slot] = (byte) codec;
+    this.packed[slot] = packed;
+  }
+
+  private void drop() {
+    oldest = (oldest + 1) % sequences.length;
+    size--;
+  }
+
+  private int slot(int entry) {
+    return (oldest + entry) % sequences.length;
+  }
+
+  /**
+   * @return the entry of the message holding the sequence or -1 if it is not retained
+   */
+  int find(long sequence) {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int slot = slot(middle);
+      if (sequence < sequences[slot]) {
+        high = middle - 1;
+      } else if (sequence >= sequences[slot] + counts[slot]) {
+        low = middle + 1;
+      } else {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the entry following the entry without a gap in sequences or -1 if there is none
+   */
+  int next(int entry) {
+    if (entry + 1 >= size) {
+      return -1;
+    }
+    int slot = slot(entry);
+    return sequences[slot(entry + 1)] == sequences[slot] + counts[slot] ? entry + 1 : -1;
+  }
+
+  long sequence(int entry) {
+    return sequences[slot(entry)];
+  }
+
+  int count(int entry) {
+    return counts[slot(entry)];
+  }
+
+  boolean packed(int entry) {
+    return packed[slot(entry)];
+  }
+
+  int codec(int entry) {
+    return codecs[slot(entry)] & 0xff;
+  }
+
+  /**
+   * @return a copy of the content of the entry, which outlives the ring overwriting it
+   */
+  byte[] content(int entry) {
+    int slot = slot(entry);
+    return Arrays.copyOfRange(data, offsets[slot], offsets[slot] + lengths[slot]);
+  }
+
+  /**
+   * @return the number of messages retained
+   */
+  int size() {
+    return size;
+  }
+}
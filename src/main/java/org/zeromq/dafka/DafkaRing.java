@@ -0,0 +1,105 @@
+package org.zeromq.dafka;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Bounded lock-free ring many threads offer items to and one thread polls them from.</p>
+ *
+ * <p>Every slot has a sequence telling whether it is free for the lap of the tail or filled for the lap of the head.
+ * Producers claim a slot with a compare-and-set on the tail, fill it and publish it through its sequence, so they never
+ * wait for each other beyond the claim. The consumer polls the head without any atomic update but a release of the
+ * slot.</p>
+ *
+ * <p>The ring also counts the items offered but not polled yet, so the one making the ring non-empty knows it has to
+ * wake the consumer up. The consumer settles the items it polled once it runs out of them, and is woken up again by
+ * the next offer only if nothing was left.</p>
+ */
+class DafkaRing<T> {
+
+  private final int mask;
+  private final Object[] items;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong pending = new AtomicLong();
+  private long head;
+
+  /**
+   * @param capacity Number of items the ring holds, rounded up to a power of two
+   */
+  DafkaRing(int capacity) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+    this.mask = size - 1;
+    this.items = new Object[size];
+    this.sequences = new AtomicLongArray(size);
+    for (int slot = 0; slot < size; slot++) {
+      sequences.set(slot, slot);
+    }
+  }
+
+  /**
+   * Offers an item, from any thread.
+   *
+   * @return -1 if the ring is full, 1 if the ring was empty and the consumer has to be woken up, 0 otherwise
+   */
+  int offer(T item) {
+    long position = tail.get();
+    int slot;
+    while (true) {
+      slot = (int) position & mask;
+      long distance = sequences.get(slot) - position;
+      if (distance == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          break;
+        }
+        position = tail.get();
+      } else if (distance < 0) {
+        // The slot still holds the item of the previous lap
+        return -1;
+      } else {
+        position = tail.get();
+      }
+    }
+    items[slot] = item;
+    sequences.lazySet(slot, position + 1);
+    return pending.getAndIncrement() == 0 ? 1 : 0;
+  }
+
+  /**
+   * Polls the oldest item, from the consumer thread only.
+   *
+   * @return the item or null if there is none, or the oldest one is still being offered
+   */
+  @SuppressWarnings("unchecked")
+  T poll() {
+    int slot = (int) head & mask;
+    if (sequences.get(slot) != head + 1) {
+      return null;
+    }
+    T item = (T) items[slot];
+    items[slot] = null;
+    sequences.lazySet(slot, head + mask + 1);
+    head++;
+    return item;
+  }
+
+  /**
+   * Settles the items polled since the last time, from the consumer thread only.
+   *
+   * @return true if no item is left, the next offer waking the consumer up
+   */
+  boolean settle(int polled) {
+    return pending.addAndGet(-polled) <= 0;
+  }
+
+  /**
+   * @return the number of items offered but not settled yet
+   */
+  long size() {
+    return Math.max(0, pending.get());
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+}
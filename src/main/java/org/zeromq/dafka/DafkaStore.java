@@ -12,18 +12,25 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.config.Configurator;
 import org.fusesource.leveldbjni.JniDBFactory;
 import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBIterator;
 import org.iq80.leveldb.Options;
+import org.zeromq.SocketType;
 import org.zeromq.ZActor;
 import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZPoller;
+import org.zproto.DafkaProto;
+import org.zproto.DafkaProtoTemplate;
+import org.zproto.DafkaProtoView;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.UUID;
 
 import static org.zeromq.ZActor.SimpleActor;
 
@@ -31,8 +38,26 @@ public class DafkaStore extends SimpleActor
 {
     private static final Logger log = LogManager.getLogger(DafkaStore.class);
 
+    // Stored entries start with whether their content is packed, its codec and its number of records
+    private static final int ENTRY_HEADER = 6;
+
     private DafkaBeacon beacon;
-    private ZActor beaconActor;
+    private ZActor      beaconActor;
+
+    private Socket storeSub;
+    private Socket storePub;
+    private byte[] storeAddress;
+    private DB     db;
+
+    private final DafkaProtoView  view;
+    private final DafkaPartitions partitions;
+
+    public DafkaStore()
+    {
+        this.beacon = new DafkaBeacon();
+        this.view = new DafkaProtoView();
+        this.partitions = new DafkaPartitions();
+    }
 
     @Override
     public List<Socket> createSockets(ZContext ctx, Object... args)
@@ -40,16 +65,43 @@ public class DafkaStore extends SimpleActor
         Properties properties = (Properties) args[0];
         String dbPath = properties.getProperty("store.db");
 
-        this.beaconActor = new ZActor(ctx, this.beacon, null, args[1]);
+        try {
+            Options options = new Options();
+            options.createIfMissing(true);
+            this.db = JniDBFactory.factory.open(new File(dbPath), options);
+        }
+        catch (IOException exception) {
+            throw new IllegalStateException("Failed to open store " + dbPath, exception);
+        }
+
+        this.beaconActor = new ZActor(ctx, this.beacon, null, args);
         this.beaconActor.recv(); // Wait for signal that beacon is connected to tower
 
-        // HINT: Don't forget to return your sockets here otherwise they won't get passed as parameter into the start() method
-        return Arrays.asList();
+        this.storeSub = ctx.createSocket(SocketType.SUB);
+        this.storePub = ctx.createSocket(SocketType.PUB);
+        return Arrays.asList(beaconActor.pipe(), storeSub, storePub);
     }
 
     @Override
     public void start(Socket pipe, List<Socket> sockets, ZPoller poller)
     {
+        storeAddress = DafkaAddress.random();
+        loadPartitions();
+
+        int publisherSocketPort = storePub.bindToRandomPort("tcp://*");
+        beacon.start(beaconActor, storeAddress, publisherSocketPort);
+        poller.register(beaconActor.pipe(), ZPoller.IN);
+
+        // Store every partition and answer everyone asking for it
+        DafkaProto.subscribe(storeSub, DafkaProto.MSG, "");
+        DafkaProto.subscribe(storeSub, DafkaProto.MSG_BATCH, "");
+        DafkaProto.subscribe(storeSub, DafkaProto.HEAD, "");
+        DafkaProto.subscribe(storeSub, DafkaProto.FETCH, "");
+        DafkaProto.subscribe(storeSub, DafkaProto.GET_HEADS, "");
+        DafkaProto.subscribe(storeSub, DafkaProto.DIRECT_MSG, storeAddress);
+        DafkaProto.subscribe(storeSub, DafkaProto.DIRECT_MSG_BATCH, storeAddress);
+        poller.register(storeSub, ZPoller.IN);
+
         pipe.send(new byte[] { 0 });
         log.info("Store started...");
     }
@@ -58,6 +110,12 @@ public class DafkaStore extends SimpleActor
     public boolean finished(Socket pipe)
     {
         beacon.terminate(beaconActor);
+        try {
+            db.close();
+        }
+        catch (IOException exception) {
+            log.error("Failed to close store", exception);
+        }
         log.info("Store stopped!");
         return super.finished(pipe);
     }
@@ -65,29 +123,271 @@ public class DafkaStore extends SimpleActor
     @Override
     public boolean stage(Socket socket, Socket pipe, ZPoller poller, int events)
     {
-        // HINT: This is the place where you get notified about new messages on sockets registered with the poller.
-
-        // HINT: It is useful to log the incoming message ;)
-
         if (socket.equals(beaconActor.pipe())) {
             String command = socket.recvStr();
             String address = socket.recvStr();
 
             if ("CONNECT".equals(command)) {
                 log.info("Connecting to {}", address);
-                // TODO: Connect your subscriber(s) socket to the discovered peer's address
+                storeSub.connect(address);
             } else if ("DISCONNECT".equals(command)) {
                 log.info("Disconnecting from {}", address);
-                // TODO: Disconnect your subscriber(s) socket from the vanished peer's address
+                storeSub.disconnect(address);
             } else {
                 log.error("Transport: Unknown command {}", command);
                 System.exit(1);
             }
         }
+        else if (socket.equals(storeSub)) {
+            if (!view.recv(storeSub)) {
+                log.warn("Dropping malformed message");
+                return true;
+            }
+
+            switch (view.id()) {
+            case DafkaProto.MSG:
+            case DafkaProto.DIRECT_MSG:
+                handleMsg(false, 1);
+                break;
+            case DafkaProto.MSG_BATCH:
+            case DafkaProto.DIRECT_MSG_BATCH:
+                handleMsg(true, view.count());
+                break;
+            case DafkaProto.HEAD:
+                handleHead();
+                break;
+            case DafkaProto.FETCH:
+                handleFetch();
+                break;
+            case DafkaProto.GET_HEADS:
+                handleGetHeads();
+                break;
+            default:
+                log.debug("Ignoring message {}", view.id());
+            }
+        }
 
         return true;
     }
 
+    /**
+     * Stores the records of the received message or batch as they are, compressed or not, if they continue their
+     * partition and acknowledges the last one. Otherwise asks for the missing ones, records that are stored already
+     * are dropped.
+     */
+    private void handleMsg(boolean packed, long count)
+    {
+        long sequence = view.sequence();
+        if (count == 0) {
+            return;
+        }
+
+        int partition = partitions.lookup(view);
+        if (partition < 0) {
+            partition = partitions.add(view.subject(), view.address(), 0);
+        }
+
+        long nextSequence = partitions.nextSequence(partition);
+        long last = sequence + count - 1;
+        if (sequence > nextSequence) {
+            sendFetch(partition, last - nextSequence + 1);
+        }
+        else if (last >= nextSequence) {
+            db.put(key(partitions.subjectData(partition), partitions.address(partition), last),
+                    entry(packed, view.codec(), count, view.content()));
+            partitions.nextSequence(partition, last + 1);
+            sendAck(partition, last);
+        }
+    }
+
+    private void handleHead()
+    {
+        long sequence = view.sequence();
+        int partition = partitions.lookup(view);
+        if (partition < 0) {
+            partition = partitions.add(view.subject(), view.address(), 0);
+        }
+
+        long nextSequence = partitions.nextSequence(partition);
+        if (sequence >= nextSequence) {
+            sendFetch(partition, sequence - nextSequence + 1);
+        }
+    }
+
+    /**
+     * Answers a fetch with as many of the requested messages as are stored, the fetch's topic being the partition's
+     * address. Every stored entry is sent back as the direct message or direct batch it was received as, without
+     * decompressing it, so the answer may start before the requested sequence.
+     */
+    private void handleFetch()
+    {
+        String subject = view.subject();
+        byte[] address = view.topicData();
+        byte[] consumer = view.address();
+        long sequence = view.sequence();
+        long last = sequence + view.count() - 1;
+
+        byte[] first = key(subject.getBytes(ZMQ.CHARSET), address, sequence);
+        int prefix = first.length - 8;
+        DafkaProtoTemplate msgReply = null;
+        DafkaProtoTemplate batchReply = null;
+        try (DBIterator iterator = db.iterator()) {
+            // Entries are keyed by their last sequence, so the first one at or after the requested sequence holds it
+            for (iterator.seek(first); iterator.hasNext() && sequence <= last; ) {
+                Map.Entry<byte[], byte[]> entry = iterator.next();
+                byte[] key = entry.getKey();
+                if (!samePartition(first, key, prefix)) {
+                    break;
+                }
+
+                byte[] value = entry.getValue();
+                long count = ByteBuffer.wrap(value, 2, 4).getInt() & 0xffffffffL;
+                long entryLast = ByteBuffer.wrap(key, prefix, 8).getLong();
+                if (entryLast - count + 1 > sequence) {
+                    break;
+                }
+
+                if (value[0] != 0) {
+                    if (batchReply == null) {
+                        batchReply = new DafkaProtoTemplate(DafkaProto.DIRECT_MSG_BATCH, consumer, subject, address);
+                    }
+                    batchReply.setCodec(value[1] & 0xff);
+                    batchReply.send(storePub, entryLast - count + 1, count, value, ENTRY_HEADER,
+                            value.length - ENTRY_HEADER);
+                }
+                else {
+                    if (msgReply == null) {
+                        msgReply = new DafkaProtoTemplate(DafkaProto.DIRECT_MSG, consumer, subject, address);
+                    }
+                    msgReply.setCodec(value[1] & 0xff);
+                    // Values are fresh arrays never written again, so they are sent without copying
+                    msgReply.send(storePub, entryLast, ByteBuffer.wrap(value, ENTRY_HEADER,
+                            value.length - ENTRY_HEADER));
+                }
+                sequence = entryLast + 1;
+            }
+        }
+        catch (IOException exception) {
+            log.error("Failed to read store", exception);
+        }
+    }
+
+    /**
+     * Answers with the head of every stored partition of the requested subject, which is the topic of the request.
+     */
+    private void handleGetHeads()
+    {
+        String subject = view.topic();
+        byte[] consumer = view.address();
+
+        for (int partition = 0; partition < partitions.size(); partition++) {
+            if (partitions.nextSequence(partition) > 0 && partitions.subject(partition).equals(subject)) {
+                DafkaProto head = new DafkaProto(DafkaProto.DIRECT_HEAD);
+                head.setTopic(consumer);
+                head.setSubject("%s", subject);
+                head.setAddress(partitions.address(partition));
+                head.setSequence(partitions.nextSequence(partition) - 1);
+                head.send(storePub);
+            }
+        }
+    }
+
+    private void sendAck(int partition, long sequence)
+    {
+        DafkaProto ack = new DafkaProto(DafkaProto.ACK);
+        ack.setTopic(partitions.address(partition));
+        ack.setSubject("%s", partitions.subject(partition));
+        ack.setSequence(sequence);
+        ack.setAddress(storeAddress);
+        ack.send(storePub);
+    }
+
+    private void sendFetch(int partition, long count)
+    {
+        DafkaProto fetch = new DafkaProto(DafkaProto.FETCH);
+        fetch.setTopic(partitions.address(partition));
+        fetch.setSubject("%s", partitions.subject(partition));
+        fetch.setSequence(partitions.nextSequence(partition));
+        fetch.setCount(Math.min(count, 0xffffffffL));
+        fetch.setAddress(storeAddress);
+        fetch.send(storePub);
+    }
+
+    /**
+     * Restores the head of every partition from the stored keys, so a restarted store continues where it stopped.
+     */
+    private void loadPartitions()
+    {
+        try (DBIterator iterator = db.iterator()) {
+            for (iterator.seekToFirst(); iterator.hasNext(); ) {
+                ByteBuffer key = ByteBuffer.wrap(iterator.next().getKey());
+                String subject = getString(key);
+                byte[] address = new byte[DafkaAddress.SIZE];
+                key.get(address);
+                long sequence = key.getLong();
+
+                int partition = partitions.lookup(subject, address);
+                if (partition < 0) {
+                    partition = partitions.add(subject, address, 0);
+                }
+                partitions.nextSequence(partition, sequence + 1);
+            }
+        }
+        catch (IOException exception) {
+            log.error("Failed to load partitions", exception);
+        }
+        log.info("Loaded {} partitions", partitions.size());
+    }
+
+    /**
+     * Messages are stored in entries of one or more records, as they were received. Entries are keyed by subject,
+     * address and the sequence of their last record. The subject is length prefixed, the address has a fixed size and
+     * the sequence is big endian, so the entries of a partition are stored in order next to each other.
+     */
+    private static byte[] key(byte[] subject, byte[] address, long sequence)
+    {
+        ByteBuffer key = ByteBuffer.allocate(1 + subject.length + address.length + 8);
+        key.put((byte) subject.length);
+        key.put(subject);
+        key.put(address);
+        key.putLong(sequence);
+        return key.array();
+    }
+
+    /**
+     * Entries hold whether the content is packed records of a batch or the single record of a message, the codec, the
+     * number of records and the content.
+     */
+    private static byte[] entry(boolean packed, int codec, long count, byte[] content)
+    {
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER + content.length);
+        entry.put((byte) (packed ? 1 : 0));
+        entry.put((byte) codec);
+        entry.putInt((int) count);
+        entry.put(content);
+        return entry.array();
+    }
+
+    private static boolean samePartition(byte[] key, byte[] other, int prefix)
+    {
+        if (other.length != key.length) {
+            return false;
+        }
+        for (int index = 0; index < prefix; index++) {
+            if (key[index] != other[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getString(ByteBuffer key)
+    {
+        byte[] value = new byte[key.get() & 0xff];
+        key.get(value);
+        return new String(value, ZMQ.CHARSET);
+    }
+
     @Override
     public boolean backstage(Socket pipe, ZPoller poller, int events)
     {
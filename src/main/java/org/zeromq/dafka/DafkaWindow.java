@@ -0,0 +1,166 @@
+package org.zeromq.dafka;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Window of the records a producer published that no store acknowledged yet.</p>
+ *
+ * <p>The window limits the number and the bytes of these records, so a fast producer cannot run past its PUB socket's
+ * high-water mark, where ZeroMQ drops messages and consumers have to fetch them. Publishing takes room in the window,
+ * acknowledgements give it back. A full window blocks, fails or sheds the record, depending on its policy. A limit of
+ * zero means no limit. A record larger than the byte limit is let in when the window is empty.</p>
+ *
+ * <p>Publishing threads take room with atomic counters, only those that have to wait for room take a lock.</p>
+ */
+public final class DafkaWindow {
+
+  /**
+   * What publishing a record does when the window is full.
+   */
+  public enum Policy {
+    // Wait until acknowledgements make room
+    BLOCK,
+    // Throw an IllegalStateException
+    FAIL,
+    // Drop the record, its future completing exceptionally
+    SHED
+  }
+
+  private final long maxMessages;
+  private final long maxBytes;
+  private final Policy policy;
+
+  private final AtomicLong messages = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong shed = new AtomicLong();
+  private final AtomicInteger waiters = new AtomicInteger();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notFull = lock.newCondition();
+  private volatile boolean closed;
+
+  public DafkaWindow(long maxMessages, long maxBytes, Policy policy) {
+    this.maxMessages = maxMessages;
+    this.maxBytes = maxBytes;
+    this.policy = policy;
+  }
+
+  /**
+   * Takes room for a record.
+   *
+   * @return false if the record is to be shed
+   * @throws IllegalStateException if the window is full and fails fast, or closed
+   */
+  boolean acquire(long size) {
+    if (closed) {
+      throw new IllegalStateException("Producer terminated");
+    }
+    if (tryAcquire(size)) {
+      return true;
+    }
+
+    switch (policy) {
+      case FAIL:
+        throw new IllegalStateException("Producer window is full");
+      case SHED:
+        shed.incrementAndGet();
+        return false;
+      default:
+        lock.lock();
+        waiters.incrementAndGet();
+        try {
+          while (!tryAcquire(size)) {
+            if (closed) {
+              throw new IllegalStateException("Producer terminated");
+            }
+            notFull.awaitUninterruptibly();
+          }
+          return true;
+        } finally {
+          waiters.decrementAndGet();
+          lock.unlock();
+        }
+    }
+  }
+
+  private boolean tryAcquire(long size) {
+    long inflight = messages.incrementAndGet();
+    long inflightBytes = bytes.addAndGet(size);
+    if ((maxMessages == 0 || inflight <= maxMessages)
+        && (maxBytes == 0 || inflightBytes <= maxBytes || inflight == 1)) {
+      return true;
+    }
+    // Taking the room back may let in a publisher that counted it as taken meanwhile
+    release(1, size);
+    return false;
+  }
+
+  /**
+   * Gives back the room of acknowledged records.
+   */
+  void release(long count, long size) {
+    messages.addAndGet(-count);
+    bytes.addAndGet(-size);
+    if (waiters.get() > 0) {
+      signal();
+    }
+  }
+
+  /**
+   * Wakes up every blocked publisher, which fails from now on.
+   */
+  void close() {
+    closed = true;
+    signal();
+  }
+
+  private void signal() {
+    lock.lock();
+    try {
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of records not acknowledged yet
+   */
+  public long messages() {
+    return messages.get();
+  }
+
+  /**
+   * @return the bytes of the records not acknowledged yet
+   */
+  public long bytes() {
+    return bytes.get();
+  }
+
+  /**
+   * @return the number of records shed because the window was full
+   */
+  public long shed() {
+    return shed.get();
+  }
+
+  public long maxMessages() {
+    return maxMessages;
+  }
+
+  public long maxBytes() {
+    return maxBytes;
+  }
+
+  public Policy policy() {
+    return policy;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("window messages=%d/%d bytes=%d/%d shed=%d", messages(), maxMessages, bytes(), maxBytes,
+        shed());
+  }
+}
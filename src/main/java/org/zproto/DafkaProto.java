@@ -17,16 +17,44 @@
 
     MSG - Message from producer to consumers.
 The topic is either the subject or recipient address.
+The low 6 bits of the codec tell how the content is compressed, 0
+being none. Its two high bits flag a chunk of a record too large for
+one message: 0x80 when the record goes on in the next sequence, 0x40
+when it goes on from the previous one.
         subject             string
-        address             string
+        address             octets [16]
         sequence            number 8
+        codec               number 1
         content             frame
 
     DIRECT_MSG - Direct message from producer to consumer.
 The topic is the recipient address.
+The codec and its chunk flags are those of MSG.
         subject             string
-        address             string
+        address             octets [16]
         sequence            number 8
+        codec               number 1
+        content             frame
+
+    MSG_BATCH - Batch of messages from producer to consumers.
+The topic is the subject. The content packs count records, each with a
+4-byte length, whose sequences start at sequence. The codec applies to
+the packed records as a whole. An empty content holds no records, a
+restarted producer sends it for the count sequences it skipped.
+        subject             string
+        address             octets [16]
+        sequence            number 8
+        count               number 4
+        codec               number 1
+        content             frame
+
+    DIRECT_MSG_BATCH - Direct batch of messages to a consumer or store.
+The topic is the recipient address.
+        subject             string
+        address             octets [16]
+        sequence            number 8
+        count               number 4
+        codec               number 1
         content             frame
 
     FETCH - Consumer publish the message when a message is missing.
@@ -35,38 +63,42 @@ Either the producer or a store daemon can answer.
         subject             string
         sequence            number 8
         count               number 4
-        address             string
+        address             octets [16]
 
     ACK - Ack from a store daemon to a producer.
 Topic is the address of the producer.
+Address is the address of the store, so the producer can tell
+how many stores stored the message.
         subject             string
         sequence            number 8
+        address             octets [16]
 
     HEAD -
         subject             string
-        address             string
+        address             octets [16]
         sequence            number 8
 
     DIRECT_HEAD -
         subject             string
-        address             string
+        address             octets [16]
         sequence            number 8
 
     GET_HEADS -
-        address             string
+        address             octets [16]
 
     CONSUMER_HELLO -
-        address             string
+        address             octets [16]
         subjects            strings
 
     STORE_HELLO -
-        address             string
+        address             octets [16]
 */
 
 package org.zproto;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import org.zeromq.SocketType;
@@ -75,11 +107,15 @@ import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZMsg;
 
+import zmq.Msg;
+
 public class DafkaProto implements java.lang.AutoCloseable
 {
 
     public static final char MSG                  = 'M';
     public static final char DIRECT_MSG           = 'D';
+    public static final char MSG_BATCH            = 'B';
+    public static final char DIRECT_MSG_BATCH     = 'C';
     public static final char FETCH                = 'F';
     public static final char ACK                  = 'K';
     public static final char HEAD                 = 'H';
@@ -91,15 +127,17 @@ public class DafkaProto implements java.lang.AutoCloseable
     //  Structure of our class
     private ZFrame routingId;           // Routing_id from ROUTER, if any
     private char id;                    //  DafkaProto message ID
-    private String topic;               //  Topic to send and receive over pub/sub
+    private byte [] topic;              //  Topic to send and receive over pub/sub
     private boolean isSubscribe;       //  Indicate if it is a subscribe or unsubscribe command
     private ByteBuffer needle;          //  Read/write pointer for serialization
+    private byte [] buffer;             //  Receive buffer kept across recv calls
 
     private String subject;
-    private String address;
+    private byte [] address;
     private long sequence;
     private ZFrame content;
     private long count;
+    private int codec;
     private List <String> subjects;
 
     public DafkaProto(char id)
@@ -233,6 +271,52 @@ public class DafkaProto implements java.lang.AutoCloseable
 
         return new String (value, ZMQ.CHARSET);
     }
+
+    //  Get a string from the frame, returning previous instead of a new
+    //  string if it holds the same ASCII text
+    private String getString (String previous)
+    {
+        int size = needle.get () & 0xff;
+        if (previous != null && previous.length () == size) {
+            int offset = needle.position ();
+            int index = 0;
+            while (index < size && needle.get (offset + index) == previous.charAt (index))
+                index++;
+            if (index == size) {
+                needle.position (offset + size);
+                return previous;
+            }
+        }
+        byte [] value = new byte [size];
+        needle.get (value);
+
+        return new String (value, ZMQ.CHARSET);
+    }
+
+    //  Get the pub/sub topic up to the end offset from the frame, returning
+    //  previous instead of a new array if it holds the same bytes
+    private byte [] getTopic (byte [] previous, int end)
+    {
+        return getBlock (previous, end - needle.position ());
+    }
+
+    //  Get a block from the frame, returning previous instead of a new array
+    //  if it holds the same bytes
+    private byte [] getBlock (byte [] previous, int size)
+    {
+        if (previous != null && previous.length == size) {
+            int offset = needle.position ();
+            int index = 0;
+            while (index < size && needle.get (offset + index) == previous [index])
+                index++;
+            if (index == size) {
+                needle.position (offset + size);
+                return previous;
+            }
+        }
+        return getBlock (size);
+    }
+
     //  --------------------------------------------------------------------------
     //  Receive and parse a DafkaProto from the socket. Returns new object or
     //  null if error. Will block if there's no message waiting.
@@ -248,7 +332,7 @@ public class DafkaProto implements java.lang.AutoCloseable
             //  garbage data we might receive from badly-connected peers
             while (true) {
                 //  If we're reading from a ROUTER socket, get routingId
-                if (input.getType () == ZMQ.ROUTER) {
+                if (input.getType () == SocketType.ROUTER.type ()) {
                     self.routingId = ZFrame.recvFrame (input);
                     if (self.routingId == null)
                         return null;         //  Interrupted
@@ -268,119 +352,88 @@ public class DafkaProto implements java.lang.AutoCloseable
                 break;
             }
 
-            if (input.getSocketType().equals(SocketType.XPUB)) {
-                byte isSubscribe = self.getNumber1 ();
-                self.isSubscribe = isSubscribe == 1;
-                self.id = (char) self.getNumber1 ();
-                if (self.needle.hasRemaining()) {
-                    final StringBuilder topicBuilder = new StringBuilder();
-                    char next = (char) self.needle.get();
-                    while (self.needle.hasRemaining()) {
-                        topicBuilder.append(next);
-                        next = (char) self.needle.get();
-                    }
-                    self.topic = topicBuilder.toString();
-                }
-                return self;
-            }
-
-            //  Get message id, which is first byte in frame
-            self.id = (char) self.getNumber1 ();
-            final StringBuilder topicBuilder = new StringBuilder();
-            char next = (char) self.needle.get();
-            while ('\0' != next) {
-                topicBuilder.append(next);
-                next = (char) self.needle.get();
-            }
-            self.topic = topicBuilder.toString();
-            int listSize;
-            int hashSize;
-
-            switch (self.id) {
-            case MSG:
-                {
-                self.subject = self.getString ();
-                self.address = self.getString ();
-                self.sequence = self.getNumber8 ();
-                //  Get next frame, leave current untouched
-                if (!input.hasReceiveMore ())
-                    throw new IllegalArgumentException ();
-                self.content = ZFrame.recvFrame (input);
-                }
-                break;
+            self.decode (input, null, false);
+            return self;
 
-            case DIRECT_MSG:
-                {
-                self.subject = self.getString ();
-                self.address = self.getString ();
-                self.sequence = self.getNumber8 ();
-                //  Get next frame, leave current untouched
-                if (!input.hasReceiveMore ())
-                    throw new IllegalArgumentException ();
-                self.content = ZFrame.recvFrame (input);
-                }
-                break;
+        } catch (Exception e) {
+            //  Error returns
+            System.out.printf ("E: malformed message '%c'\n", self.id);
+            self.destroy ();
+            return null;
+        } finally {
+            if (frame != null)
+                frame.destroy ();
+        }
+    }
 
-            case FETCH:
-                {
-                self.subject = self.getString ();
-                self.sequence = self.getNumber8 ();
-                self.count = self.getNumber4 ();
-                self.address = self.getString ();
-                }
-                break;
+    //  --------------------------------------------------------------------------
+    //  Receive and parse a DafkaProto from the socket into an existing object.
+    //  The object keeps its receive buffer, routing id and content frames and
+    //  any string field whose value did not change, so a caller that reuses
+    //  one object per socket allocates nothing per message in steady state.
+    //  The content frame is only valid until the next call. Returns false if
+    //  error. Will block if there's no message waiting.
+
+    public static boolean recv (Socket input, DafkaProto self)
+    {
+        assert (input != null);
+        assert (self != null);
 
-            case ACK:
-                {
-                self.subject = self.getString ();
-                self.sequence = self.getNumber8 ();
-                }
-                break;
+        try {
+            //  If we're reading from a ROUTER socket, get routingId
+            if (input.getType () == SocketType.ROUTER.type ()) {
+                Msg routingId = input.base ().recv (0);
+                if (routingId == null)
+                    return false;            //  Interrupted
+                if (routingId.size () == 0)
+                    return false;            //  Empty Frame (eg recv-timeout)
+                if (!routingId.hasMore ())
+                    throw new IllegalArgumentException ();
+                if (self.routingId == null)
+                    self.routingId = new ZFrame (routingId.data ());
+                else
+                    self.routingId.reset (routingId.data ());
+            }
+            //  Read command frame into our receive buffer, which only grows
+            Msg frame = input.base ().recv (0);
+            if (frame == null)
+                return false;                //  Interrupted
+            int size = frame.size ();
+            if (self.buffer == null || self.buffer.length < size) {
+                self.buffer = new byte [Math.max (size, 256)];
+                self.needle = ByteBuffer.wrap (self.buffer);
+            }
+            frame.getBytes (0, self.buffer, 0, size);
+            self.needle.clear ();
+            self.needle.limit (size);
 
-            case HEAD:
-                {
-                self.subject = self.getString ();
-                self.address = self.getString ();
-                self.sequence = self.getNumber8 ();
-                }
-                break;
+            self.decode (input, null, true);
+            return true;
 
-            case DIRECT_HEAD:
-                {
-                self.subject = self.getString ();
-                self.address = self.getString ();
-                self.sequence = self.getNumber8 ();
-                }
-                break;
-
-            case GET_HEADS:
-                {
-                self.address = self.getString ();
-                }
-                break;
+        } catch (Exception e) {
+            //  Error returns
+            System.out.printf ("E: malformed message '%c'\n", self.id);
+            return false;
+        }
+    }
 
-            case CONSUMER_HELLO:
-                {
-                self.address = self.getString ();
-                listSize = (int) self.getNumber4 ();
-                self.subjects = new ArrayList<String> ();
-                while (listSize-- > 0) {
-                    String string = self.getLongString ();
-                    self.subjects.add (string);
-                }
-                }
-                break;
+    //  --------------------------------------------------------------------------
+    //  Parse a DafkaProto from frames already in memory, as encode () builds
+    //  them, without going through a socket. The frames are left untouched
+    //  and the content frame of the result is the one in msg. Returns new
+    //  object or null if error.
 
-            case STORE_HELLO:
-                {
-                self.address = self.getString ();
-                }
-                break;
+    public static DafkaProto decode (ZMsg msg)
+    {
+        assert (msg != null);
+        DafkaProto self = new DafkaProto ('A');
+        Iterator <ZFrame> frames = msg.iterator ();
 
-            default:
+        try {
+            if (!frames.hasNext ())
                 throw new IllegalArgumentException ();
-            }
-
+            self.needle = ByteBuffer.wrap (frames.next ().getData ());
+            self.decode (null, frames, false);
             return self;
 
         } catch (Exception e) {
@@ -388,12 +441,169 @@ public class DafkaProto implements java.lang.AutoCloseable
             System.out.printf ("E: malformed message '%c'\n", self.id);
             self.destroy ();
             return null;
-        } finally {
-            if (frame != null)
-                frame.destroy ();
         }
     }
 
+    //  Parse the command frame held by the needle and receive any frame
+    //  fields that follow it, from the socket or else from the frames. When
+    //  reusing, previous strings and frames are kept where possible instead
+    //  of allocating new ones.
+    private void decode (Socket input, Iterator <ZFrame> frames, boolean reuse)
+    {
+        if (input != null && input.getType () == SocketType.XPUB.type ()) {
+            byte isSubscribe = getNumber1 ();
+            this.isSubscribe = isSubscribe == 1;
+            id = (char) getNumber1 ();
+            if (needle.hasRemaining())
+                topic = getTopic (reuse ? topic : null, needle.limit () - 1);
+            return;
+        }
+
+        //  Get message id, which is first byte in frame
+        id = (char) getNumber1 ();
+        int end = needle.position ();
+        while (needle.get (end) != '\0')
+            end++;
+        topic = getTopic (reuse ? topic : null, end);
+        needle.get ();
+        int listSize;
+        int hashSize;
+
+        switch (id) {
+        case MSG:
+            {
+            subject = getString (reuse ? subject : null);
+            address = getBlock (reuse ? address : null, 16);
+            sequence = getNumber8 ();
+            codec = getNumber1 () & 0xff;
+            //  Get next frame, leave current untouched
+            content = nextFrame (input, frames, reuse ? content : null);
+            }
+            break;
+
+        case DIRECT_MSG:
+            {
+            subject = getString (reuse ? subject : null);
+            address = getBlock (reuse ? address : null, 16);
+            sequence = getNumber8 ();
+            codec = getNumber1 () & 0xff;
+            //  Get next frame, leave current untouched
+            content = nextFrame (input, frames, reuse ? content : null);
+            }
+            break;
+
+        case MSG_BATCH:
+            {
+            subject = getString (reuse ? subject : null);
+            address = getBlock (reuse ? address : null, 16);
+            sequence = getNumber8 ();
+            count = getNumber4 ();
+            codec = getNumber1 () & 0xff;
+            //  Get next frame, leave current untouched
+            content = nextFrame (input, frames, reuse ? content : null);
+            }
+            break;
+
+        case DIRECT_MSG_BATCH:
+            {
+            subject = getString (reuse ? subject : null);
+            address = getBlock (reuse ? address : null, 16);
+            sequence = getNumber8 ();
+            count = getNumber4 ();
+            codec = getNumber1 () & 0xff;
+            //  Get next frame, leave current untouched
+            content = nextFrame (input, frames, reuse ? content : null);
+            }
+            break;
+
+        case FETCH:
+            {
+            subject = getString (reuse ? subject : null);
+            sequence = getNumber8 ();
+            count = getNumber4 ();
+            address = getBlock (reuse ? address : null, 16);
+            }
+            break;
+
+        case ACK:
+            {
+            subject = getString (reuse ? subject : null);
+            sequence = getNumber8 ();
+            address = getBlock (reuse ? address : null, 16);
+            }
+            break;
+
+        case HEAD:
+            {
+            subject = getString (reuse ? subject : null);
+            address = getBlock (reuse ? address : null, 16);
+            sequence = getNumber8 ();
+            }
+            break;
+
+        case DIRECT_HEAD:
+            {
+            subject = getString (reuse ? subject : null);
+            address = getBlock (reuse ? address : null, 16);
+            sequence = getNumber8 ();
+            }
+            break;
+
+        case GET_HEADS:
+            {
+            address = getBlock (reuse ? address : null, 16);
+            }
+            break;
+
+        case CONSUMER_HELLO:
+            {
+            address = getBlock (reuse ? address : null, 16);
+            listSize = (int) getNumber4 ();
+            subjects = new ArrayList<String> ();
+            while (listSize-- > 0) {
+                String string = getLongString ();
+                subjects.add (string);
+            }
+            }
+            break;
+
+        case STORE_HELLO:
+            {
+            address = getBlock (reuse ? address : null, 16);
+            }
+            break;
+
+        default:
+            throw new IllegalArgumentException ();
+        }
+    }
+
+    //  Get the next frame field from the socket or else from the frames
+    private static ZFrame nextFrame (Socket input, Iterator <ZFrame> frames, ZFrame reuse)
+    {
+        if (input == null) {
+            if (!frames.hasNext ())
+                throw new IllegalArgumentException ();
+            return frames.next ();
+        }
+        if (!input.hasReceiveMore ())
+            throw new IllegalArgumentException ();
+        return recvFrame (input, reuse);
+    }
+
+    //  Receive a frame field, resetting the supplied frame to the new data
+    //  if there is one instead of allocating a new frame
+    private static ZFrame recvFrame (Socket input, ZFrame reuse)
+    {
+        if (reuse == null)
+            return ZFrame.recvFrame (input);
+        Msg frame = input.base ().recv (0);
+        if (frame == null)
+            throw new IllegalArgumentException ();
+        reuse.reset (frame.data ());
+        return reuse;
+    }
+
     //  --------------------------------------------------------------------------
     //  Send the DafkaProto to the socket, and destroy it
 
@@ -401,24 +611,41 @@ public class DafkaProto implements java.lang.AutoCloseable
     {
         assert (socket != null);
 
-        ZMsg msg = new ZMsg();
+        ZMsg msg = encode ();
         //  If we're sending to a ROUTER, send the routingId first
-        if (socket.getType () == ZMQ.ROUTER) {
-            msg.add (routingId);
+        if (socket.getType () == SocketType.ROUTER.type ()) {
+            msg.push (routingId);
         }
 
-        int frameSize = 1 + this.topic.length() + 1; //  Message ID, topic and NULL
+        //  Destroy DafkaProto object
+        msg.send(socket);
+        destroy ();
+        return true;
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Encode the DafkaProto into its frames without sending or destroying
+    //  it, the content frame is added as it is. decode () parses them back.
+
+    public ZMsg encode ()
+    {
+        ZMsg msg = new ZMsg();
+        //  If topic isn't set, send an empty topic
+        if (topic == null)
+            topic = new byte [0];
+        int frameSize = 1 + this.topic.length + 1; //  Message ID, topic and NULL
         switch (id) {
         case MSG:
             {
             //  subject is a string with 1-byte length
             frameSize ++;
             frameSize += (subject != null) ? subject.getBytes(ZMQ.CHARSET).length : 0;
-            //  address is a string with 1-byte length
-            frameSize ++;
-            frameSize += (address != null) ? address.getBytes(ZMQ.CHARSET).length : 0;
+            //  address is a block of 16 bytes
+            frameSize += 16;
             //  sequence is a 8-byte integer
             frameSize += 8;
+            //  codec is a 1-byte integer
+            frameSize += 1;
             }
             break;
 
@@ -427,26 +654,58 @@ public class DafkaProto implements java.lang.AutoCloseable
             //  subject is a string with 1-byte length
             frameSize ++;
             frameSize += (subject != null) ? subject.getBytes(ZMQ.CHARSET).length : 0;
-            //  address is a string with 1-byte length
+            //  address is a block of 16 bytes
+            frameSize += 16;
+            //  sequence is a 8-byte integer
+            frameSize += 8;
+            //  codec is a 1-byte integer
+            frameSize += 1;
+            }
+            break;
+
+        case MSG_BATCH:
+            {
+            //  subject is a string with 1-byte length
             frameSize ++;
-            frameSize += (address != null) ? address.getBytes(ZMQ.CHARSET).length : 0;
+            frameSize += (subject != null) ? subject.getBytes(ZMQ.CHARSET).length : 0;
+            //  address is a block of 16 bytes
+            frameSize += 16;
             //  sequence is a 8-byte integer
             frameSize += 8;
+            //  count is a 4-byte integer
+            frameSize += 4;
+            //  codec is a 1-byte integer
+            frameSize += 1;
             }
             break;
 
-        case FETCH:
+        case DIRECT_MSG_BATCH:
             {
             //  subject is a string with 1-byte length
             frameSize ++;
             frameSize += (subject != null) ? subject.getBytes(ZMQ.CHARSET).length : 0;
+            //  address is a block of 16 bytes
+            frameSize += 16;
             //  sequence is a 8-byte integer
             frameSize += 8;
             //  count is a 4-byte integer
             frameSize += 4;
-            //  address is a string with 1-byte length
+            //  codec is a 1-byte integer
+            frameSize += 1;
+            }
+            break;
+
+        case FETCH:
+            {
+            //  subject is a string with 1-byte length
             frameSize ++;
-            frameSize += (address != null) ? address.getBytes(ZMQ.CHARSET).length : 0;
+            frameSize += (subject != null) ? subject.getBytes(ZMQ.CHARSET).length : 0;
+            //  sequence is a 8-byte integer
+            frameSize += 8;
+            //  count is a 4-byte integer
+            frameSize += 4;
+            //  address is a block of 16 bytes
+            frameSize += 16;
             }
             break;
 
@@ -457,6 +716,8 @@ public class DafkaProto implements java.lang.AutoCloseable
             frameSize += (subject != null) ? subject.getBytes(ZMQ.CHARSET).length : 0;
             //  sequence is a 8-byte integer
             frameSize += 8;
+            //  address is a block of 16 bytes
+            frameSize += 16;
             }
             break;
 
@@ -465,9 +726,8 @@ public class DafkaProto implements java.lang.AutoCloseable
             //  subject is a string with 1-byte length
             frameSize ++;
             frameSize += (subject != null) ? subject.getBytes(ZMQ.CHARSET).length : 0;
-            //  address is a string with 1-byte length
-            frameSize ++;
-            frameSize += (address != null) ? address.getBytes(ZMQ.CHARSET).length : 0;
+            //  address is a block of 16 bytes
+            frameSize += 16;
             //  sequence is a 8-byte integer
             frameSize += 8;
             }
@@ -478,9 +738,8 @@ public class DafkaProto implements java.lang.AutoCloseable
             //  subject is a string with 1-byte length
             frameSize ++;
             frameSize += (subject != null) ? subject.getBytes(ZMQ.CHARSET).length : 0;
-            //  address is a string with 1-byte length
-            frameSize ++;
-            frameSize += (address != null) ? address.getBytes(ZMQ.CHARSET).length : 0;
+            //  address is a block of 16 bytes
+            frameSize += 16;
             //  sequence is a 8-byte integer
             frameSize += 8;
             }
@@ -488,17 +747,15 @@ public class DafkaProto implements java.lang.AutoCloseable
 
         case GET_HEADS:
             {
-            //  address is a string with 1-byte length
-            frameSize ++;
-            frameSize += (address != null) ? address.getBytes(ZMQ.CHARSET).length : 0;
+            //  address is a block of 16 bytes
+            frameSize += 16;
             }
             break;
 
         case CONSUMER_HELLO:
             {
-            //  address is a string with 1-byte length
-            frameSize ++;
-            frameSize += (address != null) ? address.getBytes(ZMQ.CHARSET).length : 0;
+            //  address is a block of 16 bytes
+            frameSize += 16;
             //  subjects is an array of strings
             frameSize += 4;
             if (subjects != null) {
@@ -512,9 +769,8 @@ public class DafkaProto implements java.lang.AutoCloseable
 
         case STORE_HELLO:
             {
-            //  address is a string with 1-byte length
-            frameSize ++;
-            frameSize += (address != null) ? address.getBytes(ZMQ.CHARSET).length : 0;
+            //  address is a block of 16 bytes
+            frameSize += 16;
             }
             break;
 
@@ -527,7 +783,7 @@ public class DafkaProto implements java.lang.AutoCloseable
         needle = ByteBuffer.wrap (frame.getData ());
         int frameFlags = 0;
         putNumber1 ((byte) id);
-        needle.put (topic.getBytes(ZMQ.CHARSET));
+        needle.put (topic);
         needle.put ((byte) '\0');
 
         switch (id) {
@@ -537,11 +793,9 @@ public class DafkaProto implements java.lang.AutoCloseable
                 putString (subject);
             else
                 putNumber1 ((byte) 0);      //  Empty string
-            if (address != null)
-                putString (address);
-            else
-                putNumber1 ((byte) 0);      //  Empty string
+            putBlock (address, 16);
             putNumber8 (sequence);
+            putNumber1 (codec);
             }
             break;
 
@@ -551,26 +805,47 @@ public class DafkaProto implements java.lang.AutoCloseable
                 putString (subject);
             else
                 putNumber1 ((byte) 0);      //  Empty string
-            if (address != null)
-                putString (address);
+            putBlock (address, 16);
+            putNumber8 (sequence);
+            putNumber1 (codec);
+            }
+            break;
+
+        case MSG_BATCH:
+            {
+            if (subject != null)
+                putString (subject);
             else
                 putNumber1 ((byte) 0);      //  Empty string
+            putBlock (address, 16);
             putNumber8 (sequence);
+            putNumber4 (count);
+            putNumber1 (codec);
             }
             break;
 
-        case FETCH:
+        case DIRECT_MSG_BATCH:
             {
             if (subject != null)
                 putString (subject);
             else
                 putNumber1 ((byte) 0);      //  Empty string
+            putBlock (address, 16);
             putNumber8 (sequence);
             putNumber4 (count);
-            if (address != null)
-                putString (address);
+            putNumber1 (codec);
+            }
+            break;
+
+        case FETCH:
+            {
+            if (subject != null)
+                putString (subject);
             else
                 putNumber1 ((byte) 0);      //  Empty string
+            putNumber8 (sequence);
+            putNumber4 (count);
+            putBlock (address, 16);
             }
             break;
 
@@ -581,6 +856,7 @@ public class DafkaProto implements java.lang.AutoCloseable
             else
                 putNumber1 ((byte) 0);      //  Empty string
             putNumber8 (sequence);
+            putBlock (address, 16);
             }
             break;
 
@@ -590,10 +866,7 @@ public class DafkaProto implements java.lang.AutoCloseable
                 putString (subject);
             else
                 putNumber1 ((byte) 0);      //  Empty string
-            if (address != null)
-                putString (address);
-            else
-                putNumber1 ((byte) 0);      //  Empty string
+            putBlock (address, 16);
             putNumber8 (sequence);
             }
             break;
@@ -604,29 +877,20 @@ public class DafkaProto implements java.lang.AutoCloseable
                 putString (subject);
             else
                 putNumber1 ((byte) 0);      //  Empty string
-            if (address != null)
-                putString (address);
-            else
-                putNumber1 ((byte) 0);      //  Empty string
+            putBlock (address, 16);
             putNumber8 (sequence);
             }
             break;
 
         case GET_HEADS:
             {
-            if (address != null)
-                putString (address);
-            else
-                putNumber1 ((byte) 0);      //  Empty string
+            putBlock (address, 16);
             }
             break;
 
         case CONSUMER_HELLO:
             {
-            if (address != null)
-                putString (address);
-            else
-                putNumber1 ((byte) 0);      //  Empty string
+            putBlock (address, 16);
             if (subjects != null) {
                 putNumber4 (subjects.size ());
                 for (String value : subjects) {
@@ -640,10 +904,7 @@ public class DafkaProto implements java.lang.AutoCloseable
 
         case STORE_HELLO:
             {
-            if (address != null)
-                putString (address);
-            else
-                putNumber1 ((byte) 0);      //  Empty string
+            putBlock (address, 16);
             }
             break;
 
@@ -669,13 +930,26 @@ public class DafkaProto implements java.lang.AutoCloseable
             msg.add(content);
             }
             break;
+        case MSG_BATCH:
+            {
+            //  If content isn't set, send an empty frame
+            if (content == null)
+                content = new ZFrame ("".getBytes ());
+            msg.add(content);
+            }
+            break;
+        case DIRECT_MSG_BATCH:
+            {
+            //  If content isn't set, send an empty frame
+            if (content == null)
+                content = new ZFrame ("".getBytes ());
+            msg.add(content);
+            }
+            break;
         }
         switch (id) {
         }
-        //  Destroy DafkaProto object
-        msg.send(socket);
-        destroy ();
-        return true;
+        return msg;
     }
 
 
@@ -685,8 +959,9 @@ public class DafkaProto implements java.lang.AutoCloseable
     public static void sendMsg (
         Socket output,
         String subject,
-        String address,
+        byte [] address,
         long sequence,
+        int codec,
         ZFrame content)
     {
 	sendMsg (
@@ -695,6 +970,7 @@ public class DafkaProto implements java.lang.AutoCloseable
 		    subject,
 		    address,
 		    sequence,
+		    codec,
 		    content);
     }
 
@@ -705,8 +981,9 @@ public class DafkaProto implements java.lang.AutoCloseable
         Socket output,
 	ZFrame routingId,
         String subject,
-        String address,
+        byte [] address,
         long sequence,
+        int codec,
         ZFrame content)
     {
         DafkaProto self = new DafkaProto (DafkaProto.MSG);
@@ -717,8 +994,8 @@ public class DafkaProto implements java.lang.AutoCloseable
         self.setSubject (subject);
         self.setAddress (address);
         self.setSequence (sequence);
-        self.setContent (content.duplicate ());
-        self.send (output);
+        self.setCodec (codec);
+        sendContent (output, self, wrap (content));
     }
 
 //  --------------------------------------------------------------------------
@@ -727,8 +1004,9 @@ public class DafkaProto implements java.lang.AutoCloseable
     public static void sendDirect_Msg (
         Socket output,
         String subject,
-        String address,
+        byte [] address,
         long sequence,
+        int codec,
         ZFrame content)
     {
 	sendDirect_Msg (
@@ -737,6 +1015,7 @@ public class DafkaProto implements java.lang.AutoCloseable
 		    subject,
 		    address,
 		    sequence,
+		    codec,
 		    content);
     }
 
@@ -747,8 +1026,9 @@ public class DafkaProto implements java.lang.AutoCloseable
         Socket output,
 	ZFrame routingId,
         String subject,
-        String address,
+        byte [] address,
         long sequence,
+        int codec,
         ZFrame content)
     {
         DafkaProto self = new DafkaProto (DafkaProto.DIRECT_MSG);
@@ -759,8 +1039,240 @@ public class DafkaProto implements java.lang.AutoCloseable
         self.setSubject (subject);
         self.setAddress (address);
         self.setSequence (sequence);
-        self.setContent (content.duplicate ());
-        self.send (output);
+        self.setCodec (codec);
+        sendContent (output, self, wrap (content));
+    }
+
+//  --------------------------------------------------------------------------
+//  Send the MSG_BATCH to the socket in one step
+
+    public static void sendMsg_Batch (
+        Socket output,
+        String subject,
+        byte [] address,
+        long sequence,
+        long count,
+        int codec,
+        ZFrame content)
+    {
+	sendMsg_Batch (
+		    output,
+		    null,
+		    subject,
+		    address,
+		    sequence,
+		    count,
+		    codec,
+		    content);
+    }
+
+//  --------------------------------------------------------------------------
+//  Send the MSG_BATCH to a router socket in one step
+
+    public static void sendMsg_Batch (
+        Socket output,
+	ZFrame routingId,
+        String subject,
+        byte [] address,
+        long sequence,
+        long count,
+        int codec,
+        ZFrame content)
+    {
+        DafkaProto self = new DafkaProto (DafkaProto.MSG_BATCH);
+        if (routingId != null)
+        {
+	        self.setRoutingId (routingId);
+        }
+        self.setSubject (subject);
+        self.setAddress (address);
+        self.setSequence (sequence);
+        self.setCount (count);
+        self.setCodec (codec);
+        sendContent (output, self, wrap (content));
+    }
+
+//  --------------------------------------------------------------------------
+//  Send the DIRECT_MSG_BATCH to the socket in one step
+
+    public static void sendDirect_Msg_Batch (
+        Socket output,
+        String subject,
+        byte [] address,
+        long sequence,
+        long count,
+        int codec,
+        ZFrame content)
+    {
+	sendDirect_Msg_Batch (
+		    output,
+		    null,
+		    subject,
+		    address,
+		    sequence,
+		    count,
+		    codec,
+		    content);
+    }
+
+//  --------------------------------------------------------------------------
+//  Send the DIRECT_MSG_BATCH to a router socket in one step
+
+    public static void sendDirect_Msg_Batch (
+        Socket output,
+	ZFrame routingId,
+        String subject,
+        byte [] address,
+        long sequence,
+        long count,
+        int codec,
+        ZFrame content)
+    {
+        DafkaProto self = new DafkaProto (DafkaProto.DIRECT_MSG_BATCH);
+        if (routingId != null)
+        {
+	        self.setRoutingId (routingId);
+        }
+        self.setSubject (subject);
+        self.setAddress (address);
+        self.setSequence (sequence);
+        self.setCount (count);
+        self.setCodec (codec);
+        sendContent (output, self, wrap (content));
+    }
+
+//  --------------------------------------------------------------------------
+//  Send the MSG to the socket in one step with the given topic, the
+//  remaining bytes of the content being sent without copying
+
+    public static void sendMsg (
+        Socket output,
+        byte [] topic,
+        String subject,
+        byte [] address,
+        long sequence,
+        int codec,
+        ByteBuffer content)
+    {
+        DafkaProto self = new DafkaProto (DafkaProto.MSG);
+        self.setTopic (topic);
+        self.setSubject (subject);
+        self.setAddress (address);
+        self.setSequence (sequence);
+        self.setCodec (codec);
+        sendContent (output, self, content);
+    }
+
+//  --------------------------------------------------------------------------
+//  Send the DIRECT_MSG to the socket in one step with the given topic, the
+//  remaining bytes of the content being sent without copying
+
+    public static void sendDirect_Msg (
+        Socket output,
+        byte [] topic,
+        String subject,
+        byte [] address,
+        long sequence,
+        int codec,
+        ByteBuffer content)
+    {
+        DafkaProto self = new DafkaProto (DafkaProto.DIRECT_MSG);
+        self.setTopic (topic);
+        self.setSubject (subject);
+        self.setAddress (address);
+        self.setSequence (sequence);
+        self.setCodec (codec);
+        sendContent (output, self, content);
+    }
+
+//  --------------------------------------------------------------------------
+//  Send the MSG_BATCH to the socket in one step with the given topic, the
+//  remaining bytes of the content being sent without copying
+
+    public static void sendMsg_Batch (
+        Socket output,
+        byte [] topic,
+        String subject,
+        byte [] address,
+        long sequence,
+        long count,
+        int codec,
+        ByteBuffer content)
+    {
+        DafkaProto self = new DafkaProto (DafkaProto.MSG_BATCH);
+        self.setTopic (topic);
+        self.setSubject (subject);
+        self.setAddress (address);
+        self.setSequence (sequence);
+        self.setCount (count);
+        self.setCodec (codec);
+        sendContent (output, self, content);
+    }
+
+//  --------------------------------------------------------------------------
+//  Send the DIRECT_MSG_BATCH to the socket in one step with the given topic, the
+//  remaining bytes of the content being sent without copying
+
+    public static void sendDirect_Msg_Batch (
+        Socket output,
+        byte [] topic,
+        String subject,
+        byte [] address,
+        long sequence,
+        long count,
+        int codec,
+        ByteBuffer content)
+    {
+        DafkaProto self = new DafkaProto (DafkaProto.DIRECT_MSG_BATCH);
+        self.setTopic (topic);
+        self.setSubject (subject);
+        self.setAddress (address);
+        self.setSequence (sequence);
+        self.setCount (count);
+        self.setCodec (codec);
+        sendContent (output, self, content);
+    }
+
+//  --------------------------------------------------------------------------
+//  The content of the one step sends is borrowed, not copied: a ZFrame or
+//  the remaining bytes of a ByteBuffer, which may wrap a slice of a byte
+//  array or be direct, go to ZeroMQ as they are. The caller keeps the frame
+//  or buffer, whose position is left untouched, but must not modify the
+//  bytes sent afterwards, as ZeroMQ reads them when the message leaves the
+//  socket, and inproc peers receive them as they are. Content that is
+//  reused for the next message must be copied before it is sent.
+
+    //  Send the command frame of the message followed by the content
+    private static void sendContent (Socket output, DafkaProto self, ByteBuffer content)
+    {
+        //  Encoding without content adds an empty frame in its place
+        ZMsg msg = self.encode ();
+        msg.removeLast ();
+        if (output.getType () == SocketType.ROUTER.type ())
+            msg.push (self.routingId);
+        for (ZFrame frame : msg)
+            frame.send (output, ZFrame.MORE);
+        output.sendByteBuffer (sendable (content), 0);
+        self.destroy ();
+    }
+
+    //  ZeroMQ shares a whole heap array as it is, but takes any heap buffer
+    //  filling its capacity for its whole array and encodes other buffers
+    //  for tcp from position zero. A read-only slice starts at the content
+    //  and hides the array, so any other content is sent that way, still
+    //  without copying.
+    static ByteBuffer sendable (ByteBuffer content)
+    {
+        if (content.hasArray () && content.arrayOffset () == 0
+        &&  content.position () == 0 && content.limit () == content.array ().length)
+            return content;
+        return content.slice ().asReadOnlyBuffer ();
+    }
+
+    //  Wrap the data of the frame without copying it
+    private static ByteBuffer wrap (ZFrame content)
+    {
+        return content.hasData () ? ByteBuffer.wrap (content.getData ()) : ByteBuffer.allocate (0);
     }
 
 //  --------------------------------------------------------------------------
@@ -771,7 +1283,7 @@ public class DafkaProto implements java.lang.AutoCloseable
         String subject,
         long sequence,
         long count,
-        String address)
+        byte [] address)
     {
 	sendFetch (
 		    output,
@@ -791,7 +1303,7 @@ public class DafkaProto implements java.lang.AutoCloseable
         String subject,
         long sequence,
         long count,
-        String address)
+        byte [] address)
     {
         DafkaProto self = new DafkaProto (DafkaProto.FETCH);
         if (routingId != null)
@@ -811,13 +1323,15 @@ public class DafkaProto implements java.lang.AutoCloseable
     public static void sendAck (
         Socket output,
         String subject,
-        long sequence)
+        long sequence,
+        byte [] address)
     {
 	sendAck (
 		    output,
 		    null,
 		    subject,
-		    sequence);
+		    sequence,
+		    address);
     }
 
 //  --------------------------------------------------------------------------
@@ -827,7 +1341,8 @@ public class DafkaProto implements java.lang.AutoCloseable
         Socket output,
 	ZFrame routingId,
         String subject,
-        long sequence)
+        long sequence,
+        byte [] address)
     {
         DafkaProto self = new DafkaProto (DafkaProto.ACK);
         if (routingId != null)
@@ -836,6 +1351,7 @@ public class DafkaProto implements java.lang.AutoCloseable
         }
         self.setSubject (subject);
         self.setSequence (sequence);
+        self.setAddress (address);
         self.send (output);
     }
 
@@ -845,7 +1361,7 @@ public class DafkaProto implements java.lang.AutoCloseable
     public static void sendHead (
         Socket output,
         String subject,
-        String address,
+        byte [] address,
         long sequence)
     {
 	sendHead (
@@ -863,7 +1379,7 @@ public class DafkaProto implements java.lang.AutoCloseable
         Socket output,
 	ZFrame routingId,
         String subject,
-        String address,
+        byte [] address,
         long sequence)
     {
         DafkaProto self = new DafkaProto (DafkaProto.HEAD);
@@ -883,7 +1399,7 @@ public class DafkaProto implements java.lang.AutoCloseable
     public static void sendDirect_Head (
         Socket output,
         String subject,
-        String address,
+        byte [] address,
         long sequence)
     {
 	sendDirect_Head (
@@ -901,7 +1417,7 @@ public class DafkaProto implements java.lang.AutoCloseable
         Socket output,
 	ZFrame routingId,
         String subject,
-        String address,
+        byte [] address,
         long sequence)
     {
         DafkaProto self = new DafkaProto (DafkaProto.DIRECT_HEAD);
@@ -920,7 +1436,7 @@ public class DafkaProto implements java.lang.AutoCloseable
 
     public static void sendGet_Heads (
         Socket output,
-        String address)
+        byte [] address)
     {
 	sendGet_Heads (
 		    output,
@@ -934,7 +1450,7 @@ public class DafkaProto implements java.lang.AutoCloseable
     public static void sendGet_Heads (
         Socket output,
 	ZFrame routingId,
-        String address)
+        byte [] address)
     {
         DafkaProto self = new DafkaProto (DafkaProto.GET_HEADS);
         if (routingId != null)
@@ -950,7 +1466,7 @@ public class DafkaProto implements java.lang.AutoCloseable
 
     public static void sendConsumer_Hello (
         Socket output,
-        String address,
+        byte [] address,
         List <String> subjects)
     {
 	sendConsumer_Hello (
@@ -966,7 +1482,7 @@ public class DafkaProto implements java.lang.AutoCloseable
     public static void sendConsumer_Hello (
         Socket output,
 	ZFrame routingId,
-        String address,
+        byte [] address,
         List <String> subjects)
     {
         DafkaProto self = new DafkaProto (DafkaProto.CONSUMER_HELLO);
@@ -984,7 +1500,7 @@ public class DafkaProto implements java.lang.AutoCloseable
 
     public static void sendStore_Hello (
         Socket output,
-        String address)
+        byte [] address)
     {
 	sendStore_Hello (
 		    output,
@@ -998,7 +1514,7 @@ public class DafkaProto implements java.lang.AutoCloseable
     public static void sendStore_Hello (
         Socket output,
 	ZFrame routingId,
-        String address)
+        byte [] address)
     {
         DafkaProto self = new DafkaProto (DafkaProto.STORE_HELLO);
         if (routingId != null)
@@ -1024,6 +1540,7 @@ public class DafkaProto implements java.lang.AutoCloseable
             copy.subject = this.subject;
             copy.address = this.address;
             copy.sequence = this.sequence;
+            copy.codec = this.codec;
             copy.content = this.content.duplicate ();
         }
         break;
@@ -1032,6 +1549,27 @@ public class DafkaProto implements java.lang.AutoCloseable
             copy.subject = this.subject;
             copy.address = this.address;
             copy.sequence = this.sequence;
+            copy.codec = this.codec;
+            copy.content = this.content.duplicate ();
+        }
+        break;
+        case MSG_BATCH:
+            {
+            copy.subject = this.subject;
+            copy.address = this.address;
+            copy.sequence = this.sequence;
+            copy.count = this.count;
+            copy.codec = this.codec;
+            copy.content = this.content.duplicate ();
+        }
+        break;
+        case DIRECT_MSG_BATCH:
+            {
+            copy.subject = this.subject;
+            copy.address = this.address;
+            copy.sequence = this.sequence;
+            copy.count = this.count;
+            copy.codec = this.codec;
             copy.content = this.content.duplicate ();
         }
         break;
@@ -1047,6 +1585,7 @@ public class DafkaProto implements java.lang.AutoCloseable
             {
             copy.subject = this.subject;
             copy.sequence = this.sequence;
+            copy.address = this.address;
         }
         break;
         case HEAD:
@@ -1093,16 +1632,19 @@ public class DafkaProto implements java.lang.AutoCloseable
         case MSG:
             {
             System.out.println ("MSG:");
-            System.out.printf ("    topic=%s\n", topic);
+            System.out.printf ("    topic=%s\n", topic ());
             if (subject != null)
                 System.out.printf ("    subject='%s'\n", subject);
             else
                 System.out.printf ("    subject=\n");
-            if (address != null)
-                System.out.printf ("    address='%s'\n", address);
-            else
-                System.out.printf ("    address=\n");
-            System.out.printf ("    sequence=%d\n", (long)sequence);
+            System.out.printf ("    address=");
+            if (address != null) {
+                for (byte value : address)
+                    System.out.printf ("%02X", value);
+            }
+            System.out.printf ("\n");
+            System.out.printf ("    sequence=%d\n", sequence);
+            System.out.printf ("    codec=%d\n", (long)codec);
             System.out.printf ("    content={\n");
             if (content != null) {
                 int size = content.size ();
@@ -1124,16 +1666,89 @@ public class DafkaProto implements java.lang.AutoCloseable
         case DIRECT_MSG:
             {
             System.out.println ("DIRECT_MSG:");
-            System.out.printf ("    topic=%s\n", topic);
+            System.out.printf ("    topic=%s\n", topic ());
             if (subject != null)
                 System.out.printf ("    subject='%s'\n", subject);
             else
                 System.out.printf ("    subject=\n");
-            if (address != null)
-                System.out.printf ("    address='%s'\n", address);
+            System.out.printf ("    address=");
+            if (address != null) {
+                for (byte value : address)
+                    System.out.printf ("%02X", value);
+            }
+            System.out.printf ("\n");
+            System.out.printf ("    sequence=%d\n", sequence);
+            System.out.printf ("    codec=%d\n", (long)codec);
+            System.out.printf ("    content={\n");
+            if (content != null) {
+                int size = content.size ();
+                byte [] data = content.getData ();
+                System.out.printf ("        size=%d\n", content.size ());
+                if (size > 32)
+                    size = 32;
+                int contentIndex;
+                for (contentIndex = 0; contentIndex < size; contentIndex++) {
+                    if (contentIndex != 0 && (contentIndex % 4 == 0))
+                        System.out.printf ("-");
+                    System.out.printf ("%02X", data [contentIndex]);
+                }
+            }
+            System.out.printf ("    }\n");
+            }
+            break;
+
+        case MSG_BATCH:
+            {
+            System.out.println ("MSG_BATCH:");
+            System.out.printf ("    topic=%s\n", topic ());
+            if (subject != null)
+                System.out.printf ("    subject='%s'\n", subject);
             else
-                System.out.printf ("    address=\n");
-            System.out.printf ("    sequence=%d\n", (long)sequence);
+                System.out.printf ("    subject=\n");
+            System.out.printf ("    address=");
+            if (address != null) {
+                for (byte value : address)
+                    System.out.printf ("%02X", value);
+            }
+            System.out.printf ("\n");
+            System.out.printf ("    sequence=%d\n", sequence);
+            System.out.printf ("    count=%d\n", count);
+            System.out.printf ("    codec=%d\n", (long)codec);
+            System.out.printf ("    content={\n");
+            if (content != null) {
+                int size = content.size ();
+                byte [] data = content.getData ();
+                System.out.printf ("        size=%d\n", content.size ());
+                if (size > 32)
+                    size = 32;
+                int contentIndex;
+                for (contentIndex = 0; contentIndex < size; contentIndex++) {
+                    if (contentIndex != 0 && (contentIndex % 4 == 0))
+                        System.out.printf ("-");
+                    System.out.printf ("%02X", data [contentIndex]);
+                }
+            }
+            System.out.printf ("    }\n");
+            }
+            break;
+
+        case DIRECT_MSG_BATCH:
+            {
+            System.out.println ("DIRECT_MSG_BATCH:");
+            System.out.printf ("    topic=%s\n", topic ());
+            if (subject != null)
+                System.out.printf ("    subject='%s'\n", subject);
+            else
+                System.out.printf ("    subject=\n");
+            System.out.printf ("    address=");
+            if (address != null) {
+                for (byte value : address)
+                    System.out.printf ("%02X", value);
+            }
+            System.out.printf ("\n");
+            System.out.printf ("    sequence=%d\n", sequence);
+            System.out.printf ("    count=%d\n", count);
+            System.out.printf ("    codec=%d\n", (long)codec);
             System.out.printf ("    content={\n");
             if (content != null) {
                 int size = content.size ();
@@ -1155,83 +1770,99 @@ public class DafkaProto implements java.lang.AutoCloseable
         case FETCH:
             {
             System.out.println ("FETCH:");
-            System.out.printf ("    topic=%s\n", topic);
+            System.out.printf ("    topic=%s\n", topic ());
             if (subject != null)
                 System.out.printf ("    subject='%s'\n", subject);
             else
                 System.out.printf ("    subject=\n");
-            System.out.printf ("    sequence=%d\n", (long)sequence);
-            System.out.printf ("    count=%d\n", (long)count);
-            if (address != null)
-                System.out.printf ("    address='%s'\n", address);
-            else
-                System.out.printf ("    address=\n");
+            System.out.printf ("    sequence=%d\n", sequence);
+            System.out.printf ("    count=%d\n", count);
+            System.out.printf ("    address=");
+            if (address != null) {
+                for (byte value : address)
+                    System.out.printf ("%02X", value);
+            }
+            System.out.printf ("\n");
             }
             break;
 
         case ACK:
             {
             System.out.println ("ACK:");
-            System.out.printf ("    topic=%s\n", topic);
+            System.out.printf ("    topic=%s\n", topic ());
             if (subject != null)
                 System.out.printf ("    subject='%s'\n", subject);
             else
                 System.out.printf ("    subject=\n");
-            System.out.printf ("    sequence=%d\n", (long)sequence);
+            System.out.printf ("    sequence=%d\n", sequence);
+            System.out.printf ("    address=");
+            if (address != null) {
+                for (byte value : address)
+                    System.out.printf ("%02X", value);
+            }
+            System.out.printf ("\n");
             }
             break;
 
         case HEAD:
             {
             System.out.println ("HEAD:");
-            System.out.printf ("    topic=%s\n", topic);
+            System.out.printf ("    topic=%s\n", topic ());
             if (subject != null)
                 System.out.printf ("    subject='%s'\n", subject);
             else
                 System.out.printf ("    subject=\n");
-            if (address != null)
-                System.out.printf ("    address='%s'\n", address);
-            else
-                System.out.printf ("    address=\n");
-            System.out.printf ("    sequence=%d\n", (long)sequence);
+            System.out.printf ("    address=");
+            if (address != null) {
+                for (byte value : address)
+                    System.out.printf ("%02X", value);
+            }
+            System.out.printf ("\n");
+            System.out.printf ("    sequence=%d\n", sequence);
             }
             break;
 
         case DIRECT_HEAD:
             {
             System.out.println ("DIRECT_HEAD:");
-            System.out.printf ("    topic=%s\n", topic);
+            System.out.printf ("    topic=%s\n", topic ());
             if (subject != null)
                 System.out.printf ("    subject='%s'\n", subject);
             else
                 System.out.printf ("    subject=\n");
-            if (address != null)
-                System.out.printf ("    address='%s'\n", address);
-            else
-                System.out.printf ("    address=\n");
-            System.out.printf ("    sequence=%d\n", (long)sequence);
+            System.out.printf ("    address=");
+            if (address != null) {
+                for (byte value : address)
+                    System.out.printf ("%02X", value);
+            }
+            System.out.printf ("\n");
+            System.out.printf ("    sequence=%d\n", sequence);
             }
             break;
 
         case GET_HEADS:
             {
             System.out.println ("GET_HEADS:");
-            System.out.printf ("    topic=%s\n", topic);
-            if (address != null)
-                System.out.printf ("    address='%s'\n", address);
-            else
-                System.out.printf ("    address=\n");
+            System.out.printf ("    topic=%s\n", topic ());
+            System.out.printf ("    address=");
+            if (address != null) {
+                for (byte value : address)
+                    System.out.printf ("%02X", value);
+            }
+            System.out.printf ("\n");
             }
             break;
 
         case CONSUMER_HELLO:
             {
             System.out.println ("CONSUMER_HELLO:");
-            System.out.printf ("    topic=%s\n", topic);
-            if (address != null)
-                System.out.printf ("    address='%s'\n", address);
-            else
-                System.out.printf ("    address=\n");
+            System.out.printf ("    topic=%s\n", topic ());
+            System.out.printf ("    address=");
+            if (address != null) {
+                for (byte value : address)
+                    System.out.printf ("%02X", value);
+            }
+            System.out.printf ("\n");
             System.out.printf ("    subjects={");
             if (subjects != null) {
                 for (String value : subjects) {
@@ -1245,11 +1876,13 @@ public class DafkaProto implements java.lang.AutoCloseable
         case STORE_HELLO:
             {
             System.out.println ("STORE_HELLO:");
-            System.out.printf ("    topic=%s\n", topic);
-            if (address != null)
-                System.out.printf ("    address='%s'\n", address);
-            else
-                System.out.printf ("    address=\n");
+            System.out.printf ("    topic=%s\n", topic ());
+            System.out.printf ("    address=");
+            if (address != null) {
+                for (byte value : address)
+                    System.out.printf ("%02X", value);
+            }
+            System.out.printf ("\n");
             }
             break;
 
@@ -1304,15 +1937,16 @@ public class DafkaProto implements java.lang.AutoCloseable
     //  --------------------------------------------------------------------------
     //  Get/set the address field
 
-    public String address ()
+    public byte [] address ()
     {
         return address;
     }
 
-    public void setAddress (String format, Object ... args)
+    public void setAddress (byte [] address)
     {
-        //  Format into newly allocated string
-        address = String.format (format, args);
+        if (address.length != 16)
+            throw new IllegalArgumentException ("Address must be 16 bytes");
+        this.address = address;
     }
 
 
@@ -1360,6 +1994,20 @@ public class DafkaProto implements java.lang.AutoCloseable
     }
 
 
+    //  --------------------------------------------------------------------------
+    //  Get/set the codec field
+
+    public int codec ()
+    {
+        return codec;
+    }
+
+    public void setCodec (int codec)
+    {
+        this.codec = codec;
+    }
+
+
     //  --------------------------------------------------------------------------
     //  Iterate through the subjects field, and append a subjects value
 
@@ -1387,11 +2035,23 @@ public class DafkaProto implements java.lang.AutoCloseable
 
     //  Get/set the topic of the message for publishing over pub/sub
     public String topic()
+    {
+        return new String (topic, ZMQ.CHARSET);
+    }
+
+    public byte [] topicData ()
     {
         return topic;
     }
 
     public void setTopic(String topic)
+    {
+        this.topic = topic.getBytes (ZMQ.CHARSET);
+    }
+
+    //  A binary topic, such as an address, must not contain a zero byte as
+    //  that ends the topic on the wire
+    public void setTopic (byte [] topic)
     {
         this.topic = topic;
     }
@@ -1408,6 +2068,26 @@ public class DafkaProto implements java.lang.AutoCloseable
         sub.unsubscribe(id + topic);
     }
 
+    //  Subscribe a socket to a specific message id and a binary topic.
+    public static void subscribe (Socket sub, char id, final byte [] topic)
+    {
+        sub.subscribe (prefix (id, topic));
+    }
+
+    //  Unsubscribe a socket from a specific message id and a binary topic.
+    public static void unsubscribe (Socket sub, char id, final byte [] topic)
+    {
+        sub.unsubscribe (prefix (id, topic));
+    }
+
+    private static byte [] prefix (char id, byte [] topic)
+    {
+        byte [] prefix = new byte [1 + topic.length];
+        prefix [0] = (byte) id;
+        System.arraycopy (topic, 0, prefix, 1, topic.length);
+        return prefix;
+    }
+
     //  Get the type of subscription received from a XPUB socket
     public boolean isSubscribe ()
     {
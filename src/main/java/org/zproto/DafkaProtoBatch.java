@@ -0,0 +1,190 @@
+/*  =========================================================================
+    DafkaProtoBatch - packed records of a dafka_proto MSG_BATCH
+
+    The content frame of a MSG_BATCH or DIRECT_MSG_BATCH packs its records
+    one after the other, each prefixed with its 4-byte length in network
+    byte order. The records have consecutive sequences starting at the
+    sequence of the batch, so a batch of many small records costs a single
+    header frame and a single ZeroMQ message on the wire.
+
+    To build a batch, add records and send data () up to size (). To read
+    one, wrap the received content and call next () until it returns false,
+    the current record being at offset () with length () in data (). A batch
+    is not thread safe and a wrapped content is only valid until the next
+    call to wrap or reset.
+    =========================================================================
+*/
+
+package org.zproto;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class DafkaProtoBatch
+{
+    //  Every record is prefixed with its length
+    public static final int RECORD_OVERHEAD = 4;
+
+    //  Structure of our class
+    private byte [] buffer;             //  Own buffer records are added to
+    private byte [] data;               //  Buffer or wrapped content
+    private int size;                   //  Number of valid bytes in data
+    private int count;                  //  Number of records in data
+    private int position;               //  Offset of the next length prefix
+    private int offset;                 //  Offset of the current record
+    private int length;                 //  Length of the current record
+
+    public DafkaProtoBatch ()
+    {
+        this (256);
+    }
+
+    public DafkaProtoBatch (int capacity)
+    {
+        this.buffer = new byte [Math.max (capacity, RECORD_OVERHEAD)];
+        this.data = buffer;
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Append a record to the batch, growing the buffer if needed
+
+    public void add (byte [] record)
+    {
+        add (record, 0, record.length);
+    }
+
+    public void add (byte [] record, int recordOffset, int recordLength)
+    {
+        putLength (recordLength);
+        System.arraycopy (record, recordOffset, buffer, size, recordLength);
+        size += recordLength;
+        count++;
+    }
+
+    //  Append the remaining bytes of the buffer, which may be direct,
+    //  leaving its position untouched
+    public void add (ByteBuffer record)
+    {
+        int recordLength = record.remaining ();
+        putLength (recordLength);
+        record.duplicate ().get (buffer, size, recordLength);
+        size += recordLength;
+        count++;
+    }
+
+    //  Make room for a record and write its length prefix
+    private void putLength (int recordLength)
+    {
+        if (data != buffer)
+            reset ();
+        int required = size + RECORD_OVERHEAD + recordLength;
+        if (required > buffer.length) {
+            buffer = Arrays.copyOf (buffer, Math.max (required, buffer.length * 2));
+            data = buffer;
+        }
+        buffer [size++] = (byte) (recordLength >>> 24);
+        buffer [size++] = (byte) (recordLength >>> 16);
+        buffer [size++] = (byte) (recordLength >>> 8);
+        buffer [size++] = (byte) recordLength;
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Empty the batch, keeping its buffer for the next records
+
+    public void reset ()
+    {
+        data = buffer;
+        size = 0;
+        count = 0;
+        position = 0;
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Point the batch at a received content with the given number of
+    //  records, without copying it. Returns false if the records do not add up
+    //  to the content exactly.
+
+    public boolean wrap (byte [] content, long records)
+    {
+        data = content;
+        size = content.length;
+        count = 0;
+        position = 0;
+
+        int scan = 0;
+        for (long index = 0; index < records; index++) {
+            if (size - scan < RECORD_OVERHEAD)
+                return false;
+            int recordLength = getLength (scan);
+            if (recordLength < 0 || recordLength > size - scan - RECORD_OVERHEAD)
+                return false;
+            scan += RECORD_OVERHEAD + recordLength;
+        }
+        if (scan != size)
+            return false;
+        count = (int) records;
+        return true;
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Move to the next record, returns false after the last one
+
+    public boolean next ()
+    {
+        if (position >= size)
+            return false;
+        length = getLength (position);
+        offset = position + RECORD_OVERHEAD;
+        position = offset + length;
+        return true;
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Skip the given number of records, returns false if there are not as
+    //  many left
+
+    public boolean skip (long records)
+    {
+        while (records-- > 0) {
+            if (!next ())
+                return false;
+        }
+        return true;
+    }
+
+    private int getLength (int at)
+    {
+        return ((data [at] & 0xff) << 24)
+            | ((data [at + 1] & 0xff) << 16)
+            | ((data [at + 2] & 0xff) << 8)
+            | (data [at + 3] & 0xff);
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Get the packed records and the current record
+
+    public byte [] data ()
+    {
+        return data;
+    }
+
+    public int size ()
+    {
+        return size;
+    }
+
+    public int count ()
+    {
+        return count;
+    }
+
+    public int offset ()
+    {
+        return offset;
+    }
+
+    public int length ()
+    {
+        return length;
+    }
+}
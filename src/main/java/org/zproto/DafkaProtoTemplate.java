@@ -0,0 +1,170 @@
+/*  =========================================================================
+    DafkaProtoTemplate - pre-encoded dafka_proto MSG header of one partition
+
+    A producer publishes every MSG of a partition with the same topic,
+    subject and address, only the sequence changes. The template encodes
+    the command frame once and patches the 8-byte sequence in place for
+    each message, so sending costs one sequence write, one copy of the
+    header into the outgoing message and the content frame, which is sent
+    as is. Batch templates patch the record count as well. The codec byte
+    stays as set until it is changed.
+
+    The header is copied because ZeroMQ queues messages and the template is
+    patched again for the next one. Content is sent without copying, except
+    for a DafkaProtoBatch whose buffer is reused, so it must not be modified
+    once sent. A template is not thread safe, use one per socket.
+    =========================================================================
+*/
+
+package org.zproto;
+
+import java.nio.ByteBuffer;
+
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Socket;
+
+public class DafkaProtoTemplate
+{
+    //  Structure of our class
+    private final char id;              //  DafkaProto message ID
+    private final byte [] header;       //  Encoded command frame
+    private final int sequenceOffset;   //  Offset of sequence in header
+    private final int codecOffset;      //  Offset of codec in header
+    private final boolean batch;        //  Header has a record count
+
+    //  --------------------------------------------------------------------------
+    //  Encode the command frame of a MSG, DIRECT_MSG, MSG_BATCH or
+    //  DIRECT_MSG_BATCH for one partition
+
+    public DafkaProtoTemplate (char id, byte [] topic, String subject, byte [] address)
+    {
+        assert (id == DafkaProto.MSG || id == DafkaProto.DIRECT_MSG
+            || id == DafkaProto.MSG_BATCH || id == DafkaProto.DIRECT_MSG_BATCH);
+        byte [] subjectData = subject.getBytes (ZMQ.CHARSET);
+        if (subjectData.length > 255)
+            throw new IllegalArgumentException ("Subject must fit into 255 bytes");
+        if (address.length != 16)
+            throw new IllegalArgumentException ("Address must be 16 bytes");
+
+        //  Message ID, topic and NULL, subject with 1-byte length, the 16-byte
+        //  address, the 8-byte sequence, batches add the 4-byte count, and the
+        //  codec
+        this.batch = id == DafkaProto.MSG_BATCH || id == DafkaProto.DIRECT_MSG_BATCH;
+        int frameSize = 1 + topic.length + 1;
+        frameSize += 1 + subjectData.length;
+        frameSize += address.length;
+        frameSize += batch ? 12 : 8;
+        frameSize += 1;
+
+        this.id = id;
+        this.header = new byte [frameSize];
+        int offset = 0;
+        header [offset++] = (byte) id;
+        System.arraycopy (topic, 0, header, offset, topic.length);
+        offset += topic.length;
+        header [offset++] = '\0';
+        header [offset++] = (byte) subjectData.length;
+        System.arraycopy (subjectData, 0, header, offset, subjectData.length);
+        offset += subjectData.length;
+        System.arraycopy (address, 0, header, offset, address.length);
+        offset += address.length;
+        this.sequenceOffset = offset;
+        this.codecOffset = frameSize - 1;
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Set the codec the content of the following messages is compressed with
+
+    public void setCodec (int codec)
+    {
+        header [codecOffset] = (byte) codec;
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Send a message of this partition with the given sequence. The content
+    //  frame is sent without copying and must not be modified afterwards.
+
+    public boolean send (Socket output, long sequence, ZFrame content)
+    {
+        assert (output != null);
+        assert (!batch);
+        putSequence (sequence);
+        if (!output.send (header, 0, header.length, ZMQ.SNDMORE))
+            return false;
+        return content.send (output, 0);
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Send a message of this partition with the remaining bytes of the
+    //  content, which may wrap a slice of an array or be direct, without
+    //  copying them. The content must not be modified afterwards.
+
+    public boolean send (Socket output, long sequence, ByteBuffer content)
+    {
+        assert (output != null);
+        assert (!batch);
+        putSequence (sequence);
+        if (!output.send (header, 0, header.length, ZMQ.SNDMORE))
+            return false;
+        return output.sendByteBuffer (DafkaProto.sendable (content), 0) >= 0;
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Send the records of a batch, the first one having the given sequence.
+    //  The packed records are copied, so the batch can be reset right away.
+
+    public boolean send (Socket output, long sequence, DafkaProtoBatch records)
+    {
+        assert (output != null);
+        assert (batch);
+        putSequence (sequence);
+        putCount (records.count ());
+        if (!output.send (header, 0, header.length, ZMQ.SNDMORE))
+            return false;
+        return output.send (records.data (), 0, records.size (), 0);
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Send count records already packed, and compressed with the codec of
+    //  the template, the first one having the given sequence. The content is
+    //  sent without copying and must not be modified afterwards.
+
+    public boolean send (Socket output, long sequence, long count, byte [] content, int offset, int length)
+    {
+        assert (output != null);
+        assert (batch);
+        putSequence (sequence);
+        putCount (count);
+        if (!output.send (header, 0, header.length, ZMQ.SNDMORE))
+            return false;
+        return output.sendByteBuffer (DafkaProto.sendable (ByteBuffer.wrap (content, offset, length)), 0) >= 0;
+    }
+
+    //  Patch the sequence into the header in network byte order
+    private void putSequence (long sequence)
+    {
+        for (int index = 7; index >= 0; index--) {
+            header [sequenceOffset + index] = (byte) sequence;
+            sequence >>>= 8;
+        }
+    }
+
+    //  Patch the record count into the header in network byte order
+    private void putCount (long count)
+    {
+        int offset = sequenceOffset + 8;
+        header [offset] = (byte) (count >>> 24);
+        header [offset + 1] = (byte) (count >>> 16);
+        header [offset + 2] = (byte) (count >>> 8);
+        header [offset + 3] = (byte) count;
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Get the dafka_proto id
+
+    public char id ()
+    {
+        return id;
+    }
+}
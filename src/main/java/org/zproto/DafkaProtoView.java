@@ -0,0 +1,328 @@
+/*  =========================================================================
+    DafkaProtoView - read-only view over received dafka_proto messages
+
+    Unlike DafkaProto, the view does not decode a message when it arrives.
+    It keeps the received frames as they are and only finds where each
+    field starts by walking the length prefixes. Accessors decode a field
+    from the raw bytes when they are called, and subject and address can be
+    compared against byte arrays without building a String. This lets the
+    hot routing decision (in order, duplicate or gap) look at id, sequence
+    and partition without decoding anything else.
+
+    A view is only valid until the next call to recv or wrap.
+    =========================================================================
+*/
+
+package org.zproto;
+
+import java.util.Arrays;
+
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Socket;
+
+import zmq.Msg;
+
+public class DafkaProtoView
+{
+    //  Addresses are 16 bytes without length
+    private static final int ADDRESS_SIZE = 16;
+
+    //  Structure of our class
+    private byte [] data;               //  Command frame as received
+    private int size;                   //  Number of valid bytes in data
+    private byte [] content;            //  Content frame as received, if any
+    private int topicSize;              //  Topic starts right after the id
+    private int subjectOffset;          //  Offset of subject length or -1
+    private int addressOffset;          //  Offset of address or -1
+    private int sequenceOffset;         //  Offset of sequence or -1
+    private int countOffset;            //  Offset of count or -1
+    private int codecOffset;            //  Offset of codec or -1
+
+    //  --------------------------------------------------------------------------
+    //  Receive a message from a pub/sub socket into this view without copying
+    //  or decoding it. Returns false if interrupted or if the message is
+    //  malformed. Will block if there's no message waiting.
+
+    public boolean recv (Socket input)
+    {
+        assert (input != null);
+        Msg frame = input.base ().recv (0);
+        if (frame == null)
+            return false;                //  Interrupted
+
+        byte [] data = frame.data ();
+        int size = frame.size ();
+        byte [] content = null;
+        //  Keep the first frame field and drop anything a newer peer added
+        boolean more = frame.hasMore ();
+        while (more) {
+            frame = input.base ().recv (0);
+            if (frame == null)
+                return false;            //  Interrupted
+            if (content == null)
+                content = frame.data ();
+            more = frame.hasMore ();
+        }
+        return wrap (data, size, content);
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Point this view at an encoded command frame and its content frame, if
+    //  any. Returns false if the frame is malformed.
+
+    public boolean wrap (byte [] data, int size, byte [] content)
+    {
+        this.data = data;
+        this.size = size;
+        this.content = content;
+        subjectOffset = -1;
+        addressOffset = -1;
+        sequenceOffset = -1;
+        countOffset = -1;
+        codecOffset = -1;
+
+        if (size < 2)
+            return false;
+        int offset = 1;
+        while (offset < size && data [offset] != '\0')
+            offset++;
+        if (offset == size)
+            return false;
+        topicSize = offset - 1;
+        offset++;
+
+        switch (id ()) {
+        case DafkaProto.MSG:
+        case DafkaProto.DIRECT_MSG:
+            if (content == null)
+                return false;
+            subjectOffset = offset;
+            offset = skipString (offset);
+            addressOffset = offset;
+            offset += ADDRESS_SIZE;
+            sequenceOffset = offset;
+            codecOffset = offset + 8;
+            offset += 9;
+            break;
+
+        case DafkaProto.HEAD:
+        case DafkaProto.DIRECT_HEAD:
+            subjectOffset = offset;
+            offset = skipString (offset);
+            addressOffset = offset;
+            offset += ADDRESS_SIZE;
+            sequenceOffset = offset;
+            offset += 8;
+            break;
+
+        case DafkaProto.MSG_BATCH:
+        case DafkaProto.DIRECT_MSG_BATCH:
+            if (content == null)
+                return false;
+            subjectOffset = offset;
+            offset = skipString (offset);
+            addressOffset = offset;
+            offset += ADDRESS_SIZE;
+            sequenceOffset = offset;
+            countOffset = offset + 8;
+            codecOffset = offset + 12;
+            offset += 13;
+            break;
+
+        case DafkaProto.FETCH:
+            subjectOffset = offset;
+            offset = skipString (offset);
+            sequenceOffset = offset;
+            countOffset = offset + 8;
+            offset += 12;
+            addressOffset = offset;
+            offset += ADDRESS_SIZE;
+            break;
+
+        case DafkaProto.ACK:
+            subjectOffset = offset;
+            offset = skipString (offset);
+            sequenceOffset = offset;
+            offset += 8;
+            addressOffset = offset;
+            offset += ADDRESS_SIZE;
+            break;
+
+        case DafkaProto.GET_HEADS:
+        case DafkaProto.CONSUMER_HELLO:
+        case DafkaProto.STORE_HELLO:
+            addressOffset = offset;
+            offset += ADDRESS_SIZE;
+            break;
+
+        default:
+            return false;
+        }
+        return offset <= size;
+    }
+
+    //  Return the offset after the string at offset, or past the end of the
+    //  frame if the string does not fit
+    private int skipString (int offset)
+    {
+        if (offset >= size)
+            return size + 1;
+        return offset + 1 + (data [offset] & 0xff);
+    }
+
+    //  Compare the string at offset with value, byte by byte
+    private boolean stringEquals (int offset, byte [] value)
+    {
+        if (offset < 0 || (data [offset] & 0xff) != value.length)
+            return false;
+        offset++;
+        for (int index = 0; index < value.length; index++) {
+            if (data [offset + index] != value [index])
+                return false;
+        }
+        return true;
+    }
+
+    //  Decode the string at offset, or return null if there is none
+    private String getString (int offset)
+    {
+        if (offset < 0)
+            return null;
+        return new String (data, offset + 1, data [offset] & 0xff, ZMQ.CHARSET);
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Get the dafka_proto id
+
+    public char id ()
+    {
+        return (char) (data [0] & 0xff);
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Get the topic the message was published with
+
+    public String topic ()
+    {
+        return new String (data, 1, topicSize, ZMQ.CHARSET);
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Get a copy of the topic the message was published with, or compare it
+    //  without copying
+
+    public byte [] topicData ()
+    {
+        return Arrays.copyOfRange (data, 1, 1 + topicSize);
+    }
+
+    public boolean topicEquals (byte [] topic)
+    {
+        if (topic.length != topicSize)
+            return false;
+        for (int index = 0; index < topicSize; index++) {
+            if (data [1 + index] != topic [index])
+                return false;
+        }
+        return true;
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Get the subject field, or compare it without decoding
+
+    public String subject ()
+    {
+        return getString (subjectOffset);
+    }
+
+    public boolean subjectEquals (byte [] subject)
+    {
+        return stringEquals (subjectOffset, subject);
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Hash subject and address in place, the same as partitionHash does with
+    //  the decoded fields, so a partition is looked up without decoding them
+
+    public int partitionHash ()
+    {
+        assert (subjectOffset >= 0 && addressOffset >= 0);
+        int hash = hash (1, data, subjectOffset + 1, data [subjectOffset] & 0xff);
+        return hash (hash, data, addressOffset, ADDRESS_SIZE);
+    }
+
+    public static int partitionHash (byte [] subject, byte [] address)
+    {
+        return hash (hash (1, subject, 0, subject.length), address, 0, address.length);
+    }
+
+    private static int hash (int hash, byte [] bytes, int offset, int length)
+    {
+        for (int index = offset; index < offset + length; index++)
+            hash = 31 * hash + bytes [index];
+        return hash;
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Get a copy of the address field, or compare it without copying
+
+    public byte [] address ()
+    {
+        if (addressOffset < 0)
+            return null;
+        return Arrays.copyOfRange (data, addressOffset, addressOffset + ADDRESS_SIZE);
+    }
+
+    public boolean addressEquals (byte [] address)
+    {
+        if (addressOffset < 0 || address.length != ADDRESS_SIZE)
+            return false;
+        for (int index = 0; index < ADDRESS_SIZE; index++) {
+            if (data [addressOffset + index] != address [index])
+                return false;
+        }
+        return true;
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Get the sequence field, the sequence of the first record of a batch
+
+    public long sequence ()
+    {
+        assert (sequenceOffset >= 0);
+        long value = 0;
+        for (int index = 0; index < 8; index++)
+            value = (value << 8) | (data [sequenceOffset + index] & 0xff);
+        return value;
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Get the count field, the number of records of a batch or fetch
+
+    public long count ()
+    {
+        assert (countOffset >= 0);
+        long value = 0;
+        for (int index = 0; index < 4; index++)
+            value = (value << 8) | (data [countOffset + index] & 0xff);
+        return value;
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Get the codec the content is compressed with
+
+    public int codec ()
+    {
+        assert (codecOffset >= 0);
+        return data [codecOffset] & 0xff;
+    }
+
+    //  --------------------------------------------------------------------------
+    //  Get the content field. The array belongs to the received message and
+    //  is not copied.
+
+    public byte [] content ()
+    {
+        return content;
+    }
+}
@@ -0,0 +1,61 @@
+package org.zeromq.dafka;
+
+import java.util.Properties;
+import org.zeromq.SocketType;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMsg;
+
+/**
+ * Tower for tests, forwarding beacons between actors of the same context until the context is closed.
+ */
+final class DafkaTestTower {
+
+  private DafkaTestTower() {
+  }
+
+  /**
+   * Starts a tower on random ports.
+   *
+   * @return the properties connecting beacons to the tower
+   */
+  static Properties start(ZContext context) {
+    Socket xsub = context.createSocket(SocketType.XSUB);
+    Socket xpub = context.createSocket(SocketType.XPUB);
+    xpub.setXpubVerbose(true);
+    Properties properties = new Properties();
+    properties.setProperty("beacon.sub_address", "tcp://127.0.0.1:" + xsub.bindToRandomPort("tcp://127.0.0.1"));
+    properties.setProperty("beacon.pub_address", "tcp://127.0.0.1:" + xpub.bindToRandomPort("tcp://127.0.0.1"));
+    Thread tower = new Thread(() -> forward(context, xsub, xpub));
+    tower.setDaemon(true);
+    tower.start();
+    return properties;
+  }
+
+  /**
+   * Forwards beacons between the sockets, welcoming every beacon subscribing.
+   */
+  private static void forward(ZContext context, Socket xsub, Socket xpub) {
+    // Subscribes to all beacons
+    xsub.send(new byte[]{1});
+    ZMQ.Poller poller = context.createPoller(2);
+    poller.register(xsub, ZMQ.Poller.POLLIN);
+    poller.register(xpub, ZMQ.Poller.POLLIN);
+    try {
+      while (poller.poll(100) >= 0) {
+        if (poller.pollin(0)) {
+          ZMsg.recvMsg(xsub).send(xpub);
+        }
+        if (poller.pollin(1)) {
+          byte[] subscription = xpub.recv();
+          if (subscription.length == 2 && subscription[0] == 1 && subscription[1] == 'W') {
+            xpub.send("W");
+          }
+        }
+      }
+    } catch (RuntimeException closed) {
+      // The context is closed
+    }
+  }
+}
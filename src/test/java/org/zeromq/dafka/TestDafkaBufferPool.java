@@ -0,0 +1,71 @@
+package org.zeromq.dafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class TestDafkaBufferPool {
+
+  @Test
+  public void testSizeClasses() {
+    DafkaBufferPool pool = new DafkaBufferPool(false);
+
+    ByteBuffer small = pool.acquire(10);
+    assertEquals(0, small.position());
+    assertEquals(10, small.limit());
+    assertEquals(DafkaBufferPool.MIN_SIZE, small.capacity());
+    ByteBuffer large = pool.acquire(65537);
+    assertEquals(128 * 1024, large.capacity());
+    assertEquals(2, pool.misses());
+
+    // A released buffer serves any size of its class, cleared
+    large.put((byte) 1).flip();
+    pool.release(large);
+    ByteBuffer again = pool.acquire(100000);
+    assertSame(large, again);
+    assertEquals(0, again.position());
+    assertEquals(100000, again.limit());
+    assertEquals(1, pool.hits());
+
+    // Sizes beyond the largest class are allocated exactly and never pooled
+    ByteBuffer huge = pool.acquire(DafkaBufferPool.MAX_SIZE + 1);
+    assertEquals(DafkaBufferPool.MAX_SIZE + 1, huge.capacity());
+    pool.release(huge);
+    assertNotSame(huge, pool.acquire(DafkaBufferPool.MAX_SIZE + 1));
+    assertEquals(4, pool.misses());
+  }
+
+  @Test
+  public void testRelease() {
+    DafkaBufferPool pool = new DafkaBufferPool(true, 0);
+    assertTrue(pool.acquire(1000).isDirect());
+
+    // Every class keeps a bounded number of free buffers
+    ByteBuffer[] buffers = new ByteBuffer[3];
+    for (int index = 0; index < buffers.length; index++) {
+      buffers[index] = pool.acquire(1000);
+    }
+    for (ByteBuffer buffer : buffers) {
+      pool.release(buffer);
+    }
+    pool.acquire(1000);
+    pool.acquire(1000);
+    assertEquals(2, pool.hits());
+    pool.acquire(1000);
+    assertEquals(5, pool.misses());
+
+    // Buffers that do not come from a pool of the kind are ignored
+    pool.release(ByteBuffer.allocate(1024));
+    pool.release(ByteBuffer.allocateDirect(1000));
+    pool.release(null);
+    pool.acquire(1000);
+    assertEquals(6, pool.misses());
+
+    assertNull(DafkaBufferPool.create("none"));
+  }
+}
@@ -0,0 +1,95 @@
+package org.zeromq.dafka;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestDafkaCheckpoint {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testResume() throws IOException {
+    Path path = folder.getRoot().toPath().resolve("producer.identity");
+    byte[] first;
+    byte[] second;
+    try (DafkaCheckpoint checkpoint = DafkaCheckpoint.open(path, 2)) {
+      first = checkpoint.address(0);
+      second = checkpoint.address(1);
+      assertFalse(Arrays.equals(first, second));
+      assertEquals(0, checkpoint.sequence(0));
+      checkpoint.sequence(0, 42);
+      checkpoint.sequence(1, 7);
+    }
+
+    // A restart with more partitions keeps the existing ones
+    try (DafkaCheckpoint checkpoint = DafkaCheckpoint.open(path, 3)) {
+      assertArrayEquals(first, checkpoint.address(0));
+      assertArrayEquals(second, checkpoint.address(1));
+      assertEquals(42, checkpoint.sequence(0));
+      assertEquals(7, checkpoint.sequence(1));
+      assertEquals(0, checkpoint.sequence(2));
+      assertFalse(Arrays.equals(first, checkpoint.address(2)));
+    }
+  }
+
+  @Test
+  public void testReserve() throws IOException {
+    Path path = folder.getRoot().toPath().resolve("producer.identity");
+    Path crashed = folder.getRoot().toPath().resolve("crashed.identity");
+    try (DafkaCheckpoint checkpoint = DafkaCheckpoint.open(path, 1)) {
+      checkpoint.reserve(0, 100);
+      checkpoint.sequence(0, 42);
+      assertEquals(100, checkpoint.reserved(0));
+      // The file as a crash leaves it
+      Files.copy(path, crashed);
+    }
+
+    // A crash leaves the reservation, a restart resumes beyond every sequence used
+    try (DafkaCheckpoint restarted = DafkaCheckpoint.open(crashed, 1)) {
+      assertEquals(42, restarted.sequence(0));
+      assertEquals(100, restarted.reserved(0));
+    }
+    // Closing gives back the sequences not used
+    try (DafkaCheckpoint restarted = DafkaCheckpoint.open(crashed, 1)) {
+      assertEquals(42, restarted.reserved(0));
+    }
+    try (DafkaCheckpoint restarted = DafkaCheckpoint.open(path, 1)) {
+      assertEquals(42, restarted.reserved(0));
+    }
+  }
+
+  @Test
+  public void testLocked() throws IOException {
+    Path path = folder.getRoot().toPath().resolve("producer.identity");
+    try (DafkaCheckpoint checkpoint = DafkaCheckpoint.open(path, 1)) {
+      checkpoint.sequence(0, 42);
+      try {
+        DafkaCheckpoint.open(path, 1);
+        fail();
+      } catch (IOException expected) {
+        assertTrue(expected.getMessage().contains("in use"));
+      }
+    }
+    // The lock goes with the producer
+    DafkaCheckpoint.open(path, 1).close();
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotIdentity() throws IOException {
+    Path path = folder.getRoot().toPath().resolve("other");
+    Files.write(path, "Life is short but Now lasts for ever".getBytes("UTF-8"));
+    DafkaCheckpoint.open(path, 1);
+  }
+}
@@ -0,0 +1,88 @@
+package org.zeromq.dafka;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+public class TestDafkaCompressors {
+
+  @Test
+  public void testDeflate() {
+    DafkaCompressor compressor = DafkaCompressors.create("deflate");
+    assertEquals(DafkaCompressors.DEFLATE, compressor.codec());
+
+    StringBuilder records = new StringBuilder();
+    for (int index = 0; index < 100; index++) {
+      records.append("{\"id\":").append(index).append(",\"name\":\"Carpe Diem\"}");
+    }
+    byte[] data = records.toString().getBytes(ZMQ.CHARSET);
+
+    // The same compressor is reused for every record
+    for (int round = 0; round < 2; round++) {
+      byte[] compressed = compressor.compress(data, 0, data.length);
+      assertTrue(compressed.length * 4 < data.length);
+      assertArrayEquals(data, DafkaCompressors.create(DafkaCompressors.DEFLATE)
+          .decompress(compressed, 0, compressed.length));
+    }
+
+    byte[] empty = compressor.compress(data, 0, 0);
+    assertEquals(0, compressor.decompress(empty, 0, empty.length).length);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDeflateCorrupted() {
+    DafkaCompressor compressor = DafkaCompressors.create(DafkaCompressors.DEFLATE);
+    byte[] data = "Captcha Diem".getBytes(ZMQ.CHARSET);
+    byte[] compressed = compressor.compress(data, 0, data.length);
+    compressor.decompress(compressed, 0, compressed.length / 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDeflateLimit() {
+    DafkaCompressor compressor = DafkaCompressors.create(DafkaCompressors.DEFLATE);
+    byte[] data = "Carpe Diem".getBytes(ZMQ.CHARSET);
+    byte[] compressed = compressor.compress(data, 0, data.length);
+    assertArrayEquals(data, compressor.decompress(compressed, 0, compressed.length, data.length));
+
+    // A length prefix claiming 2 GiB is rejected before anything is allocated
+    compressed[0] = 0x7f;
+    compressor.decompress(compressed, 0, compressed.length, data.length);
+  }
+
+  @Test
+  public void testRegister() {
+    assertNull(DafkaCompressors.create(42));
+
+    DafkaCompressors.register(42, "reverse", () -> new DafkaCompressor() {
+      @Override
+      public int codec() {
+        return 42;
+      }
+
+      @Override
+      public byte[] compress(byte[] data, int offset, int length) {
+        byte[] result = new byte[length];
+        for (int index = 0; index < length; index++) {
+          result[index] = data[offset + length - 1 - index];
+        }
+        return result;
+      }
+
+      @Override
+      public byte[] decompress(byte[] data, int offset, int length) {
+        return compress(data, offset, length);
+      }
+    });
+
+    DafkaCompressor compressor = DafkaCompressors.create("reverse");
+    byte[] compressed = compressor.compress("Carpe Diem".getBytes(ZMQ.CHARSET), 0, 10);
+    assertEquals("meiD epraC", new String(compressed, ZMQ.CHARSET));
+    assertTrue(Arrays.equals("Carpe Diem".getBytes(ZMQ.CHARSET),
+        DafkaCompressors.create(42).decompress(compressed, 0, compressed.length)));
+  }
+}
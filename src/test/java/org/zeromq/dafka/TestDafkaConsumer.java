@@ -0,0 +1,98 @@
+package org.zeromq.dafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZActor;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+public class TestDafkaConsumer {
+
+  private ZContext context;
+  private Properties properties;
+
+  @Before
+  public void setUp() {
+    context = new ZContext();
+    properties = DafkaTestTower.start(context);
+    properties.setProperty("producer.acks", "0");
+    properties.setProperty("producer.compression", "deflate");
+    properties.setProperty("producer.chunk.bytes", "0");
+    properties.setProperty("consumer.offset.reset", "earliest");
+    properties.setProperty("consumer.message.max.bytes", "1000");
+  }
+
+  @After
+  public void tearDown() {
+    context.close();
+  }
+
+  @Test
+  public void testUndeliverable() throws Exception {
+    DafkaProducer producer = new DafkaProducer();
+    ZActor producerActor = new ZActor(context, producer, null, "HELLO", properties);
+    producerActor.pipe().recv();
+    DafkaConsumer consumer = new DafkaConsumer();
+    ZActor consumerActor = new ZActor(context, consumer, null, properties);
+    consumerActor.pipe().recv();
+    consumer.subscribe(consumerActor, "HELLO");
+
+    // Decompresses to more than the consumer takes, and goes out before the next record rather than in a batch with it
+    producer.publish(producerActor, new byte[5000]).get(5, TimeUnit.SECONDS);
+    producer.publish(producerActor, "Carpe Diem".getBytes(ZMQ.CHARSET));
+
+    assertUndeliverable(consumer.receive(consumerActor, 5000));
+    // The partition moved on rather than fetching the record again and again
+    assertContent("Carpe Diem", consumer.receive(consumerActor, 5000));
+
+    consumer.terminate(consumerActor);
+    producer.terminate(producerActor);
+  }
+
+  @Test
+  public void testUndeliverableBatch() throws Exception {
+    properties.setProperty("producer.linger.ms", "50");
+    DafkaProducer producer = new DafkaProducer();
+    ZActor producerActor = new ZActor(context, producer, null, "HELLO", properties);
+    producerActor.pipe().recv();
+    DafkaConsumer consumer = new DafkaConsumer();
+    ZActor consumerActor = new ZActor(context, consumer, null, properties);
+    consumerActor.pipe().recv();
+    consumer.subscribe(consumerActor, "HELLO");
+
+    // Lingering together in a batch decompressing to more than the consumer takes
+    producer.publish(producerActor, new byte[5000]);
+    producer.publish(producerActor, new byte[10]).get(5, TimeUnit.SECONDS);
+    producer.publish(producerActor, "Carpe Diem".getBytes(ZMQ.CHARSET));
+
+    // The records of the batch are received as one
+    assertUndeliverable(consumer.receive(consumerActor, 5000));
+    assertContent("Carpe Diem", consumer.receive(consumerActor, 5000));
+
+    consumer.terminate(consumerActor);
+    producer.terminate(producerActor);
+  }
+
+  private static void assertUndeliverable(DafkaRecord record) {
+    assertNotNull(record);
+    assertTrue(record.chunked());
+    assertNull(record.content());
+  }
+
+  private static void assertContent(String expected, DafkaRecord record) {
+    assertNotNull(record);
+    ByteBuffer content = record.content();
+    byte[] data = new byte[content.remaining()];
+    content.get(data);
+    assertEquals(expected, new String(data, ZMQ.CHARSET));
+  }
+}
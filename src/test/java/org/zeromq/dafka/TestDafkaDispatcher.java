@@ -0,0 +1,74 @@
+package org.zeromq.dafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class TestDafkaDispatcher {
+
+  private static final int PARTITIONS = 16;
+  private static final int RECORDS = 10000;
+
+  @Test
+  public void testOrder() throws InterruptedException {
+    byte[][] addresses = new byte[PARTITIONS][];
+    for (int partition = 0; partition < PARTITIONS; partition++) {
+      addresses[partition] = DafkaAddress.random();
+    }
+    // Records of all partitions interleaved, delivered in batches of 100
+    ConcurrentLinkedQueue<List<DafkaRecord>> batches = new ConcurrentLinkedQueue<>();
+    List<DafkaRecord> batch = new ArrayList<>();
+    for (int index = 0; index < RECORDS; index++) {
+      ByteBuffer content = ByteBuffer.allocate(4).putInt(0, index / PARTITIONS);
+      batch.add(new DafkaRecord("HELLO", addresses[index % PARTITIONS], content, null));
+      if (batch.size() == 100) {
+        batches.add(batch);
+        batch = new ArrayList<>();
+      }
+    }
+
+    Map<String, Integer> next = new ConcurrentHashMap<>();
+    Map<String, Thread> threads = new ConcurrentHashMap<>();
+    AtomicInteger handled = new AtomicInteger();
+    AtomicInteger disordered = new AtomicInteger();
+    DafkaDispatcher.Source source = timeout -> {
+      List<DafkaRecord> records = batches.poll();
+      return records == null ? Collections.emptyList() : records;
+    };
+    DafkaDispatcher dispatcher = new DafkaDispatcher(source, 4, 64, record -> {
+      String partition = DafkaAddress.toString(record.address());
+      int expected = next.getOrDefault(partition, 0);
+      Thread previous = threads.putIfAbsent(partition, Thread.currentThread());
+      if (record.content().getInt(0) != expected || previous != null && previous != Thread.currentThread()) {
+        disordered.incrementAndGet();
+      }
+      next.put(partition, expected + 1);
+      handled.incrementAndGet();
+    });
+    dispatcher.start();
+    while (!batches.isEmpty()) {
+      Thread.sleep(10);
+    }
+    dispatcher.close();
+
+    assertEquals(RECORDS, handled.get());
+    assertEquals(0, disordered.get());
+    long dispatched = 0;
+    for (int worker = 0; worker < dispatcher.workers(); worker++) {
+      dispatched += dispatcher.dispatched(worker);
+      assertEquals(0, dispatcher.depth(worker));
+      // The record being handled left the queue already
+      assertTrue(dispatcher.peakDepth(worker) <= 64 + 1);
+    }
+    assertEquals(RECORDS, dispatched);
+  }
+}
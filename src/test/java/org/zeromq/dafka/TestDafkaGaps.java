@@ -0,0 +1,77 @@
+package org.zeromq.dafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class TestDafkaGaps {
+
+  private final DafkaPartitions partitions = new DafkaPartitions();
+  private final List<long[]> fetches = new ArrayList<>();
+  private final int partition = partitions.add("HELLO", DafkaAddress.random(), 0);
+
+  @Test
+  public void testCoalesce() {
+    DafkaGaps gaps = new DafkaGaps(partitions, this::fetch, 2, 1000, 1000);
+
+    // A lost burst, then live messages dropped while it is fetched
+    gaps.missing(partition, 10000);
+    for (long sequence = 10001; sequence <= 10500; sequence++) {
+      gaps.missing(partition, sequence);
+    }
+    assertEquals(2, fetches.size());
+    assertFetch(0, 0, 10001);
+    assertFetch(1, 10001, 1);
+
+    // Once everything asked for arrived, the rest is asked for at once
+    for (long sequence = 0; sequence <= 10001; sequence++) {
+      deliver(gaps, sequence);
+    }
+    assertEquals(3, fetches.size());
+    assertFetch(2, 10002, 499);
+
+    for (long sequence = 10002; sequence <= 10500; sequence++) {
+      deliver(gaps, sequence);
+    }
+    assertEquals(3, gaps.requests());
+    assertEquals(-1, gaps.timeout());
+  }
+
+  @Test
+  public void testRetry() throws InterruptedException {
+    DafkaGaps gaps = new DafkaGaps(partitions, this::fetch, 2, 10, 1000);
+    gaps.missing(partition, 99);
+    deliver(gaps, 0);
+    assertTrue(gaps.timeout() >= 0);
+
+    // Progress since the FETCH, no retry yet
+    Thread.sleep(20);
+    gaps.execute();
+    assertEquals(1, fetches.size());
+
+    // Nothing arrived for a whole interval, the whole gap is asked for again
+    Thread.sleep(20);
+    gaps.execute();
+    assertEquals(2, fetches.size());
+    assertFetch(1, 1, 99);
+    // Backing off
+    assertTrue(gaps.timeout() > 10);
+  }
+
+  private void deliver(DafkaGaps gaps, long sequence) {
+    partitions.nextSequence(partition, sequence + 1);
+    gaps.delivered(partition);
+  }
+
+  private void fetch(int partition, long sequence, long count) {
+    fetches.add(new long[]{sequence, count});
+  }
+
+  private void assertFetch(int index, long sequence, long count) {
+    assertEquals(sequence, fetches.get(index)[0]);
+    assertEquals(count, fetches.get(index)[1]);
+  }
+}
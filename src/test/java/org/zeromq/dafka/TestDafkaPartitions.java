@@ -0,0 +1,71 @@
+package org.zeromq.dafka;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+import org.zproto.DafkaProto;
+import org.zproto.DafkaProtoView;
+
+public class TestDafkaPartitions {
+
+  @Test
+  public void testLookup() {
+    DafkaPartitions partitions = new DafkaPartitions();
+    int count = 10000;
+    byte[][] addresses = new byte[count][];
+    for (int index = 0; index < count; index++) {
+      addresses[index] = DafkaAddress.random();
+      // Ids are interned in the order partitions are added, across growing the table
+      assertEquals(index, partitions.add("HELLO" + index % 3, addresses[index], index));
+    }
+    assertEquals(count, partitions.size());
+
+    DafkaProtoView view = new DafkaProtoView();
+    for (int index = 0; index < count; index++) {
+      String subject = "HELLO" + index % 3;
+      assertEquals(index, partitions.lookup(subject, addresses[index]));
+      byte[] frame = msg(subject, addresses[index]);
+      assertTrue(view.wrap(frame, frame.length, new byte[0]));
+      assertEquals(index, partitions.lookup(view));
+      assertEquals(index, partitions.nextSequence(index));
+    }
+
+    // Same address, other subject
+    assertEquals(-1, partitions.lookup("HELLO4", addresses[0]));
+    assertEquals(-1, partitions.lookup("HELLO0", DafkaAddress.random()));
+  }
+
+  @Test
+  public void testState() {
+    DafkaPartitions partitions = new DafkaPartitions();
+    byte[] address = DafkaAddress.random();
+    int partition = partitions.add("HELLO", address, 42);
+    assertEquals("HELLO", partitions.subject(partition));
+    assertArrayEquals("HELLO".getBytes(ZMQ.CHARSET), partitions.subjectData(partition));
+    assertArrayEquals(address, partitions.address(partition));
+
+    partitions.nextSequence(partition, 43);
+    assertEquals(43, partitions.nextSequence(partition));
+    assertFalse(partitions.chunked(partition));
+    partitions.chunked(partition, true);
+    assertTrue(partitions.chunked(partition));
+  }
+
+  /**
+   * Encodes the command frame of a MSG.
+   */
+  private static byte[] msg(String subject, byte[] address) {
+    byte[] subjectData = subject.getBytes(ZMQ.CHARSET);
+    ByteBuffer frame = ByteBuffer.allocate(8 + subjectData.length + DafkaAddress.SIZE + 9);
+    frame.put((byte) DafkaProto.MSG).put("TOPIC".getBytes(ZMQ.CHARSET)).put((byte) 0);
+    frame.put((byte) subjectData.length).put(subjectData);
+    frame.put(address);
+    frame.putLong(0).put((byte) 0);
+    return frame.array();
+  }
+}
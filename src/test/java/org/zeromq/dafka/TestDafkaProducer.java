@@ -0,0 +1,485 @@
+package org.zeromq.dafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.zeromq.SocketType;
+import org.zeromq.ZActor;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ.Socket;
+import org.zproto.DafkaProto;
+import org.zproto.DafkaProtoView;
+
+public class TestDafkaProducer {
+
+  // Milliseconds the producer is given to send the records published or handle the acknowledgements received
+  private static final long SENT_MS = 200;
+
+  // Blank lines are skipped and carriage returns dropped, the last line ends the input without a line feed
+  private static final String LINES = "Hello\r\n\n  \nWorld\nCarpe Diem";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private ZContext context;
+  private Properties properties;
+  private final List<Runnable> stops = new ArrayList<>();
+
+  @Before
+  public void setUp() {
+    context = new ZContext();
+    properties = DafkaTestTower.start(context);
+  }
+
+  @After
+  public void tearDown() {
+    for (Runnable stop : stops) {
+      stop.run();
+    }
+    context.close();
+  }
+
+  @Test
+  public void testAcknowledged() throws Exception {
+    properties.setProperty("producer.acks", "1");
+    DafkaProducer producer = new DafkaProducer();
+    ZActor actor = new ZActor(context, producer, null, "HELLO", properties);
+    actor.pipe().recv();
+    Socket store = store();
+    byte[] partition = producer.address(0);
+    byte[] address = DafkaAddress.random();
+
+    List<CompletableFuture<Long>> futures = new ArrayList<>();
+    for (int index = 0; index < 3; index++) {
+      futures.add(producer.publish(actor, new byte[10]));
+    }
+    Thread.sleep(SENT_MS);
+    assertFalse(futures.get(0).isDone());
+
+    // An acknowledgement covers every record up to its sequence, each future completing with the sequence stored
+    ack(store, partition, address, 1);
+    assertEquals(0, (long) futures.get(0).get(5, TimeUnit.SECONDS));
+    assertEquals(1, (long) futures.get(1).get(5, TimeUnit.SECONDS));
+    Thread.sleep(SENT_MS);
+    assertFalse(futures.get(2).isDone());
+
+    ack(store, partition, address, 2);
+    assertEquals(2, (long) futures.get(2).get(5, TimeUnit.SECONDS));
+    producer.terminate(actor);
+  }
+
+  @Test
+  public void testQuorum() throws Exception {
+    properties.setProperty("producer.acks", "2");
+    DafkaProducer producer = new DafkaProducer();
+    ZActor actor = new ZActor(context, producer, null, "HELLO", properties);
+    actor.pipe().recv();
+    Socket store = store();
+    byte[] partition = producer.address(0);
+    byte[] first = DafkaAddress.random();
+    byte[] second = DafkaAddress.random();
+
+    CompletableFuture<Long> record = producer.publish(actor, new byte[10]);
+    CompletableFuture<Long> next = producer.publish(actor, new byte[10]);
+    Thread.sleep(SENT_MS);
+
+    // A store acknowledging twice is still one store
+    ack(store, partition, first, 1);
+    ack(store, partition, first, 1);
+    Thread.sleep(SENT_MS);
+    assertFalse(record.isDone());
+
+    // Both stores stored the first record, only one of them the next
+    ack(store, partition, second, 0);
+    assertEquals(0, (long) record.get(5, TimeUnit.SECONDS));
+    assertFalse(next.isDone());
+    producer.terminate(actor);
+  }
+
+  @Test
+  public void testQuorumWatermarks() throws Exception {
+    properties.setProperty("producer.acks", "2");
+    DafkaProducer producer = new DafkaProducer();
+    ZActor actor = new ZActor(context, producer, null, "HELLO", properties);
+    actor.pipe().recv();
+    Socket store = store();
+    byte[] partition = producer.address(0);
+    byte[] first = DafkaAddress.random();
+    byte[] second = DafkaAddress.random();
+
+    List<CompletableFuture<Long>> futures = new ArrayList<>();
+    for (int index = 0; index < 4; index++) {
+      futures.add(producer.publish(actor, new byte[10]));
+    }
+    Thread.sleep(SENT_MS);
+
+    ack(store, partition, first, 3);
+    ack(store, partition, second, 1);
+    assertEquals(1, (long) futures.get(1).get(5, TimeUnit.SECONDS));
+    assertFalse(futures.get(2).isDone());
+
+    // An acknowledgement older than the last one of the store does not lower its watermark
+    ack(store, partition, first, 0);
+    ack(store, partition, second, 3);
+    assertEquals(3, (long) futures.get(3).get(5, TimeUnit.SECONDS));
+    producer.terminate(actor);
+  }
+
+  @Test
+  public void testQuorumManyStores() throws Exception {
+    properties.setProperty("producer.acks", "2");
+    DafkaProducer producer = new DafkaProducer();
+    ZActor actor = new ZActor(context, producer, null, "HELLO", properties);
+    actor.pipe().recv();
+    Socket store = store();
+    byte[] partition = producer.address(0);
+
+    CompletableFuture<Long> record = producer.publish(actor, new byte[10]);
+    CompletableFuture<Long> next = producer.publish(actor, new byte[10]);
+    Thread.sleep(SENT_MS);
+
+    // More stores than the producer remembers
+    for (int index = 0; index < 100; index++) {
+      ack(store, partition, DafkaAddress.random(), 0);
+    }
+    assertEquals(0, (long) record.get(5, TimeUnit.SECONDS));
+
+    // New stores replace those lagging the most
+    ack(store, partition, DafkaAddress.random(), 1);
+    ack(store, partition, DafkaAddress.random(), 1);
+    assertEquals(1, (long) next.get(5, TimeUnit.SECONDS));
+    producer.terminate(actor);
+  }
+
+  @Test
+  public void testArraysNotPooled() throws Exception {
+    properties.setProperty("producer.acks", "0");
+    // Records are packed into a batch, after which their content is no longer needed
+    properties.setProperty("producer.linger.ms", "20");
+    DafkaProducer producer = new DafkaProducer();
+    ZActor actor = new ZActor(context, producer, null, "HELLO", properties);
+    actor.pipe().recv();
+
+    byte[] array = new byte[1024];
+    producer.publish(actor, array).get(5, TimeUnit.SECONDS);
+    ByteBuffer buffer = producer.acquire(1024);
+    assertNotSame(array, buffer.array());
+
+    // Buffers of the pool go back to it
+    producer.publish(actor, buffer).get(5, TimeUnit.SECONDS);
+    assertSame(buffer, producer.acquire(1024));
+    producer.terminate(actor);
+  }
+
+  @Test
+  public void testWindowReleasedOnFailure() throws Exception {
+    properties.setProperty("producer.window.messages", "10");
+    DafkaProducer producer = new DafkaProducer();
+    ZActor actor = new ZActor(context, producer, null, "HELLO", properties);
+    actor.pipe().recv();
+
+    // No store ever acknowledges them
+    List<CompletableFuture<Long>> futures = new ArrayList<>();
+    for (int index = 0; index < 3; index++) {
+      futures.add(producer.publish(actor, new byte[10]));
+    }
+    Thread.sleep(SENT_MS);
+    assertEquals(3, producer.window().messages());
+
+    producer.terminate(actor);
+    for (CompletableFuture<Long> future : futures) {
+      try {
+        future.get(5, TimeUnit.SECONDS);
+        fail();
+      } catch (ExecutionException expected) {
+        assertTrue(expected.getCause() instanceof IllegalStateException);
+      }
+    }
+    assertEquals(0, producer.window().messages());
+    assertEquals(0, producer.window().bytes());
+  }
+
+  @Test
+  public void testChunksSmallerThanBatches() throws Exception {
+    properties.setProperty("producer.acks", "0");
+    properties.setProperty("producer.chunk.bytes", "100");
+    properties.setProperty("producer.batch.bytes", "1000");
+    // Records wait for a batch rather than going out on their own
+    properties.setProperty("producer.linger.ms", "20");
+    DafkaProducer producer = new DafkaProducer();
+    ZActor actor = new ZActor(context, producer, null, "HELLO", properties);
+    actor.pipe().recv();
+
+    // Records of 3 and 2 chunks fitting into a batch take a sequence per chunk
+    int[] sizes = {10, 250, 10, 150, 10};
+    List<CompletableFuture<Long>> futures = new ArrayList<>();
+    for (int size : sizes) {
+      futures.add(producer.publish(actor, new byte[size]));
+    }
+    long[] sequences = {0, 1, 4, 5, 7};
+    for (int index = 0; index < sizes.length; index++) {
+      assertEquals(sequences[index], (long) futures.get(index).get(5, TimeUnit.SECONDS));
+    }
+    producer.terminate(actor);
+  }
+
+  @Test
+  public void testLinger() throws Exception {
+    properties.setProperty("producer.acks", "0");
+    properties.setProperty("producer.linger.ms", "100");
+    DafkaProducer producer = new DafkaProducer();
+    ZActor actor = new ZActor(context, producer, null, "HELLO", properties);
+    actor.pipe().recv();
+    Socket subscriber = subscriber(DafkaProto.MSG, DafkaProto.MSG_BATCH);
+
+    // Records far smaller than a batch go out together once the first one lingered long enough
+    long start = System.nanoTime();
+    for (int index = 0; index < 3; index++) {
+      producer.publish(actor, new byte[10]);
+    }
+    DafkaProtoView view = new DafkaProtoView();
+    assertTrue(view.recv(subscriber));
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertEquals(DafkaProto.MSG_BATCH, view.id());
+    assertEquals(0, view.sequence());
+    assertEquals(3, view.count());
+    assertTrue("Sent after " + elapsed + " ms", elapsed >= 90);
+    producer.terminate(actor);
+  }
+
+  @Test
+  public void testBatchBytes() throws Exception {
+    properties.setProperty("producer.acks", "0");
+    properties.setProperty("producer.linger.ms", "60000");
+    properties.setProperty("producer.batch.bytes", "100");
+    DafkaProducer producer = new DafkaProducer();
+    ZActor actor = new ZActor(context, producer, null, "HELLO", properties);
+    actor.pipe().recv();
+    Socket subscriber = subscriber(DafkaProto.MSG, DafkaProto.MSG_BATCH);
+
+    // A record not fitting into the batch anymore sends it, long before it lingered enough
+    List<CompletableFuture<Long>> futures = new ArrayList<>();
+    for (int index = 0; index < 3; index++) {
+      futures.add(producer.publish(actor, new byte[30]));
+    }
+    DafkaProtoView view = new DafkaProtoView();
+    assertTrue(view.recv(subscriber));
+    assertEquals(DafkaProto.MSG_BATCH, view.id());
+    assertEquals(0, view.sequence());
+    assertEquals(2, view.count());
+    assertEquals(1, (long) futures.get(1).get(5, TimeUnit.SECONDS));
+    Thread.sleep(SENT_MS);
+    assertFalse(futures.get(2).isDone());
+    producer.terminate(actor);
+  }
+
+  @Test
+  public void testPartitions() throws Exception {
+    properties.setProperty("producer.acks", "0");
+    properties.setProperty("producer.partitions", "3");
+    DafkaProducer producer = new DafkaProducer();
+    ZActor actor = new ZActor(context, producer, null, "HELLO", properties);
+    actor.pipe().recv();
+    assertEquals(3, producer.partitions());
+
+    // Records of a key all go to the same partition, one after the other
+    byte[] key = "key".getBytes(StandardCharsets.UTF_8);
+    for (int index = 0; index < 3; index++) {
+      assertEquals(index, (long) producer.publish(actor, key, new byte[10]).get(5, TimeUnit.SECONDS));
+    }
+
+    // Records without a key go to each partition in turn, the one of the key having taken 3 records already
+    int keyed = Math.floorMod(Arrays.hashCode(key), 3);
+    for (int round = 0; round < 2; round++) {
+      for (int partition = 0; partition < 3; partition++) {
+        long sequence = producer.publish(actor, new byte[10]).get(5, TimeUnit.SECONDS);
+        assertEquals(partition == keyed ? 3 + round : round, sequence);
+      }
+    }
+    producer.terminate(actor);
+  }
+
+  @Test
+  public void testHeadBackoff() throws Exception {
+    properties.setProperty("producer.acks", "0");
+    properties.setProperty("producer.head.min.ms", "20");
+    properties.setProperty("producer.head.max.ms", "400");
+    DafkaProducer producer = new DafkaProducer();
+    ZActor actor = new ZActor(context, producer, null, "HELLO", properties);
+    actor.pipe().recv();
+    Socket subscriber = subscriber(DafkaProto.HEAD);
+    producer.publish(actor, new byte[10]).get(5, TimeUnit.SECONDS);
+
+    // HEAD follows the record soon, then less and less often while the partition is idle, up to the maximum
+    DafkaProtoView view = new DafkaProtoView();
+    assertTrue(view.recv(subscriber));
+    assertEquals(0, view.sequence());
+    List<Long> gaps = new ArrayList<>();
+    long last = System.nanoTime();
+    while (gaps.size() < 5) {
+      assertTrue(view.recv(subscriber));
+      long now = System.nanoTime();
+      gaps.add(TimeUnit.NANOSECONDS.toMillis(now - last));
+      last = now;
+    }
+    assertTrue("HEADs after " + gaps + " ms", gaps.get(0) < 150);
+    assertTrue("HEADs after " + gaps + " ms", gaps.get(4) >= 300 && gaps.get(4) < 800);
+
+    // Publishing again brings HEAD back to the minimum
+    long start = System.nanoTime();
+    producer.publish(actor, new byte[10]).get(5, TimeUnit.SECONDS);
+    assertTrue(view.recv(subscriber));
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertEquals(1, view.sequence());
+    assertTrue("HEAD after " + elapsed + " ms", elapsed < 200);
+    producer.terminate(actor);
+  }
+
+  @Test
+  public void testPublishFile() throws Exception {
+    Path path = folder.newFile().toPath();
+    Files.write(path, LINES.getBytes(StandardCharsets.UTF_8));
+    DafkaProducer producer = lineProducer();
+    ZActor actor = new ZActor(context, producer, null, "HELLO", properties);
+    actor.pipe().recv();
+    Socket subscriber = subscriber(DafkaProto.MSG);
+
+    // Lines are published as slices of the mapping, the last one even though no line feed ends it
+    assertEquals(2, (long) DafkaProducer.publishFile(producer, actor, path).get(5, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("Hello", "World", "Carpe Diem"), contents(subscriber, 3));
+    producer.terminate(actor);
+  }
+
+  @Test
+  public void testPublishLines() throws Exception {
+    DafkaProducer producer = lineProducer();
+    ZActor actor = new ZActor(context, producer, null, "HELLO", properties);
+    actor.pipe().recv();
+    Socket subscriber = subscriber(DafkaProto.MSG);
+
+    // Reading a byte at a time splits lines across reads
+    InputStream input = new ByteArrayInputStream(LINES.getBytes(StandardCharsets.UTF_8)) {
+      @Override
+      public synchronized int read(byte[] buffer, int offset, int length) {
+        return super.read(buffer, offset, Math.min(length, 1));
+      }
+    };
+    assertEquals(2, (long) DafkaProducer.publishLines(producer, actor, input).get(5, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("Hello", "World", "Carpe Diem"), contents(subscriber, 3));
+    producer.terminate(actor);
+  }
+
+  @Test
+  public void testPublishRecords() throws Exception {
+    DafkaProducer producer = lineProducer();
+    ZActor actor = new ZActor(context, producer, null, "HELLO", properties);
+    actor.pipe().recv();
+    Socket subscriber = subscriber(DafkaProto.MSG);
+
+    // Records are taken as they are, line feeds and blanks included
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    for (String record : new String[] {"Hello\nWorld", " ", "Carpe Diem"}) {
+      output.writeInt(record.length());
+      output.writeBytes(record);
+    }
+    InputStream input = new ByteArrayInputStream(bytes.toByteArray());
+    assertEquals(2, (long) DafkaProducer.publishRecords(producer, actor, input).get(5, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("Hello\nWorld", " ", "Carpe Diem"), contents(subscriber, 3));
+    producer.terminate(actor);
+  }
+
+  /**
+   * Creates a producer sending every record in a message of its own, as soon as it is published.
+   */
+  private DafkaProducer lineProducer() {
+    properties.setProperty("producer.acks", "0");
+    properties.setProperty("producer.batch.bytes", "1");
+    return new DafkaProducer();
+  }
+
+  private static List<String> contents(Socket subscriber, int count) {
+    List<String> contents = new ArrayList<>();
+    DafkaProtoView view = new DafkaProtoView();
+    while (contents.size() < count) {
+      assertTrue(view.recv(subscriber));
+      assertEquals(contents.size(), view.sequence());
+      contents.add(new String(view.content(), StandardCharsets.UTF_8));
+    }
+    return contents;
+  }
+
+  /**
+   * Starts a socket acknowledging records on behalf of any number of stores, announced by a beacon like a store, and
+   * waits for the producer to subscribe to it.
+   */
+  private Socket store() {
+    Socket store = context.createSocket(SocketType.XPUB);
+    int port = store.bindToRandomPort("tcp://*");
+    DafkaBeacon beacon = new DafkaBeacon();
+    ZActor actor = new ZActor(context, beacon, null, properties);
+    actor.recv();
+    beacon.start(actor, DafkaAddress.random(), port);
+    stops.add(() -> beacon.terminate(actor));
+    store.setReceiveTimeOut(5000);
+    assertNotNull(store.recv());
+    return store;
+  }
+
+  /**
+   * Connects a subscriber to the producer announced by its beacon, subscribing to the messages of the topic.
+   */
+  private Socket subscriber(char... ids) throws InterruptedException {
+    DafkaBeacon beacon = new DafkaBeacon();
+    ZActor actor = new ZActor(context, beacon, null, properties);
+    actor.recv();
+    stops.add(() -> beacon.terminate(actor));
+    actor.pipe().setReceiveTimeOut(5000);
+    assertEquals("CONNECT", actor.pipe().recvStr());
+    String address = actor.pipe().recvStr();
+
+    Socket subscriber = context.createSocket(SocketType.SUB);
+    subscriber.connect(address);
+    for (char id : ids) {
+      DafkaProto.subscribe(subscriber, id, "HELLO");
+    }
+    subscriber.setReceiveTimeOut(5000);
+    // Gives the subscription time to reach the producer
+    Thread.sleep(SENT_MS);
+    return subscriber;
+  }
+
+  private static void ack(Socket store, byte[] partition, byte[] address, long sequence) {
+    DafkaProto ack = new DafkaProto(DafkaProto.ACK);
+    ack.setTopic(partition);
+    ack.setSubject("%s", "HELLO");
+    ack.setSequence(sequence);
+    ack.setAddress(address);
+    ack.send(store);
+  }
+}
@@ -0,0 +1,155 @@
+package org.zeromq.dafka;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.SocketType;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Socket;
+
+public class TestDafkaReceiver {
+
+  private static final byte[] ADDRESS = "Life is short bu".getBytes(ZMQ.CHARSET);
+  private static final byte[] OTHER_ADDRESS = "Carpe Diem, now!".getBytes(ZMQ.CHARSET);
+
+  private ZContext context;
+  private Socket actor;
+  private DafkaRing<Object> ring;
+  private DafkaReceiver receiver;
+
+  @Before
+  public void setUp() {
+    context = new ZContext();
+    Socket pipe = context.createSocket(SocketType.PAIR);
+    pipe.bind("inproc://receiver");
+    actor = context.createSocket(SocketType.PAIR);
+    actor.connect("inproc://receiver");
+    ring = new DafkaRing<>(16);
+    receiver = new DafkaReceiver(pipe, ring, null, 100);
+  }
+
+  @After
+  public void tearDown() {
+    context.close();
+  }
+
+  @Test
+  public void testChunks() throws IOException {
+    deliver(ADDRESS, "Hello ", DafkaReceiver.MORE);
+    deliver(OTHER_ADDRESS, "between", null);
+    deliver(ADDRESS, "chunked ", DafkaReceiver.MORE);
+    deliver(ADDRESS, "world", DafkaReceiver.LAST);
+
+    DafkaRecord record = receiver.receive(0);
+    assertTrue(record.chunked());
+    assertEquals("Hello chunked world", read(record.stream()));
+
+    // Records of other partitions arriving while a record is read are received afterwards
+    DafkaRecord other = receiver.receive(0);
+    assertFalse(other.chunked());
+    assertEquals("between", read(other.stream()));
+    assertNull(receiver.receive(0));
+  }
+
+  @Test
+  public void testContent() {
+    deliver(ADDRESS, "Hello ", DafkaReceiver.MORE);
+    deliver(ADDRESS, "world", DafkaReceiver.LAST);
+
+    ByteBuffer content = receiver.receive(0).content();
+    assertEquals("Hello world", ZMQ.CHARSET.decode(content).toString());
+  }
+
+  @Test
+  public void testTruncated() throws IOException {
+    deliver(ADDRESS, "Hello ", DafkaReceiver.MORE);
+    deliver(ADDRESS, "", DafkaReceiver.TRUNCATED);
+
+    try (ReadableByteChannel channel = receiver.receive(0).channel()) {
+      ByteBuffer buffer = ByteBuffer.allocate(64);
+      assertEquals(6, channel.read(buffer));
+      channel.read(buffer);
+      fail("Truncated record was read to its end");
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void testTimeout() {
+    deliver(ADDRESS, "Hello ", DafkaReceiver.MORE);
+
+    try {
+      read(receiver.receive(0).stream());
+      fail("Missing chunk was not waited for");
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void testReleased() {
+    deliver(ADDRESS, "Hello ", DafkaReceiver.MORE);
+    receiver.receive(0).release();
+
+    // The rest of a released record is dropped as it arrives
+    deliver(ADDRESS, "world", DafkaReceiver.LAST);
+    deliver(OTHER_ADDRESS, "next", null);
+    DafkaRecord record = receiver.receive(0);
+    assertArrayEquals(OTHER_ADDRESS, record.address());
+    assertEquals("next", ZMQ.CHARSET.decode(record.content()).toString());
+  }
+
+  @Test
+  public void testPoll() {
+    for (int index = 0; index < 5; index++) {
+      deliver(ADDRESS, "record" + index, null);
+    }
+
+    List<DafkaRecord> records = receiver.poll(0, 2, 1024);
+    assertEquals(2, records.size());
+    assertEquals("record0", ZMQ.CHARSET.decode(records.get(0).content()).toString());
+    // The first record is taken whatever its size
+    assertEquals(1, receiver.poll(0, 10, 1).size());
+    assertEquals(2, receiver.poll(0, 10, 14).size());
+    assertTrue(receiver.poll(0, 10, 1024).isEmpty());
+
+    // Woken up by a record delivered while waiting
+    new Thread(() -> deliver(ADDRESS, "late", null)).start();
+    records = receiver.poll(1000, 10, 1024);
+    assertEquals(1, records.size());
+    assertEquals("late", ZMQ.CHARSET.decode(records.get(0).content()).toString());
+  }
+
+  /**
+   * Delivers a record like a consumer does, or a chunk of it with whether more is to come.
+   */
+  private void deliver(byte[] address, String content, Byte state) {
+    ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(ZMQ.CHARSET));
+    Object delivery = state == null
+        ? new DafkaRecord("HELLO", address, buffer, null)
+        : new DafkaReceiver.Chunk("HELLO", address, buffer, state);
+    if (ring.offer(delivery) > 0) {
+      actor.send(DafkaReceiver.WAKE_UP, ZMQ.DONTWAIT);
+    }
+  }
+
+  private static String read(InputStream stream) throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (int c; (c = stream.read()) >= 0; ) {
+      content.append((char) c);
+    }
+    return content.toString();
+  }
+}
@@ -0,0 +1,82 @@
+package org.zeromq.dafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestDafkaReorder {
+
+  @Test
+  public void testInOrder() {
+    DafkaReorder reorder = new DafkaReorder(16, 1024);
+    assertEquals(-1, reorder.latest(3));
+
+    // Arriving in reverse behind a gap of one record
+    for (long sequence = 10; sequence > 0; sequence--) {
+      assertTrue(reorder.hold(3, 0, sequence, 1, false, 0, new byte[]{(byte) sequence}));
+    }
+    // A duplicate is held once
+    assertTrue(reorder.hold(3, 0, 5, 1, false, 0, new byte[]{5}));
+    assertEquals(10, reorder.latest(3));
+    assertEquals(10, reorder.bytes());
+    assertNull(reorder.take(3, 0));
+
+    for (long next = 1; next <= 10; next++) {
+      DafkaReorder.Held held = reorder.take(3, next);
+      assertEquals(next, held.sequence);
+      assertEquals(next, held.content[0]);
+    }
+    assertNull(reorder.take(3, 11));
+    assertEquals(-1, reorder.latest(3));
+    assertEquals(0, reorder.bytes());
+  }
+
+  @Test
+  public void testBatches() {
+    DafkaReorder reorder = new DafkaReorder(16, 1024);
+    assertTrue(reorder.hold(0, 0, 4, 4, true, 0, new byte[8]));
+    assertTrue(reorder.hold(0, 0, 10, 2, true, 0, new byte[8]));
+    assertTrue(reorder.hold(0, 0, 8, 1, false, 0, new byte[8]));
+
+    // The first batch was partly delivered meanwhile, the single record completely
+    DafkaReorder.Held held = reorder.take(0, 6);
+    assertEquals(4, held.sequence);
+    assertEquals(7, held.last());
+    assertNull(reorder.take(0, 9));
+
+    held = reorder.take(0, 10);
+    assertEquals(11, held.last());
+    assertEquals(0, reorder.bytes());
+  }
+
+  @Test
+  public void testLimits() {
+    DafkaReorder reorder = new DafkaReorder(10, 16);
+    // Rounded up to 16 sequences
+    assertTrue(reorder.hold(0, 0, 15, 1, false, 0, new byte[4]));
+    assertFalse(reorder.hold(0, 0, 16, 1, false, 0, new byte[4]));
+
+    // Bytes are shared by all partitions
+    assertTrue(reorder.hold(1, 0, 1, 1, false, 0, new byte[12]));
+    assertFalse(reorder.hold(2, 0, 1, 1, false, 0, new byte[1]));
+
+    assertFalse(new DafkaReorder(0, 16).hold(0, 0, 1, 1, false, 0, new byte[1]));
+  }
+
+  @Test
+  public void testLapped() {
+    DafkaReorder reorder = new DafkaReorder(16, 1024);
+    assertTrue(reorder.hold(0, 0, 2, 1, false, 0, new byte[1]));
+    assertTrue(reorder.hold(0, 0, 10, 100, true, 0, new byte[1]));
+    assertTrue(reorder.hold(0, 0, 12, 1, false, 0, new byte[1]));
+
+    // The partition went ahead by more than a lap into the batch
+    DafkaReorder.Held held = reorder.take(0, 50);
+    assertEquals(10, held.sequence);
+    assertEquals(-1, reorder.latest(0));
+    assertEquals(0, reorder.bytes());
+  }
+}
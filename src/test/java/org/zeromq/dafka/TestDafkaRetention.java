@@ -0,0 +1,80 @@
+package org.zeromq.dafka;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+public class TestDafkaRetention {
+
+  @Test
+  public void testFind() {
+    DafkaRetention retention = new DafkaRetention(1024, 16);
+    retention.add(0, 1, false, DafkaCompressors.NONE, bytes("zero"), 0, 4);
+    retention.add(1, 3, true, DafkaCompressors.DEFLATE, bytes("one to three"), 0, 12);
+    retention.add(4, 1, false, DafkaCompressors.NONE, ByteBuffer.wrap(bytes("xfourx"), 1, 4));
+    // Sequence 5 was never retained
+    retention.add(6, 1, false, DafkaCompressors.NONE, bytes("six"), 0, 3);
+
+    int entry = retention.find(2);
+    assertEquals(1, retention.sequence(entry));
+    assertEquals(3, retention.count(entry));
+    assertTrue(retention.packed(entry));
+    assertEquals(DafkaCompressors.DEFLATE, retention.codec(entry));
+    assertArrayEquals(bytes("one to three"), retention.content(entry));
+
+    entry = retention.next(entry);
+    assertEquals(4, retention.sequence(entry));
+    assertFalse(retention.packed(entry));
+    assertArrayEquals(bytes("four"), retention.content(entry));
+    assertEquals(-1, retention.next(entry));
+
+    assertEquals(-1, retention.find(5));
+    assertEquals(6, retention.sequence(retention.find(6)));
+    assertEquals(-1, retention.find(7));
+  }
+
+  @Test
+  public void testOverwrite() {
+    DafkaRetention retention = new DafkaRetention(100, 8);
+    byte[] content = new byte[30];
+    for (int sequence = 0; sequence < 3; sequence++) {
+      retention.add(sequence, 1, false, DafkaCompressors.NONE, content, 0, 30);
+    }
+    assertEquals(3, retention.size());
+
+    // The fourth does not fit before the end, wraps and overwrites the first
+    content[0] = 3;
+    retention.add(3, 1, false, DafkaCompressors.NONE, content, 0, 30);
+    assertEquals(-1, retention.find(0));
+    assertEquals(3, retention.size());
+    assertEquals(3, retention.content(retention.find(3))[0]);
+
+    // A larger one overwrites whatever it overlaps, oldest first
+    retention.add(4, 1, false, DafkaCompressors.NONE, new byte[50], 0, 50);
+    assertEquals(-1, retention.find(1));
+    assertEquals(-1, retention.find(2));
+    assertEquals(4, retention.sequence(retention.next(retention.find(3))));
+
+    // Content larger than the ring is not retained
+    retention.add(5, 1, false, DafkaCompressors.NONE, new byte[101], 0, 101);
+    assertEquals(-1, retention.find(5));
+    assertEquals(2, retention.size());
+
+    // Nor are more messages than slots
+    for (int sequence = 6; sequence < 16; sequence++) {
+      retention.add(sequence, 1, false, DafkaCompressors.NONE, content, 0, 1);
+    }
+    assertEquals(8, retention.size());
+    assertEquals(-1, retention.find(7));
+    assertEquals(8, retention.sequence(retention.find(8)));
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(ZMQ.CHARSET);
+  }
+}
@@ -0,0 +1,77 @@
+package org.zeromq.dafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class TestDafkaRing {
+
+  @Test
+  public void testWakeUp() {
+    DafkaRing<Integer> ring = new DafkaRing<>(3);
+    assertEquals(4, ring.capacity());
+
+    // Only the offer making the ring non-empty wakes the consumer up
+    assertEquals(1, ring.offer(0));
+    assertEquals(0, ring.offer(1));
+    assertEquals(Integer.valueOf(0), ring.poll());
+    assertEquals(0, ring.offer(2));
+    assertEquals(0, ring.offer(3));
+    assertEquals(0, ring.offer(4));
+    assertEquals(-1, ring.offer(5));
+
+    assertEquals(Integer.valueOf(1), ring.poll());
+    assertEquals(Integer.valueOf(2), ring.poll());
+    assertFalse(ring.settle(3));
+    assertEquals(2, ring.size());
+    assertEquals(Integer.valueOf(3), ring.poll());
+    assertEquals(Integer.valueOf(4), ring.poll());
+    assertNull(ring.poll());
+    assertTrue(ring.settle(2));
+
+    assertEquals(1, ring.offer(6));
+    assertEquals(Integer.valueOf(6), ring.poll());
+  }
+
+  @Test
+  public void testProducers() throws InterruptedException {
+    int threads = 8;
+    int items = 100000;
+    DafkaRing<long[]> ring = new DafkaRing<>(1024);
+    List<Thread> producers = new ArrayList<>();
+    for (int thread = 0; thread < threads; thread++) {
+      long producer = thread;
+      producers.add(new Thread(() -> {
+        for (long item = 0; item < items; item++) {
+          while (ring.offer(new long[]{producer, item}) < 0) {
+            Thread.yield();
+          }
+        }
+      }));
+    }
+    producers.forEach(Thread::start);
+
+    // Items of every producer arrive in the order it offered them
+    long[] next = new long[threads];
+    int polled = 0;
+    while (polled < threads * items) {
+      long[] item = ring.poll();
+      if (item == null) {
+        Thread.yield();
+        continue;
+      }
+      assertEquals(next[(int) item[0]]++, item[1]);
+      polled++;
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+    assertNull(ring.poll());
+    assertTrue(ring.settle(polled));
+  }
+}
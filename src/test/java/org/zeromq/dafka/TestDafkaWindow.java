@@ -0,0 +1,71 @@
+package org.zeromq.dafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class TestDafkaWindow {
+
+  @Test
+  public void testLimits() {
+    DafkaWindow window = new DafkaWindow(2, 100, DafkaWindow.Policy.SHED);
+    assertTrue(window.acquire(60));
+    // Over the byte limit
+    assertFalse(window.acquire(60));
+    assertTrue(window.acquire(40));
+    // Over the message limit
+    assertFalse(window.acquire(0));
+    assertEquals(2, window.messages());
+    assertEquals(100, window.bytes());
+    assertEquals(2, window.shed());
+
+    window.release(2, 100);
+    // A record larger than the byte limit gets in on its own
+    assertTrue(window.acquire(1000));
+    assertFalse(window.acquire(1));
+  }
+
+  @Test
+  public void testFail() {
+    DafkaWindow window = new DafkaWindow(1, 0, DafkaWindow.Policy.FAIL);
+    assertTrue(window.acquire(10));
+    try {
+      window.acquire(10);
+      fail("Full window did not fail");
+    } catch (IllegalStateException expected) {
+    }
+    assertEquals(1, window.messages());
+    assertEquals(10, window.bytes());
+  }
+
+  @Test
+  public void testBlock() throws Exception {
+    DafkaWindow window = new DafkaWindow(1, 0, DafkaWindow.Policy.BLOCK);
+    assertTrue(window.acquire(10));
+
+    CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> window.acquire(20));
+    Thread.sleep(100);
+    assertFalse(blocked.isDone());
+
+    window.release(1, 10);
+    assertTrue(blocked.get(5, TimeUnit.SECONDS));
+    assertEquals(1, window.messages());
+    assertEquals(20, window.bytes());
+
+    CompletableFuture<Boolean> closed = CompletableFuture.supplyAsync(() -> window.acquire(20));
+    Thread.sleep(100);
+    window.close();
+    try {
+      closed.get(5, TimeUnit.SECONDS);
+      fail("Closed window did not fail");
+    } catch (ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof IllegalStateException);
+    }
+  }
+}
@@ -1,14 +1,23 @@
 package org.zproto;
 
 import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
 import org.junit.Test;
 import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZFrame;
 import org.zeromq.ZContext;
+import org.zeromq.ZMsg;
 
 public class TestDafkaProto
 {
+    //  Addresses are 16 bytes
+    private static final byte [] ADDRESS = "Life is short bu".getBytes (ZMQ.CHARSET);
+    private static final byte [] OTHER_ADDRESS = "Carpe Diem, now!".getBytes (ZMQ.CHARSET);
+
     @Test
     public void testDafkaProto () throws InterruptedException
     {
@@ -37,8 +46,9 @@ public class TestDafkaProto
         self.subscribe(input, DafkaProto.MSG, "HELLO");
         Thread.sleep(100);  //  Give time for subscription to become valid
         self.setSubject ("Life is short but Now lasts for ever");
-        self.setAddress ("Life is short but Now lasts for ever");
+        self.setAddress (ADDRESS);
         self.setSequence ((byte) 123);
+        self.setCodec ((byte) 123);
         self.setContent (new ZFrame ("Captcha Diem"));
         self.send (output);
 
@@ -46,8 +56,9 @@ public class TestDafkaProto
         assert (self != null);
         assertEquals(self.topic(), "HELLO");
         assertEquals (self.subject (), "Life is short but Now lasts for ever");
-        assertEquals (self.address (), "Life is short but Now lasts for ever");
+        assertArrayEquals (self.address (), ADDRESS);
         assertEquals (self.sequence (), 123);
+        assertEquals (self.codec (), 123);
         assertTrue (self.content ().streq ("Captcha Diem"));
         self.destroy ();
 
@@ -56,8 +67,54 @@ public class TestDafkaProto
         self.subscribe(input, DafkaProto.DIRECT_MSG, "HELLO");
         Thread.sleep(100);  //  Give time for subscription to become valid
         self.setSubject ("Life is short but Now lasts for ever");
-        self.setAddress ("Life is short but Now lasts for ever");
+        self.setAddress (ADDRESS);
+        self.setSequence ((byte) 123);
+        self.setCodec ((byte) 123);
+        self.setContent (new ZFrame ("Captcha Diem"));
+        self.send (output);
+
+        self = DafkaProto.recv (input);
+        assert (self != null);
+        assertEquals(self.topic(), "HELLO");
+        assertEquals (self.subject (), "Life is short but Now lasts for ever");
+        assertArrayEquals (self.address (), ADDRESS);
+        assertEquals (self.sequence (), 123);
+        assertEquals (self.codec (), 123);
+        assertTrue (self.content ().streq ("Captcha Diem"));
+        self.destroy ();
+
+        self = new DafkaProto (DafkaProto.MSG_BATCH);
+        self.setTopic ("HELLO");
+        self.subscribe(input, DafkaProto.MSG_BATCH, "HELLO");
+        Thread.sleep(100);  //  Give time for subscription to become valid
+        self.setSubject ("Life is short but Now lasts for ever");
+        self.setAddress (ADDRESS);
         self.setSequence ((byte) 123);
+        self.setCount ((byte) 123);
+        self.setCodec ((byte) 123);
+        self.setContent (new ZFrame ("Captcha Diem"));
+        self.send (output);
+
+        self = DafkaProto.recv (input);
+        assert (self != null);
+        assertEquals(self.topic(), "HELLO");
+        assertEquals (self.subject (), "Life is short but Now lasts for ever");
+        assertArrayEquals (self.address (), ADDRESS);
+        assertEquals (self.sequence (), 123);
+        assertEquals (self.count (), 123);
+        assertEquals (self.codec (), 123);
+        assertTrue (self.content ().streq ("Captcha Diem"));
+        self.destroy ();
+
+        self = new DafkaProto (DafkaProto.DIRECT_MSG_BATCH);
+        self.setTopic ("HELLO");
+        self.subscribe(input, DafkaProto.DIRECT_MSG_BATCH, "HELLO");
+        Thread.sleep(100);  //  Give time for subscription to become valid
+        self.setSubject ("Life is short but Now lasts for ever");
+        self.setAddress (ADDRESS);
+        self.setSequence ((byte) 123);
+        self.setCount ((byte) 123);
+        self.setCodec ((byte) 123);
         self.setContent (new ZFrame ("Captcha Diem"));
         self.send (output);
 
@@ -65,8 +122,10 @@ public class TestDafkaProto
         assert (self != null);
         assertEquals(self.topic(), "HELLO");
         assertEquals (self.subject (), "Life is short but Now lasts for ever");
-        assertEquals (self.address (), "Life is short but Now lasts for ever");
+        assertArrayEquals (self.address (), ADDRESS);
         assertEquals (self.sequence (), 123);
+        assertEquals (self.count (), 123);
+        assertEquals (self.codec (), 123);
         assertTrue (self.content ().streq ("Captcha Diem"));
         self.destroy ();
 
@@ -77,7 +136,7 @@ public class TestDafkaProto
         self.setSubject ("Life is short but Now lasts for ever");
         self.setSequence ((byte) 123);
         self.setCount ((byte) 123);
-        self.setAddress ("Life is short but Now lasts for ever");
+        self.setAddress (ADDRESS);
         self.send (output);
 
         self = DafkaProto.recv (input);
@@ -86,7 +145,7 @@ public class TestDafkaProto
         assertEquals (self.subject (), "Life is short but Now lasts for ever");
         assertEquals (self.sequence (), 123);
         assertEquals (self.count (), 123);
-        assertEquals (self.address (), "Life is short but Now lasts for ever");
+        assertArrayEquals (self.address (), ADDRESS);
         self.destroy ();
 
         self = new DafkaProto (DafkaProto.ACK);
@@ -95,6 +154,7 @@ public class TestDafkaProto
         Thread.sleep(100);  //  Give time for subscription to become valid
         self.setSubject ("Life is short but Now lasts for ever");
         self.setSequence ((byte) 123);
+        self.setAddress (ADDRESS);
         self.send (output);
 
         self = DafkaProto.recv (input);
@@ -102,6 +162,7 @@ public class TestDafkaProto
         assertEquals(self.topic(), "HELLO");
         assertEquals (self.subject (), "Life is short but Now lasts for ever");
         assertEquals (self.sequence (), 123);
+        assertArrayEquals (self.address (), ADDRESS);
         self.destroy ();
 
         self = new DafkaProto (DafkaProto.HEAD);
@@ -109,7 +170,7 @@ public class TestDafkaProto
         self.subscribe(input, DafkaProto.HEAD, "HELLO");
         Thread.sleep(100);  //  Give time for subscription to become valid
         self.setSubject ("Life is short but Now lasts for ever");
-        self.setAddress ("Life is short but Now lasts for ever");
+        self.setAddress (ADDRESS);
         self.setSequence ((byte) 123);
         self.send (output);
 
@@ -117,7 +178,7 @@ public class TestDafkaProto
         assert (self != null);
         assertEquals(self.topic(), "HELLO");
         assertEquals (self.subject (), "Life is short but Now lasts for ever");
-        assertEquals (self.address (), "Life is short but Now lasts for ever");
+        assertArrayEquals (self.address (), ADDRESS);
         assertEquals (self.sequence (), 123);
         self.destroy ();
 
@@ -126,7 +187,7 @@ public class TestDafkaProto
         self.subscribe(input, DafkaProto.DIRECT_HEAD, "HELLO");
         Thread.sleep(100);  //  Give time for subscription to become valid
         self.setSubject ("Life is short but Now lasts for ever");
-        self.setAddress ("Life is short but Now lasts for ever");
+        self.setAddress (ADDRESS);
         self.setSequence ((byte) 123);
         self.send (output);
 
@@ -134,7 +195,7 @@ public class TestDafkaProto
         assert (self != null);
         assertEquals(self.topic(), "HELLO");
         assertEquals (self.subject (), "Life is short but Now lasts for ever");
-        assertEquals (self.address (), "Life is short but Now lasts for ever");
+        assertArrayEquals (self.address (), ADDRESS);
         assertEquals (self.sequence (), 123);
         self.destroy ();
 
@@ -142,20 +203,20 @@ public class TestDafkaProto
         self.setTopic ("HELLO");
         self.subscribe(input, DafkaProto.GET_HEADS, "HELLO");
         Thread.sleep(100);  //  Give time for subscription to become valid
-        self.setAddress ("Life is short but Now lasts for ever");
+        self.setAddress (ADDRESS);
         self.send (output);
 
         self = DafkaProto.recv (input);
         assert (self != null);
         assertEquals(self.topic(), "HELLO");
-        assertEquals (self.address (), "Life is short but Now lasts for ever");
+        assertArrayEquals (self.address (), ADDRESS);
         self.destroy ();
 
         self = new DafkaProto (DafkaProto.CONSUMER_HELLO);
         self.setTopic ("HELLO");
         self.subscribe(input, DafkaProto.CONSUMER_HELLO, "HELLO");
         Thread.sleep(100);  //  Give time for subscription to become valid
-        self.setAddress ("Life is short but Now lasts for ever");
+        self.setAddress (ADDRESS);
         self.appendSubjects ("Name: %s", "Brutus");
         self.appendSubjects ("Age: %d", 43);
         self.send (output);
@@ -163,7 +224,7 @@ public class TestDafkaProto
         self = DafkaProto.recv (input);
         assert (self != null);
         assertEquals(self.topic(), "HELLO");
-        assertEquals (self.address (), "Life is short but Now lasts for ever");
+        assertArrayEquals (self.address (), ADDRESS);
         assertEquals (self.subjects ().size (), 2);
         assertEquals (self.subjects ().get (0), "Name: Brutus");
         assertEquals (self.subjects ().get (1), "Age: 43");
@@ -173,16 +234,347 @@ public class TestDafkaProto
         self.setTopic ("HELLO");
         self.subscribe(input, DafkaProto.STORE_HELLO, "HELLO");
         Thread.sleep(100);  //  Give time for subscription to become valid
-        self.setAddress ("Life is short but Now lasts for ever");
+        self.setAddress (ADDRESS);
         self.send (output);
 
         self = DafkaProto.recv (input);
         assert (self != null);
         assertEquals(self.topic(), "HELLO");
-        assertEquals (self.address (), "Life is short but Now lasts for ever");
+        assertArrayEquals (self.address (), ADDRESS);
         self.destroy ();
 
         ctx.destroy ();
         System.out.printf ("OK\n");
     }
+
+    @Test
+    public void testRecvReuse () throws InterruptedException
+    {
+        //  A SUB socket duplicates a ByteBuffer per message to match it
+        //  against its subscriptions, so use a pair to measure the decoder
+        ZContext ctx = new ZContext ();
+        Socket output = ctx.createSocket (ZMQ.PAIR);
+        output.bind ("inproc://selftest-reuse");
+        Socket input = ctx.createSocket (ZMQ.PAIR);
+        input.connect ("inproc://selftest-reuse");
+
+        //  Queue everything up front so only decoding is measured below
+        int warmup = 100;
+        int messages = 500;
+        for (int index = 0; index < warmup + messages; index++)
+            sendMsg (output, "HELLO", index, "Captcha Diem");
+
+        DafkaProto self = new DafkaProto ('A');
+        for (int index = 0; index < warmup; index++)
+            assertTrue (DafkaProto.recv (input, self));
+        String subject = self.subject ();
+
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ();
+        long thread = Thread.currentThread ().getId ();
+        long before = threads.getThreadAllocatedBytes (thread);
+        long sum = 0;
+        for (int index = 0; index < messages; index++) {
+            DafkaProto.recv (input, self);
+            sum += self.sequence ();
+        }
+        long allocated = threads.getThreadAllocatedBytes (thread) - before;
+
+        //  Decoding allocates nothing however many messages it receives, so
+        //  the bound holds only the pipe's flow control now and then
+        assertTrue ("allocated " + allocated + " bytes", allocated < 1024);
+        assertEquals ((long) messages * (warmup + warmup + messages - 1) / 2, sum);
+        assertEquals ("HELLO", self.topic ());
+        assertSame (subject, self.subject ());
+        assertArrayEquals (ADDRESS, self.address ());
+        assertTrue (self.content ().streq ("Captcha Diem"));
+
+        //  Changed values are still decoded into new strings
+        sendMsg (output, "WORLD", warmup + messages, "Carpe Diem");
+        assertTrue (DafkaProto.recv (input, self));
+        assertEquals ("WORLD", self.subject ());
+        assertEquals (warmup + messages, self.sequence ());
+        assertTrue (self.content ().streq ("Carpe Diem"));
+
+        ctx.destroy ();
+    }
+
+    @Test
+    public void testView () throws InterruptedException
+    {
+        ZContext ctx = new ZContext ();
+        Socket output = ctx.createSocket (ZMQ.PUB);
+        output.bind ("inproc://selftest-view");
+        Socket input = ctx.createSocket (ZMQ.SUB);
+        input.connect ("inproc://selftest-view");
+        DafkaProto.subscribe (input, DafkaProto.MSG, "HELLO");
+        DafkaProto.subscribe (input, DafkaProto.FETCH, "HELLO");
+        Thread.sleep (100);  //  Give time for subscription to become valid
+
+        sendMsg (output, "Life is short but Now lasts for ever", 123, "Captcha Diem");
+
+        DafkaProtoView view = new DafkaProtoView ();
+        assertTrue (view.recv (input));
+        assertEquals (DafkaProto.MSG, view.id ());
+        assertEquals (123, view.sequence ());
+        assertTrue (view.subjectEquals ("Life is short but Now lasts for ever".getBytes (ZMQ.CHARSET)));
+        assertFalse (view.subjectEquals ("Life is short".getBytes (ZMQ.CHARSET)));
+        assertTrue (view.addressEquals (ADDRESS));
+        assertEquals (DafkaProtoView.partitionHash ("Life is short but Now lasts for ever".getBytes (ZMQ.CHARSET),
+            ADDRESS), view.partitionHash ());
+        assertEquals ("HELLO", view.topic ());
+        assertEquals ("Life is short but Now lasts for ever", view.subject ());
+        assertEquals ("Captcha Diem", new String (view.content (), ZMQ.CHARSET));
+
+        DafkaProto self = new DafkaProto (DafkaProto.FETCH);
+        self.setTopic ("HELLO");
+        self.setSubject ("Life is short but Now lasts for ever");
+        self.setSequence (123);
+        self.setCount (42);
+        self.setAddress (OTHER_ADDRESS);
+        self.send (output);
+
+        assertTrue (view.recv (input));
+        assertEquals (DafkaProto.FETCH, view.id ());
+        assertEquals (123, view.sequence ());
+        assertEquals (42, view.count ());
+        assertTrue (view.addressEquals (OTHER_ADDRESS));
+        assertNull (view.content ());
+
+        //  Truncated frames are rejected instead of read past their end
+        byte [] truncated = { 'M', 'H', 'I', 0, 5, 'H', 'E' };
+        assertFalse (view.wrap (truncated, truncated.length, new byte [0]));
+
+        ctx.destroy ();
+    }
+
+    @Test
+    public void testBinaryTopic () throws InterruptedException
+    {
+        ZContext ctx = new ZContext ();
+        Socket output = ctx.createSocket (ZMQ.PUB);
+        output.bind ("inproc://selftest-binary");
+        Socket input = ctx.createSocket (ZMQ.SUB);
+        input.connect ("inproc://selftest-binary");
+
+        //  Addresses used as topic may hold any byte but zero
+        byte [] address = new byte [16];
+        for (int index = 0; index < address.length; index++)
+            address [index] = (byte) (0xff - index * 7);
+        DafkaProto.subscribe (input, DafkaProto.DIRECT_MSG, address);
+        Thread.sleep (100);  //  Give time for subscription to become valid
+
+        DafkaProto self = new DafkaProto (DafkaProto.DIRECT_MSG);
+        self.setTopic (OTHER_ADDRESS);
+        self.setSubject ("HELLO");
+        self.setAddress (ADDRESS);
+        self.setContent (new ZFrame ("Carpe Diem"));
+        self.send (output);
+
+        self = new DafkaProto (DafkaProto.DIRECT_MSG);
+        self.setTopic (address);
+        self.setSubject ("HELLO");
+        self.setAddress (ADDRESS);
+        self.setContent (new ZFrame ("Captcha Diem"));
+        self.send (output);
+
+        DafkaProtoView view = new DafkaProtoView ();
+        assertTrue (view.recv (input));
+        assertTrue (view.topicEquals (address));
+        assertArrayEquals (address, view.topicData ());
+        assertArrayEquals (ADDRESS, view.address ());
+        assertEquals ("Captcha Diem", new String (view.content (), ZMQ.CHARSET));
+
+        ctx.destroy ();
+    }
+
+    @Test
+    public void testEncodeDecode ()
+    {
+        DafkaProto self = new DafkaProto (DafkaProto.MSG_BATCH);
+        self.setTopic ("Hello");
+        self.setSubject ("Hello");
+        self.setAddress (ADDRESS);
+        self.setSequence (123);
+        self.setCount (2);
+        self.setCodec (1);
+        self.setContent (new ZFrame ("Captcha Diem"));
+
+        //  Encoding leaves the object and decoding leaves the frames intact
+        ZMsg msg = self.encode ();
+        assertEquals (2, msg.size ());
+        for (int round = 0; round < 2; round++) {
+            DafkaProto copy = DafkaProto.decode (msg);
+            assertEquals (DafkaProto.MSG_BATCH, copy.id ());
+            assertEquals ("Hello", copy.topic ());
+            assertEquals ("Hello", copy.subject ());
+            assertArrayEquals (ADDRESS, copy.address ());
+            assertEquals (123, copy.sequence ());
+            assertEquals (2, copy.count ());
+            assertEquals (1, copy.codec ());
+            assertTrue (copy.content ().streq ("Captcha Diem"));
+        }
+        assertEquals (2, self.encode ().size ());
+
+        //  A content message without its content frame is malformed
+        msg.removeLast ();
+        assertNull (DafkaProto.decode (msg));
+    }
+
+    @Test
+    public void testTemplate () throws InterruptedException
+    {
+        ZContext ctx = new ZContext ();
+        Socket output = ctx.createSocket (ZMQ.PUB);
+        output.bind ("inproc://selftest-template");
+        Socket input = ctx.createSocket (ZMQ.SUB);
+        input.connect ("inproc://selftest-template");
+        DafkaProto.subscribe (input, DafkaProto.MSG, "HELLO");
+        Thread.sleep (100);  //  Give time for subscription to become valid
+
+        DafkaProtoTemplate template = new DafkaProtoTemplate (DafkaProto.MSG, "HELLO".getBytes (ZMQ.CHARSET),
+            "Life is short but Now lasts for ever", OTHER_ADDRESS);
+        assertTrue (template.send (output, 123, new ZFrame ("Captcha Diem")));
+        assertTrue (template.send (output, 124, new ZFrame ("Carpe Diem")));
+
+        //  Both messages keep their own sequence although the header is reused
+        DafkaProto self = DafkaProto.recv (input);
+        assertEquals ("HELLO", self.topic ());
+        assertEquals ("Life is short but Now lasts for ever", self.subject ());
+        assertArrayEquals (OTHER_ADDRESS, self.address ());
+        assertEquals (123, self.sequence ());
+        assertTrue (self.content ().streq ("Captcha Diem"));
+        self.destroy ();
+
+        self = DafkaProto.recv (input);
+        assertEquals (124, self.sequence ());
+        assertTrue (self.content ().streq ("Carpe Diem"));
+        self.destroy ();
+
+        ctx.destroy ();
+    }
+
+    @Test
+    public void testZeroCopy ()
+    {
+        ZContext ctx = new ZContext ();
+        Socket output = ctx.createSocket (ZMQ.PAIR);
+        output.bind ("inproc://selftest-zerocopy");
+        Socket input = ctx.createSocket (ZMQ.PAIR);
+        input.connect ("inproc://selftest-zerocopy");
+
+        //  A borrowed frame reaches inproc peers as it is and stays usable
+        ZFrame frame = new ZFrame ("Carpe Diem");
+        DafkaProto.sendMsg (output, "HELLO", ADDRESS, 123, 0, frame);
+        DafkaProto self = DafkaProto.recv (input);
+        assertEquals (123, self.sequence ());
+        assertSame (frame.getData (), self.content ().getData ());
+        assertTrue (frame.streq ("Carpe Diem"));
+
+        //  So does a whole array wrapped in a buffer, while a slice is sent
+        //  without touching the buffer's position
+        byte [] data = "Captcha Diem".getBytes (ZMQ.CHARSET);
+        DafkaProto.sendDirect_Msg (output, OTHER_ADDRESS, "HELLO", ADDRESS, 124, 0, ByteBuffer.wrap (data));
+        self = DafkaProto.recv (input);
+        assertEquals (DafkaProto.DIRECT_MSG, self.id ());
+        assertArrayEquals (OTHER_ADDRESS, self.topicData ());
+        assertSame (data, self.content ().getData ());
+
+        ByteBuffer slice = ByteBuffer.wrap (data, 8, 4);
+        DafkaProto.sendMsg_Batch (output, "HELLO".getBytes (ZMQ.CHARSET), "HELLO", ADDRESS, 125, 1, 0, slice);
+        self = DafkaProto.recv (input);
+        assertEquals (1, self.count ());
+        assertTrue (self.content ().streq ("Diem"));
+        assertEquals (8, slice.position ());
+
+        DafkaProtoTemplate template = new DafkaProtoTemplate (DafkaProto.MSG, "HELLO".getBytes (ZMQ.CHARSET),
+            "HELLO", ADDRESS);
+        assertTrue (template.send (output, 126, ByteBuffer.wrap (data, 0, 7)));
+        self = DafkaProto.recv (input);
+        assertEquals (126, self.sequence ());
+        assertTrue (self.content ().streq ("Captcha"));
+
+        //  Slices are encoded straight from the array over tcp as well
+        Socket tcpOutput = ctx.createSocket (ZMQ.PAIR);
+        int port = tcpOutput.bindToRandomPort ("tcp://127.0.0.1");
+        Socket tcpInput = ctx.createSocket (ZMQ.PAIR);
+        tcpInput.connect ("tcp://127.0.0.1:" + port);
+        DafkaProtoTemplate batchTemplate = new DafkaProtoTemplate (DafkaProto.DIRECT_MSG_BATCH,
+            ADDRESS, "HELLO", OTHER_ADDRESS);
+        assertTrue (batchTemplate.send (tcpOutput, 127, 2, data, 3, 6));
+        self = DafkaProto.recv (tcpInput);
+        assertEquals (127, self.sequence ());
+        assertEquals (2, self.count ());
+        assertTrue (self.content ().streq ("tcha D"));
+
+        ctx.destroy ();
+    }
+
+    @Test
+    public void testBatch () throws InterruptedException
+    {
+        ZContext ctx = new ZContext ();
+        Socket output = ctx.createSocket (ZMQ.PUB);
+        output.bind ("inproc://selftest-batch");
+        Socket input = ctx.createSocket (ZMQ.SUB);
+        input.connect ("inproc://selftest-batch");
+        DafkaProto.subscribe (input, DafkaProto.MSG_BATCH, "HELLO");
+        Thread.sleep (100);  //  Give time for subscription to become valid
+
+        //  Records of a batch may be empty and outgrow the initial buffer
+        DafkaProtoBatch batch = new DafkaProtoBatch (8);
+        batch.add ("Captcha Diem".getBytes (ZMQ.CHARSET));
+        batch.add (new byte [0]);
+        batch.add ("Carpe Diem".getBytes (ZMQ.CHARSET));
+        assertEquals (3, batch.count ());
+        assertEquals (3 * DafkaProtoBatch.RECORD_OVERHEAD + 22, batch.size ());
+
+        DafkaProtoTemplate template = new DafkaProtoTemplate (DafkaProto.MSG_BATCH, "HELLO".getBytes (ZMQ.CHARSET),
+            "Life is short but Now lasts for ever", OTHER_ADDRESS);
+        assertTrue (template.send (output, 123, batch));
+        batch.reset ();
+        batch.add ("Carpe Diem".getBytes (ZMQ.CHARSET));
+        template.setCodec (1);
+        assertTrue (template.send (output, 126, batch));
+
+        DafkaProtoView view = new DafkaProtoView ();
+        assertTrue (view.recv (input));
+        assertEquals (DafkaProto.MSG_BATCH, view.id ());
+        assertArrayEquals (OTHER_ADDRESS, view.address ());
+        assertEquals (123, view.sequence ());
+        assertEquals (3, view.count ());
+        assertEquals (0, view.codec ());
+
+        DafkaProtoBatch records = new DafkaProtoBatch ();
+        assertTrue (records.wrap (view.content (), view.count ()));
+        assertTrue (records.skip (1));
+        assertTrue (records.next ());
+        assertEquals (0, records.length ());
+        assertTrue (records.next ());
+        assertEquals ("Carpe Diem",
+            new String (records.data (), records.offset (), records.length (), ZMQ.CHARSET));
+        assertFalse (records.next ());
+
+        //  A count that does not match the packed records is rejected
+        assertFalse (records.wrap (view.content (), 2));
+        assertFalse (records.wrap (view.content (), 4));
+
+        assertTrue (view.recv (input));
+        assertEquals (126, view.sequence ());
+        assertEquals (1, view.count ());
+        assertEquals (1, view.codec ());
+
+        ctx.destroy ();
+    }
+
+    private static void sendMsg (Socket output, String subject, long sequence, String content)
+    {
+        DafkaProto self = new DafkaProto (DafkaProto.MSG);
+        self.setTopic ("HELLO");
+        self.setSubject (subject);
+        self.setAddress (ADDRESS);
+        self.setSequence (sequence);
+        self.setContent (new ZFrame (content));
+        self.send (output);
+    }
 }